@@ -137,4 +137,11 @@ public interface DeliveryDao {
     
     @Query("SELECT * FROM deliveries WHERE status IN ('PENDING', 'IN_TRANSIT') ORDER BY route_order ASC")
     List<Delivery> getActiveDeliveriesSync();
+    
+    // Located deliveries that arrived after a watermark, oldest first (speed calibration)
+    @Query("SELECT * FROM deliveries WHERE actual_arrival IS NOT NULL " +
+           "AND latitude IS NOT NULL AND longitude IS NOT NULL " +
+           "AND (actual_arrival > :sinceMillis OR (actual_arrival = :sinceMillis AND id > :afterId)) " +
+           "ORDER BY actual_arrival ASC, id ASC")
+    List<Delivery> getArrivedSince(long sinceMillis, long afterId);
 }
@@ -1,10 +1,13 @@
 package com.mobileinvoice.delivery.data.database;
 
 import android.content.Context;
+import androidx.annotation.NonNull;
 import androidx.room.Database;
 import androidx.room.Room;
 import androidx.room.RoomDatabase;
 import androidx.room.TypeConverters;
+import androidx.room.migration.Migration;
+import androidx.sqlite.db.SupportSQLiteDatabase;
 
 import com.mobileinvoice.delivery.data.entities.Delivery;
 import com.mobileinvoice.delivery.data.dao.DeliveryDao;
@@ -22,7 +25,7 @@ import com.mobileinvoice.delivery.data.converters.EnumConverters;
  */
 @Database(
     entities = {Delivery.class},
-    version = 1,
+    version = 2,
     exportSchema = false
 )
 @TypeConverters({DateConverter.class, EnumConverters.class})
@@ -33,6 +36,15 @@ public abstract class DeliveryDatabase extends RoomDatabase {
     
     public abstract DeliveryDao deliveryDao();
     
+    // Migration from version 1 to 2: Index actual_arrival for incremental speed calibration
+    private static final Migration MIGRATION_1_2 = new Migration(1, 2) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("CREATE INDEX IF NOT EXISTS index_deliveries_actual_arrival " +
+                    "ON deliveries (actual_arrival)");
+        }
+    };
+    
     /**
      * Get singleton instance of the database
      */
@@ -45,6 +57,7 @@ public abstract class DeliveryDatabase extends RoomDatabase {
                         DeliveryDatabase.class,
                         DATABASE_NAME
                     )
+                    .addMigrations(MIGRATION_1_2)
                     // Uncomment for debugging - not recommended for production
                     // .fallbackToDestructiveMigration()
                     .build();
@@ -1,6 +1,7 @@
 package com.mobileinvoice.delivery.data.entities;
 
 import androidx.room.Entity;
+import androidx.room.Index;
 import androidx.room.PrimaryKey;
 import androidx.room.TypeConverters;
 import androidx.room.ColumnInfo;
@@ -24,7 +25,8 @@ import java.util.Date;
  * - Package details and special instructions
  * - Proof of delivery data (signature, photos)
  */
-@Entity(tableName = "deliveries")
+@Entity(tableName = "deliveries",
+        indices = {@Index("actual_arrival")})  // Incremental speed calibration
 @TypeConverters({DateConverter.class, EnumConverters.class})
 public class Delivery {
     
@@ -1,6 +1,7 @@
 package com.mobileinvoice.delivery.data.repository;
 
 import android.app.Application;
+import android.util.Log;
 import androidx.lifecycle.LiveData;
 
 import com.mobileinvoice.delivery.data.dao.DeliveryDao;
@@ -8,7 +9,11 @@ import com.mobileinvoice.delivery.data.database.DeliveryDatabase;
 import com.mobileinvoice.delivery.data.entities.Delivery;
 import com.mobileinvoice.delivery.models.DeliveryStatus;
 import com.mobileinvoice.delivery.models.Priority;
+import com.mobileinvoice.delivery.utils.SpeedCalibrator;
+import com.mobileinvoice.ocr.SpeedProfile;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.Date;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
@@ -23,8 +28,11 @@ import java.util.concurrent.Executors;
  */
 public class DeliveryRepository {
     
+    private static final String TAG = "DeliveryRepository";
+    
     private final DeliveryDao deliveryDao;
     private final ExecutorService executorService;
+    private final SpeedCalibrator speedCalibrator;
     
     // Cached queries
     private final LiveData<List<Delivery>> allDeliveries;
@@ -36,6 +44,8 @@ public class DeliveryRepository {
         DeliveryDatabase database = DeliveryDatabase.getInstance(application);
         deliveryDao = database.deliveryDao();
         executorService = Executors.newFixedThreadPool(4);
+        speedCalibrator = new SpeedCalibrator(deliveryDao,
+            new File(application.getFilesDir(), SpeedProfile.FILE_NAME));
         
         // Initialize cached queries
         allDeliveries = deliveryDao.getAllDeliveries();
@@ -146,9 +156,22 @@ public class DeliveryRepository {
                 signaturePath, 
                 recipientName
             );
+            calibrateSpeeds();
         });
     }
     
+    /**
+     * Learn travel speeds from the deliveries completed since the last run
+     * (called on the executor after each completion)
+     */
+    private void calibrateSpeeds() {
+        try {
+            speedCalibrator.calibrate();
+        } catch (IOException e) {
+            Log.w(TAG, "Speed calibration failed", e);
+        }
+    }
+    
     /**
      * Mark delivery as failed with reason
      */
@@ -0,0 +1,517 @@
+package com.mobileinvoice.delivery.utils;
+
+import com.mobileinvoice.delivery.data.entities.Delivery;
+import com.mobileinvoice.ocr.DistanceMatrix;
+import com.mobileinvoice.ocr.LocalSearch;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Multi-vehicle capacitated route planner (CVRP) for several trucks out of one warehouse
+ *
+ * 1. Clarke-Wright savings: every delivery starts on its own route, then routes are joined
+ *    end-to-start in order of distance saved while both capacity limits hold
+ * 2. Routes beyond the number of vehicles are dissolved into the others
+ * 3. Inter-route relocate / exchange moves between each stop and its nearest neighbors
+ * 4. 2-opt / Or-opt on every route, in parallel on a ForkJoinPool
+ *
+ * Routes are open paths from the warehouse like the single-vehicle optimizers (the drive
+ * back is not counted). Capacity is checked on package weight (pounds) and package count.
+ * Deliveries without coordinates, that don't fit on any truck, or past MAX_STOPS are left
+ * unassigned.
+ */
+public class FleetPlanner {
+    // The matrix and the route tables are O(n^2); deliveries past this are left unassigned
+    public static final int MAX_STOPS = DistanceMatrix.MAX_STOPS;
+
+    private static final double EPSILON = 1e-9;
+    private static final int NEIGHBOR_COUNT = 20;
+
+    public static class VehicleRoute {
+        public final int vehicle;
+        public final List<Delivery> deliveries;
+        public final double distanceMiles;
+        public final double weight;
+        public final int packageCount;
+
+        VehicleRoute(int vehicle, List<Delivery> deliveries, double distanceMiles,
+                     double weight, int packageCount) {
+            this.vehicle = vehicle;
+            this.deliveries = deliveries;
+            this.distanceMiles = distanceMiles;
+            this.weight = weight;
+            this.packageCount = packageCount;
+        }
+    }
+
+    /**
+     * Routes of a plan, plus the deliveries no truck could take (to report, not drop)
+     */
+    public static class FleetPlan {
+        public final List<VehicleRoute> routes;
+        public final List<Delivery> unassigned;
+
+        FleetPlan(List<VehicleRoute> routes, List<Delivery> unassigned) {
+            this.routes = routes;
+            this.unassigned = unassigned;
+        }
+    }
+
+    private final List<Delivery> located = new ArrayList<>();
+    private final List<Delivery> unlocated = new ArrayList<>();
+    private final List<Delivery> unassigned = new ArrayList<>();
+    private final double depotLat;
+    private final double depotLng;
+    private final ForkJoinPool pool;
+    private int vehicles = 1;
+    private double weightCapacity = Double.MAX_VALUE;
+    private int packageCapacity = Integer.MAX_VALUE;
+    private long timeBudgetMillis = LocalSearch.DEFAULT_TIME_BUDGET_MS;
+
+    // Working state, indexed by matrix index (0 = warehouse)
+    private DistanceMatrix matrix;
+    private double[] weightOf;
+    private int[] packagesOf;
+    private int[][] routes;        // Stops of each route in visiting order
+    private int[] routeLength;
+    private double[] routeWeight;
+    private int[] routePackages;
+    private int[] routeOf;
+    private int[] positionOf;
+
+    public FleetPlanner(List<Delivery> deliveries, double depotLat, double depotLng) {
+        this(deliveries, depotLat, depotLng, ForkJoinPool.commonPool());
+    }
+
+    public FleetPlanner(List<Delivery> deliveries, double depotLat, double depotLng, ForkJoinPool pool) {
+        for (Delivery delivery : deliveries) {
+            if (delivery.hasCoordinates()) {
+                located.add(delivery);
+            } else {
+                unlocated.add(delivery);
+            }
+        }
+        this.depotLat = depotLat;
+        this.depotLng = depotLng;
+        this.pool = pool;
+    }
+
+    public FleetPlanner setVehicles(int vehicles) {
+        this.vehicles = Math.max(1, vehicles);
+        return this;
+    }
+
+    /**
+     * Maximum package weight per truck in pounds
+     */
+    public FleetPlanner setWeightCapacity(double weightCapacity) {
+        this.weightCapacity = weightCapacity;
+        return this;
+    }
+
+    /**
+     * Maximum number of packages per truck
+     */
+    public FleetPlanner setPackageCapacity(int packageCapacity) {
+        this.packageCapacity = packageCapacity;
+        return this;
+    }
+
+    /**
+     * Time budget for the inter-route moves, and separately for each route's local search
+     */
+    public FleetPlanner setTimeBudgetMillis(long timeBudgetMillis) {
+        this.timeBudgetMillis = timeBudgetMillis;
+        return this;
+    }
+
+    /**
+     * Deliveries the last plan() could not put on a truck
+     */
+    public List<Delivery> getUnassigned() {
+        return unassigned;
+    }
+
+    /**
+     * Split the deliveries across the vehicles
+     * @return One route per vehicle that has stops, with routeOrder set within each route
+     */
+    public List<VehicleRoute> plan() {
+        unassigned.clear();
+        unassigned.addAll(unlocated);
+
+        int n = Math.min(located.size(), MAX_STOPS);
+        unassigned.addAll(located.subList(n, located.size()));
+        double[] lats = new double[n];
+        double[] lngs = new double[n];
+        for (int i = 0; i < n; i++) {
+            lats[i] = located.get(i).getLatitude();
+            lngs[i] = located.get(i).getLongitude();
+        }
+        matrix = DistanceMatrix.fromCoordinates(depotLat, depotLng, lats, lngs, n);
+
+        weightOf = new double[n + 1];
+        packagesOf = new int[n + 1];
+        for (int i = 0; i < n; i++) {
+            Delivery delivery = located.get(i);
+            weightOf[i + 1] = delivery.getPackageWeight() != null ? delivery.getPackageWeight() : 0;
+            packagesOf[i + 1] = delivery.getPackageCount();
+        }
+
+        int[] stops = new int[n];
+        int count = 0;
+        for (int i = 1; i <= n; i++) {
+            if (weightOf[i] <= weightCapacity && packagesOf[i] <= packageCapacity) {
+                stops[count++] = i;
+            } else {
+                unassigned.add(located.get(i - 1));
+            }
+        }
+
+        if (count == 0) {
+            return new ArrayList<>();
+        }
+
+        int[][] neighbors = LocalSearch.nearestNeighbors(matrix, stops, count, NEIGHBOR_COUNT);
+        buildSavingsRoutes(stops, count, neighbors);
+        reduceToFleetSize();
+        improveBetweenRoutes(stops, count, neighbors);
+        pool.invoke(new RouteTask(0, routes.length));
+
+        List<VehicleRoute> result = new ArrayList<>();
+        for (int r = 0; r < routes.length; r++) {
+            if (routeLength[r] == 0) continue;
+
+            List<Delivery> deliveries = new ArrayList<>(routeLength[r]);
+            for (int k = 0; k < routeLength[r]; k++) {
+                Delivery delivery = located.get(routes[r][k] - 1);
+                delivery.setRouteOrder(k);
+                deliveries.add(delivery);
+            }
+            result.add(new VehicleRoute(result.size(), deliveries,
+                matrix.pathLength(routes[r], routeLength[r]), routeWeight[r], routePackages[r]));
+        }
+        return result;
+    }
+
+    private boolean fits(double weight, int packages) {
+        return weight <= weightCapacity && packages <= packageCapacity;
+    }
+
+    /**
+     * Clarke-Wright savings for open routes: appending the route that starts at j to the
+     * route that ends at i replaces the warehouse -> j leg with i -> j
+     */
+    private void buildSavingsRoutes(int[] stops, int count, int[][] neighbors) {
+        int size = matrix.size();
+        int[] next = new int[size];
+        int[] first = new int[size];   // Per route id (the id is the stop it started with)
+        int[] last = new int[size];
+        double[] load = new double[size];
+        int[] packages = new int[size];
+        int[] owner = new int[size];
+        Arrays.fill(next, -1);
+
+        for (int c = 0; c < count; c++) {
+            int i = stops[c];
+            first[i] = last[i] = owner[i] = i;
+            load[i] = weightOf[i];
+            packages[i] = packagesOf[i];
+        }
+
+        // Candidate joins between neighbors only, best saving first
+        int[] joinFrom = new int[count * NEIGHBOR_COUNT];
+        int[] joinTo = new int[joinFrom.length];
+        double[] saving = new double[joinFrom.length];
+        int joins = 0;
+        for (int c = 0; c < count; c++) {
+            int i = stops[c];
+            for (int j : neighbors[i]) {
+                double value = matrix.get(0, j) - matrix.get(i, j);
+                if (value > EPSILON) {
+                    joinFrom[joins] = i;
+                    joinTo[joins] = j;
+                    saving[joins++] = value;
+                }
+            }
+        }
+        Integer[] order = new Integer[joins];
+        for (int k = 0; k < joins; k++) {
+            order[k] = k;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(saving[b], saving[a]));
+
+        for (int k : order) {
+            int i = joinFrom[k];
+            int j = joinTo[k];
+            int ri = owner[i];
+            int rj = owner[j];
+            if (ri == rj || last[ri] != i || first[rj] != j) continue;
+            if (!fits(load[ri] + load[rj], packages[ri] + packages[rj])) continue;
+
+            next[i] = j;
+            last[ri] = last[rj];
+            load[ri] += load[rj];
+            packages[ri] += packages[rj];
+            for (int s = j; s != -1; s = next[s]) {
+                owner[s] = ri;
+            }
+        }
+
+        // Copy the chains into route arrays
+        int routeCount = 0;
+        for (int c = 0; c < count; c++) {
+            if (owner[stops[c]] == stops[c]) routeCount++;
+        }
+        routes = new int[routeCount][count];
+        routeLength = new int[routeCount];
+        routeWeight = new double[routeCount];
+        routePackages = new int[routeCount];
+        routeOf = new int[size];
+        positionOf = new int[size];
+
+        int r = 0;
+        for (int c = 0; c < count; c++) {
+            int id = stops[c];
+            if (owner[id] != id) continue;
+            for (int s = first[id]; s != -1; s = next[s]) {
+                routes[r][routeLength[r]++] = s;
+            }
+            routeWeight[r] = load[id];
+            routePackages[r] = packages[id];
+            reindex(r);
+            r++;
+        }
+    }
+
+    /**
+     * Dissolve the routes with the fewest stops (fewest to re-insert) until there is one
+     * route per vehicle, inserting their stops at the cheapest position on a route with room left
+     */
+    private void reduceToFleetSize() {
+        int active = routes.length;
+        boolean[] dissolved = new boolean[routes.length];
+
+        while (active > vehicles) {
+            int smallest = -1;
+            for (int r = 0; r < routes.length; r++) {
+                if (dissolved[r]) continue;
+                if (smallest < 0 || routeLength[r] < routeLength[smallest]) smallest = r;
+            }
+            dissolved[smallest] = true;
+            active--;
+
+            int[] stops = Arrays.copyOf(routes[smallest], routeLength[smallest]);
+            routeLength[smallest] = 0;
+            routeWeight[smallest] = 0;
+            routePackages[smallest] = 0;
+
+            for (int u : stops) {
+                int bestRoute = -1;
+                int bestPosition = -1;
+                double bestCost = Double.MAX_VALUE;
+                for (int r = 0; r < routes.length; r++) {
+                    if (dissolved[r]) continue;
+                    if (!fits(routeWeight[r] + weightOf[u], routePackages[r] + packagesOf[u])) continue;
+                    for (int k = 0; k <= routeLength[r]; k++) {
+                        double cost = insertCost(u, r, k);
+                        if (cost < bestCost) {
+                            bestCost = cost;
+                            bestRoute = r;
+                            bestPosition = k;
+                        }
+                    }
+                }
+
+                if (bestRoute >= 0) {
+                    insert(u, bestRoute, bestPosition);
+                } else {
+                    unassigned.add(located.get(u - 1));
+                    routeOf[u] = -1;
+                }
+            }
+        }
+    }
+
+    /**
+     * Relocate a stop next to a neighbor on another route, or exchange it with the stop
+     * beside that neighbor, while total distance drops and capacity holds
+     */
+    private void improveBetweenRoutes(int[] stops, int count, int[][] neighbors) {
+        long deadline = System.nanoTime() + timeBudgetMillis * 1_000_000L;
+        boolean improved = true;
+
+        while (improved && System.nanoTime() < deadline) {
+            improved = false;
+            for (int c = 0; c < count; c++) {
+                int u = stops[c];
+                if (routeOf[u] < 0) continue;
+                for (int v : neighbors[u]) {
+                    if (routeOf[v] < 0 || routeOf[v] == routeOf[u]) continue;
+                    if (tryRelocate(u, v) || tryExchange(u, v)) {
+                        improved = true;
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    private boolean tryRelocate(int u, int v) {
+        int ru = routeOf[u];
+        int rv = routeOf[v];
+        if (!fits(routeWeight[rv] + weightOf[u], routePackages[rv] + packagesOf[u])) return false;
+
+        double gain = removeGain(u);
+        int bestPosition = -1;
+        double bestDelta = -EPSILON;
+        for (int k = positionOf[v]; k <= positionOf[v] + 1; k++) {
+            double delta = insertCost(u, rv, k) - gain;
+            if (delta < bestDelta) {
+                bestDelta = delta;
+                bestPosition = k;
+            }
+        }
+        if (bestPosition < 0) return false;
+
+        remove(u);
+        routeWeight[ru] -= weightOf[u];
+        routePackages[ru] -= packagesOf[u];
+        insert(u, rv, bestPosition);
+        return true;
+    }
+
+    private boolean tryExchange(int u, int v) {
+        int ru = routeOf[u];
+        int rv = routeOf[v];
+        int pv = positionOf[v];
+
+        // Swap u with the stop before or after v, so u ends up next to v
+        for (int k = pv - 1; k <= pv + 1; k += 2) {
+            if (k < 0 || k >= routeLength[rv]) continue;
+            int w = routes[rv][k];
+            if (!fits(routeWeight[ru] - weightOf[u] + weightOf[w],
+                    routePackages[ru] - packagesOf[u] + packagesOf[w])) continue;
+            if (!fits(routeWeight[rv] - weightOf[w] + weightOf[u],
+                    routePackages[rv] - packagesOf[w] + packagesOf[u])) continue;
+
+            int pu = positionOf[u];
+            double delta = replaceCost(ru, pu, w) + replaceCost(rv, k, u);
+            if (delta >= -EPSILON) continue;
+
+            routes[ru][pu] = w;
+            routes[rv][k] = u;
+            routeOf[w] = ru;
+            positionOf[w] = pu;
+            routeOf[u] = rv;
+            positionOf[u] = k;
+            routeWeight[ru] += weightOf[w] - weightOf[u];
+            routePackages[ru] += packagesOf[w] - packagesOf[u];
+            routeWeight[rv] += weightOf[u] - weightOf[w];
+            routePackages[rv] += packagesOf[u] - packagesOf[w];
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Distance from a to b, where b = -1 means "no next stop" (open route end)
+     */
+    private double leg(int a, int b) {
+        return b < 0 ? 0 : matrix.get(a, b);
+    }
+
+    private int before(int r, int k) {
+        return k > 0 ? routes[r][k - 1] : 0;
+    }
+
+    private int after(int r, int k) {
+        return k < routeLength[r] ? routes[r][k] : -1;
+    }
+
+    /**
+     * Distance saved by taking u off its route
+     */
+    private double removeGain(int u) {
+        int r = routeOf[u];
+        int k = positionOf[u];
+        int p = before(r, k);
+        int n = after(r, k + 1);
+        return matrix.get(p, u) + leg(u, n) - leg(p, n);
+    }
+
+    /**
+     * Distance added by inserting u before position k of route r
+     */
+    private double insertCost(int u, int r, int k) {
+        int p = before(r, k);
+        int n = after(r, k);
+        return matrix.get(p, u) + leg(u, n) - leg(p, n);
+    }
+
+    /**
+     * Change in distance if the stop at position k of route r is replaced by x
+     */
+    private double replaceCost(int r, int k, int x) {
+        int p = before(r, k);
+        int n = after(r, k + 1);
+        int old = routes[r][k];
+        return matrix.get(p, x) + leg(x, n) - matrix.get(p, old) - leg(old, n);
+    }
+
+    private void insert(int u, int r, int k) {
+        System.arraycopy(routes[r], k, routes[r], k + 1, routeLength[r] - k);
+        routes[r][k] = u;
+        routeLength[r]++;
+        routeWeight[r] += weightOf[u];
+        routePackages[r] += packagesOf[u];
+        routeOf[u] = r;
+        reindex(r);
+    }
+
+    private void remove(int u) {
+        int r = routeOf[u];
+        int k = positionOf[u];
+        System.arraycopy(routes[r], k + 1, routes[r], k, routeLength[r] - k - 1);
+        routeLength[r]--;
+        reindex(r);
+    }
+
+    private void reindex(int r) {
+        for (int k = 0; k < routeLength[r]; k++) {
+            routeOf[routes[r][k]] = r;
+            positionOf[routes[r][k]] = k;
+        }
+    }
+
+    /**
+     * Runs 2-opt / Or-opt on a range of routes, splitting until one route is left.
+     * Each route is a separate row of routes, so tasks never share mutable state.
+     */
+    private class RouteTask extends RecursiveAction {
+        private final int from;
+        private final int to;
+
+        RouteTask(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= 1) {
+                if (to > from && routeLength[from] > 2) {
+                    new LocalSearch(matrix).setTimeBudgetMillis(timeBudgetMillis)
+                        .improve(routes[from], routeLength[from]);
+                }
+                return;
+            }
+
+            int mid = (from + to) >>> 1;
+            invokeAll(new RouteTask(from, mid), new RouteTask(mid, to));
+        }
+    }
+}
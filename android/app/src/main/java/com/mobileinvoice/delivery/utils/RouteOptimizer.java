@@ -1,7 +1,15 @@
 package com.mobileinvoice.delivery.utils;
 
 import com.mobileinvoice.delivery.data.entities.Delivery;
+import com.mobileinvoice.delivery.models.Priority;
+import com.mobileinvoice.ocr.DistanceMatrix;
+import com.mobileinvoice.ocr.GeoClusterer;
+import com.mobileinvoice.ocr.HilbertCurve;
+import com.mobileinvoice.ocr.LocalSearch;
+import com.mobileinvoice.ocr.SpatialGrid;
 import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
 import java.util.List;
 
 /**
@@ -9,53 +17,355 @@ import java.util.List;
  * 
  * Algorithms:
  * - Nearest Neighbor (fast, good for small routes)
+ * - Space-Filling Curve (fastest, for bulk planning of thousands of stops)
  * - Time Window Priority (respects delivery windows)
  * - Priority-First (urgent deliveries first)
  * - Geographic Clustering (groups nearby deliveries)
+ * - Multi-vehicle (capacitated routes for several trucks)
  */
 public class RouteOptimizer {
+    static final double AVERAGE_SPEED_KMH = 40.0; // City driving
+    static final int STOP_TIME_MINUTES = 5;       // Time per stop
+    static final int CLUSTER_SIZE = 150;          // Target deliveries per cluster
+    private static final long CLUSTER_SEED = 42;
+    private static final Priority[] PRIORITY_ORDER = {
+        Priority.URGENT, Priority.HIGH, Priority.NORMAL, Priority.LOW
+    };
     
     /**
      * Optimize route using Nearest Neighbor algorithm
-     * Starts from current location and always goes to nearest unvisited delivery
+     * Starts from current location and always goes to nearest unvisited delivery,
+     * then improves the greedy order with 2-opt / Or-opt local search
      */
     public static List<Delivery> optimizeByNearestNeighbor(List<Delivery> deliveries, 
                                                             double startLat, 
                                                             double startLng) {
+        return optimizeByNearestNeighbor(deliveries, startLat, startLng,
+            LocalSearch.DEFAULT_TIME_BUDGET_MS);
+    }
+    
+    /**
+     * Optimize route using Nearest Neighbor with a custom local search time budget
+     * @param improvementBudgetMillis Time budget for the improvement stage (0 = greedy only)
+     */
+    public static List<Delivery> optimizeByNearestNeighbor(List<Delivery> deliveries, 
+                                                            double startLat, 
+                                                            double startLng,
+                                                            long improvementBudgetMillis) {
+        return assignRouteOrder(planNearestNeighbor(deliveries, startLat, startLng, improvementBudgetMillis));
+    }
+    
+    /**
+     * optimizeByNearestNeighbor without writing route orders (safe to run concurrently)
+     */
+    static List<Delivery> planNearestNeighbor(List<Delivery> deliveries, 
+                                              double startLat, 
+                                              double startLng,
+                                              long improvementBudgetMillis) {
         if (deliveries == null || deliveries.isEmpty()) {
             return new ArrayList<>();
         }
         
-        List<Delivery> optimized = new ArrayList<>();
-        List<Delivery> remaining = new ArrayList<>(deliveries);
+        List<Delivery> optimized = new ArrayList<>(deliveries.size());
+        List<Delivery> located = new ArrayList<>();
+        List<Delivery> unlocated = new ArrayList<>();
+        for (Delivery delivery : deliveries) {
+            if (delivery.hasCoordinates()) {
+                located.add(delivery);
+            } else {
+                unlocated.add(delivery);
+            }
+        }
         
+        SpatialGrid grid = buildGrid(located);
         double currentLat = startLat;
         double currentLng = startLng;
         
-        while (!remaining.isEmpty()) {
-            Delivery nearest = findNearest(remaining, currentLat, currentLng);
+        int next;
+        while ((next = grid.nearest(currentLat, currentLng)) >= 0) {
+            grid.remove(next);
+            Delivery nearest = located.get(next);
             optimized.add(nearest);
-            remaining.remove(nearest);
             
-            if (nearest.hasCoordinates()) {
-                currentLat = nearest.getLatitude();
-                currentLng = nearest.getLongitude();
+            currentLat = nearest.getLatitude();
+            currentLng = nearest.getLongitude();
+        }
+        
+        // Deliveries without coordinates can't be placed, keep them at the end
+        optimized.addAll(unlocated);
+        
+        // Local search needs an O(n^2) distance matrix, skip it for bulk runs
+        if (improvementBudgetMillis > 0 && located.size() <= DistanceMatrix.MAX_STOPS) {
+            optimized = improveRoute(optimized, startLat, startLng, improvementBudgetMillis);
+        }
+        
+        return optimized;
+    }
+    
+    /**
+     * Optimize route using a Hilbert space-filling curve
+     * Visits deliveries in curve order, starting at the one closest to the start location.
+     * One O(n log n) sort with no distance matrix, for bulk planning of thousands of
+     * addresses; routes are about 13% longer than optimizeByNearestNeighbor.
+     */
+    public static List<Delivery> optimizeBySpaceFillingCurve(List<Delivery> deliveries, 
+                                                             double startLat, 
+                                                             double startLng) {
+        return assignRouteOrder(planSpaceFillingCurve(deliveries, startLat, startLng));
+    }
+    
+    /**
+     * optimizeBySpaceFillingCurve without writing route orders
+     */
+    static List<Delivery> planSpaceFillingCurve(List<Delivery> deliveries, 
+                                                double startLat, 
+                                                double startLng) {
+        if (deliveries == null || deliveries.isEmpty()) {
+            return new ArrayList<>();
+        }
+        
+        List<Delivery> located = new ArrayList<>();
+        List<Delivery> unlocated = new ArrayList<>();
+        for (Delivery delivery : deliveries) {
+            if (delivery.hasCoordinates()) {
+                located.add(delivery);
+            } else {
+                unlocated.add(delivery);
+            }
+        }
+        
+        int n = located.size();
+        double[] lats = new double[n];
+        double[] lngs = new double[n];
+        for (int i = 0; i < n; i++) {
+            lats[i] = located.get(i).getLatitude();
+            lngs[i] = located.get(i).getLongitude();
+        }
+        
+        List<Delivery> optimized = new ArrayList<>(deliveries.size());
+        for (int index : HilbertCurve.route(startLat, startLng, lats, lngs, n)) {
+            optimized.add(located.get(index));
+        }
+        optimized.addAll(unlocated);
+        
+        return optimized;
+    }
+    
+    /**
+     * Improve an existing order with 2-opt / Or-opt local search
+     * Deliveries without coordinates are kept at the end in their current order
+     */
+    public static List<Delivery> improveRoute(List<Delivery> route, 
+                                              double startLat, 
+                                              double startLng, 
+                                              long timeBudgetMillis) {
+        return improveRoute(route, startLat, startLng, timeBudgetMillis, false);
+    }
+    
+    /**
+     * Improve an existing order, optionally keeping priority order as a hard constraint
+     * @param keepPriorityOrder Never move a delivery ahead of one with a higher priority
+     *                          (the given order must already be sorted that way)
+     */
+    public static List<Delivery> improveRoute(List<Delivery> route, 
+                                              double startLat, 
+                                              double startLng, 
+                                              long timeBudgetMillis, 
+                                              boolean keepPriorityOrder) {
+        List<Delivery> located = new ArrayList<>();
+        List<Delivery> unlocated = new ArrayList<>();
+        for (Delivery delivery : route) {
+            if (delivery.hasCoordinates()) {
+                located.add(delivery);
+            } else {
+                unlocated.add(delivery);
             }
         }
         
-        // Update route orders
-        for (int i = 0; i < optimized.size(); i++) {
-            optimized.get(i).setRouteOrder(i);
+        int n = located.size();
+        double[] lats = new double[n];
+        double[] lngs = new double[n];
+        int[] tour = new int[n];
+        int[] ranks = keepPriorityOrder ? new int[n + 1] : null;
+        for (int i = 0; i < n; i++) {
+            lats[i] = located.get(i).getLatitude();
+            lngs[i] = located.get(i).getLongitude();
+            tour[i] = i + 1;
+            if (ranks != null) {
+                ranks[i + 1] = priorityRank(located.get(i));
+            }
+        }
+        
+        DistanceMatrix matrix = DistanceMatrix.fromCoordinates(startLat, startLng, lats, lngs, n);
+        new LocalSearch(matrix).setTimeBudgetMillis(timeBudgetMillis).setRanks(ranks).improve(tour, n);
+        
+        List<Delivery> improved = new ArrayList<>(route.size());
+        for (int index : tour) {
+            improved.add(located.get(index - 1));
+        }
+        improved.addAll(unlocated);
+        return improved;
+    }
+    
+    /**
+     * Optimize route using Geographic Clustering
+     * Splits the deliveries into areas of about CLUSTER_SIZE stops (k-means++), visits the
+     * areas in nearest-neighbor order of their centers, and routes each area with
+     * optimizeByNearestNeighbor starting from where the previous area ended. Routes that fit
+     * one DistanceMatrix go straight to optimizeByNearestNeighbor (shorter, still fast).
+     */
+    public static List<Delivery> optimizeByClusters(List<Delivery> deliveries, 
+                                                    double startLat, 
+                                                    double startLng) {
+        return assignRouteOrder(planClusters(deliveries, startLat, startLng));
+    }
+    
+    /**
+     * optimizeByClusters without writing route orders
+     */
+    static List<Delivery> planClusters(List<Delivery> deliveries, 
+                                       double startLat, 
+                                       double startLng) {
+        if (deliveries == null || deliveries.isEmpty()) {
+            return new ArrayList<>();
         }
         
+        List<Delivery> located = new ArrayList<>();
+        List<Delivery> unlocated = new ArrayList<>();
+        for (Delivery delivery : deliveries) {
+            if (delivery.hasCoordinates()) {
+                located.add(delivery);
+            } else {
+                unlocated.add(delivery);
+            }
+        }
+        
+        int n = located.size();
+        if (n <= DistanceMatrix.MAX_STOPS) {
+            return planNearestNeighbor(deliveries, startLat, startLng, LocalSearch.DEFAULT_TIME_BUDGET_MS);
+        }
+        int k = (n + CLUSTER_SIZE - 1) / CLUSTER_SIZE;
+        
+        double[] lats = new double[n];
+        double[] lngs = new double[n];
+        for (int i = 0; i < n; i++) {
+            lats[i] = located.get(i).getLatitude();
+            lngs[i] = located.get(i).getLongitude();
+        }
+        GeoClusterer clusterer = new GeoClusterer(lats, lngs, n);
+        int[] labels = clusterer.cluster(k, CLUSTER_SEED);
+        
+        List<List<Delivery>> clusters = new ArrayList<>(k);
+        for (int c = 0; c < k; c++) {
+            clusters.add(new ArrayList<>());
+        }
+        for (int i = 0; i < n; i++) {
+            clusters.get(labels[i]).add(located.get(i));
+        }
+        
+        // Visit the clusters by nearest center, each routed from where the last one ended
+        List<Delivery> optimized = new ArrayList<>(deliveries.size());
+        boolean[] visited = new boolean[k];
+        double currentLat = startLat;
+        double currentLng = startLng;
+        for (int step = 0; step < k; step++) {
+            int next = -1;
+            double nextDistance = Double.MAX_VALUE;
+            for (int c = 0; c < k; c++) {
+                if (visited[c] || clusters.get(c).isEmpty()) continue;
+                double distance = calculateDistance(currentLat, currentLng,
+                    clusterer.getCenterLatitude(c), clusterer.getCenterLongitude(c));
+                if (distance < nextDistance) {
+                    nextDistance = distance;
+                    next = c;
+                }
+            }
+            if (next < 0) break;
+            visited[next] = true;
+            
+            List<Delivery> route = planNearestNeighbor(clusters.get(next), currentLat, currentLng,
+                LocalSearch.DEFAULT_TIME_BUDGET_MS);
+            optimized.addAll(route);
+            Delivery last = route.get(route.size() - 1);
+            currentLat = last.getLatitude();
+            currentLng = last.getLongitude();
+        }
+        
+        optimized.addAll(unlocated);
+        
         return optimized;
     }
     
     /**
-     * Optimize route considering time windows
+     * Optimize route considering time windows, leaving now
+     * @see #optimizeByTimeWindow(List, double, double, Date)
+     */
+    public static List<Delivery> optimizeByTimeWindow(List<Delivery> deliveries, 
+                                                      double startLat, 
+                                                      double startLng) {
+        return optimizeByTimeWindow(deliveries, startLat, startLng, new Date());
+    }
+    
+    /**
+     * Optimize route considering time windows and travel time
+     * Uses TimeWindowPlanner so the order is feasible wherever possible, and writes each
+     * delivery's estimatedArrival. Deliveries without coordinates follow, sorted by window.
+     * Past TimeWindowPlanner.MAX_STOPS located deliveries, all are sorted by window instead.
+     */
+    public static List<Delivery> optimizeByTimeWindow(List<Delivery> deliveries, 
+                                                      double startLat, 
+                                                      double startLng, 
+                                                      Date startTime) {
+        List<Delivery> optimized = assignRouteOrder(planTimeWindow(deliveries, startLat, startLng, startTime));
+        estimateArrivals(optimized, startLat, startLng, startTime);
+        return optimized;
+    }
+    
+    /**
+     * Time window order without writing route orders or estimated arrivals
+     */
+    static List<Delivery> planTimeWindow(List<Delivery> deliveries, 
+                                         double startLat, 
+                                         double startLng, 
+                                         Date startTime) {
+        if (deliveries == null || deliveries.isEmpty()) {
+            return new ArrayList<>();
+        }
+        
+        List<Delivery> located = new ArrayList<>();
+        List<Delivery> unlocated = new ArrayList<>();
+        for (Delivery delivery : deliveries) {
+            if (delivery.hasCoordinates()) {
+                located.add(delivery);
+            } else {
+                unlocated.add(delivery);
+            }
+        }
+        
+        if (located.size() > TimeWindowPlanner.MAX_STOPS) {
+            // Too many for the planner's distance matrix: window order only
+            List<Delivery> optimized = sortByTimeWindow(located);
+            optimized.addAll(sortByTimeWindow(unlocated));
+            return optimized;
+        }
+        List<Delivery> optimized = new TimeWindowPlanner(located, startLat, startLng).order(startTime);
+        optimized.addAll(sortByTimeWindow(unlocated));
+        
+        return optimized;
+    }
+    
+    /**
+     * Order by time window start only (no locations, so travel time is ignored)
      * Prioritizes deliveries with narrow time windows
      */
     public static List<Delivery> optimizeByTimeWindow(List<Delivery> deliveries) {
+        return assignRouteOrder(sortByTimeWindow(deliveries));
+    }
+    
+    /**
+     * optimizeByTimeWindow(List) without writing route orders
+     */
+    static List<Delivery> sortByTimeWindow(List<Delivery> deliveries) {
         if (deliveries == null || deliveries.isEmpty()) {
             return new ArrayList<>();
         }
@@ -80,11 +390,6 @@ public class RouteOptimizer {
             return Integer.compare(d2.getPriority().getValue(), d1.getPriority().getValue());
         });
         
-        // Update route orders
-        for (int i = 0; i < optimized.size(); i++) {
-            optimized.get(i).setRouteOrder(i);
-        }
-        
         return optimized;
     }
     
@@ -93,6 +398,13 @@ public class RouteOptimizer {
      * Urgent and high-priority deliveries first
      */
     public static List<Delivery> optimizeByPriority(List<Delivery> deliveries) {
+        return assignRouteOrder(sortByPriority(deliveries));
+    }
+    
+    /**
+     * optimizeByPriority(List) without writing route orders
+     */
+    static List<Delivery> sortByPriority(List<Delivery> deliveries) {
         if (deliveries == null || deliveries.isEmpty()) {
             return new ArrayList<>();
         }
@@ -118,14 +430,77 @@ public class RouteOptimizer {
             return 0;
         });
         
-        // Update route orders
-        for (int i = 0; i < optimized.size(); i++) {
-            optimized.get(i).setRouteOrder(i);
+        return optimized;
+    }
+    
+    /**
+     * Optimize route by priority and distance
+     * Priorities are precedence constraints: every URGENT delivery comes before every HIGH
+     * one, and so on. Within those limits the route is built by nearest neighbor one
+     * priority level at a time (each level starts where the previous one ended), then
+     * improved by local search that never breaks the priority order.
+     */
+    public static List<Delivery> optimizeByPriority(List<Delivery> deliveries, 
+                                                    double startLat, 
+                                                    double startLng) {
+        return assignRouteOrder(planPriority(deliveries, startLat, startLng));
+    }
+    
+    /**
+     * optimizeByPriority(List, double, double) without writing route orders
+     */
+    static List<Delivery> planPriority(List<Delivery> deliveries, 
+                                       double startLat, 
+                                       double startLng) {
+        if (deliveries == null || deliveries.isEmpty()) {
+            return new ArrayList<>();
         }
         
+        List<Delivery> located = new ArrayList<>();
+        List<Delivery> unlocated = new ArrayList<>();
+        for (Delivery delivery : deliveries) {
+            if (delivery.hasCoordinates()) {
+                located.add(delivery);
+            } else {
+                unlocated.add(delivery);
+            }
+        }
+        
+        List<Delivery> optimized = new ArrayList<>(deliveries.size());
+        double currentLat = startLat;
+        double currentLng = startLng;
+        for (Priority level : PRIORITY_ORDER) {
+            List<Delivery> group = new ArrayList<>();
+            for (Delivery delivery : located) {
+                if (delivery.getPriority() == level) group.add(delivery);
+            }
+            
+            SpatialGrid grid = buildGrid(group);
+            int next;
+            while ((next = grid.nearest(currentLat, currentLng)) >= 0) {
+                grid.remove(next);
+                Delivery nearest = group.get(next);
+                optimized.add(nearest);
+                currentLat = nearest.getLatitude();
+                currentLng = nearest.getLongitude();
+            }
+        }
+        
+        if (optimized.size() <= DistanceMatrix.MAX_STOPS) {
+            optimized = improveRoute(optimized, startLat, startLng, LocalSearch.DEFAULT_TIME_BUDGET_MS, true);
+        }
+        optimized.addAll(sortByPriority(unlocated));
+        
         return optimized;
     }
     
+    /**
+     * Precedence rank of a delivery (URGENT = 0 ... LOW = 3, lower goes first)
+     */
+    static int priorityRank(Delivery delivery) {
+        return Priority.URGENT.getValue() - delivery.getPriority().getValue();
+    }
+    
     /**
      * Smart hybrid optimization
      * Combines priority, time windows, and distance
@@ -133,6 +508,19 @@ public class RouteOptimizer {
     public static List<Delivery> optimizeSmart(List<Delivery> deliveries, 
                                                double startLat, 
                                                double startLng) {
+        Date startTime = new Date();
+        List<Delivery> optimized = assignRouteOrder(planSmart(deliveries, startLat, startLng, startTime));
+        estimateArrivals(optimized, startLat, startLng, startTime);
+        return optimized;
+    }
+    
+    /**
+     * optimizeSmart without writing route orders or estimated arrivals
+     */
+    static List<Delivery> planSmart(List<Delivery> deliveries, 
+                                    double startLat, 
+                                    double startLng, 
+                                    Date startTime) {
         if (deliveries == null || deliveries.isEmpty()) {
             return new ArrayList<>();
         }
@@ -150,22 +538,43 @@ public class RouteOptimizer {
         }
         
         // Step 2: Optimize urgent deliveries by time window
-        List<Delivery> optimizedUrgent = optimizeByTimeWindow(urgent);
+        List<Delivery> optimizedUrgent = planTimeWindow(urgent, startLat, startLng, startTime);
         
-        // Step 3: Optimize normal deliveries by nearest neighbor
-        List<Delivery> optimizedNormal = optimizeByNearestNeighbor(normal, startLat, startLng);
+        // Step 3: Optimize normal deliveries by distance (clustered when there are many)
+        List<Delivery> optimizedNormal = planClusters(normal, startLat, startLng);
         
         // Step 4: Combine (urgent first, then normal)
         List<Delivery> result = new ArrayList<>();
         result.addAll(optimizedUrgent);
         result.addAll(optimizedNormal);
         
-        // Update route orders
-        for (int i = 0; i < result.size(); i++) {
-            result.get(i).setRouteOrder(i);
+        return result;
+    }
+    
+    /**
+     * Split deliveries across several trucks leaving the same warehouse
+     * Uses FleetPlanner (savings + inter-route moves), capacity on package weight and count.
+     * Deliveries that can't be placed are left off every route and returned as unassigned.
+     * @param weightCapacity Pounds per truck
+     * @param packageCapacity Packages per truck
+     * @return One ordered route per truck that has stops, and the unassigned deliveries
+     */
+    public static FleetPlanner.FleetPlan optimizeFleet(List<Delivery> deliveries, 
+                                                                double depotLat, 
+                                                                double depotLng, 
+                                                                int vehicles, 
+                                                                double weightCapacity, 
+                                                                int packageCapacity) {
+        if (deliveries == null || deliveries.isEmpty()) {
+            return new FleetPlanner.FleetPlan(new ArrayList<>(), new ArrayList<>());
         }
         
-        return result;
+        FleetPlanner planner = new FleetPlanner(deliveries, depotLat, depotLng)
+            .setVehicles(vehicles)
+            .setWeightCapacity(weightCapacity)
+            .setPackageCapacity(packageCapacity);
+        List<FleetPlanner.VehicleRoute> routes = planner.plan();
+        return new FleetPlanner.FleetPlan(routes, new ArrayList<>(planner.getUnassigned()));
     }
     
     /**
@@ -198,27 +607,92 @@ public class RouteOptimizer {
     }
     
     /**
-     * Find nearest delivery to given coordinates
+     * Drive a route and write each located delivery's estimatedArrival
+     * @see #lateMinutes(List, double, double, Date, Date[])
      */
-    private static Delivery findNearest(List<Delivery> deliveries, double lat, double lng) {
-        Delivery nearest = deliveries.get(0);
-        double minDistance = Double.MAX_VALUE;
-        
-        for (Delivery delivery : deliveries) {
-            if (delivery.hasCoordinates()) {
-                double distance = calculateDistance(
-                    lat, lng,
-                    delivery.getLatitude(), delivery.getLongitude()
-                );
-                
-                if (distance < minDistance) {
-                    minDistance = distance;
-                    nearest = delivery;
-                }
+    public static void estimateArrivals(List<Delivery> route, 
+                                        double startLat, 
+                                        double startLng, 
+                                        Date startTime) {
+        Date[] arrivals = new Date[route.size()];
+        lateMinutes(route, startLat, startLng, startTime, arrivals);
+        for (int i = 0; i < arrivals.length; i++) {
+            if (arrivals[i] != null) {
+                route.get(i).setEstimatedArrival(arrivals[i]);
             }
         }
+    }
+    
+    /**
+     * Simulate driving a route: AVERAGE_SPEED_KMH between stops, waiting for a window to
+     * open, STOP_TIME_MINUTES at each stop. Deliveries without coordinates are skipped.
+     * Doesn't modify the deliveries.
+     * @param arrivals Filled with the service start at each position (null = not needed)
+     * @return Total minutes past the end of their time windows, over all deliveries
+     */
+    static double lateMinutes(List<Delivery> route, 
+                              double startLat, 
+                              double startLng, 
+                              Date startTime, 
+                              Date[] arrivals) {
+        Calendar midnight = Calendar.getInstance();
+        midnight.setTime(startTime);
+        midnight.set(Calendar.HOUR_OF_DAY, 0);
+        midnight.set(Calendar.MINUTE, 0);
+        midnight.set(Calendar.SECOND, 0);
+        midnight.set(Calendar.MILLISECOND, 0);
+        long midnightMillis = midnight.getTimeInMillis();
         
-        return nearest;
+        double minute = (startTime.getTime() - midnightMillis) / 60000.0;
+        double late = 0;
+        double currentLat = startLat;
+        double currentLng = startLng;
+        for (int i = 0; i < route.size(); i++) {
+            Delivery delivery = route.get(i);
+            if (!delivery.hasCoordinates()) continue;
+            
+            double km = calculateDistance(currentLat, currentLng, delivery.getLatitude(), delivery.getLongitude());
+            minute += km / AVERAGE_SPEED_KMH * 60;
+            int opens = TimeWindowPlanner.parseMinuteOfDay(delivery.getTimeWindowStart());
+            int closes = TimeWindowPlanner.parseMinuteOfDay(delivery.getTimeWindowEnd());
+            minute = Math.max(minute, opens);
+            if (closes >= 0 && minute > closes) {
+                late += minute - closes;
+            }
+            if (arrivals != null) {
+                arrivals[i] = new Date(midnightMillis + Math.round(minute * 60000));
+            }
+            
+            minute += STOP_TIME_MINUTES;
+            currentLat = delivery.getLatitude();
+            currentLng = delivery.getLongitude();
+        }
+        return late;
+    }
+    
+    /**
+     * Write each delivery's position in the route as its route order
+     */
+    static List<Delivery> assignRouteOrder(List<Delivery> route) {
+        for (int i = 0; i < route.size(); i++) {
+            route.get(i).setRouteOrder(i);
+        }
+        return route;
+    }
+    
+    /**
+     * Build a spatial index over deliveries that all have coordinates
+     * Point i of the grid is deliveries.get(i)
+     */
+    private static SpatialGrid buildGrid(List<Delivery> deliveries) {
+        int n = deliveries.size();
+        double[] lats = new double[n];
+        double[] lngs = new double[n];
+        for (int i = 0; i < n; i++) {
+            lats[i] = deliveries.get(i).getLatitude();
+            lngs[i] = deliveries.get(i).getLongitude();
+        }
+        return new SpatialGrid(lats, lngs, n);
     }
     
     /**
@@ -245,9 +719,6 @@ public class RouteOptimizer {
      * Assumes average speed of 40 km/h in city
      */
     public static int estimateDeliveryTimeMinutes(double distanceKm) {
-        final double AVERAGE_SPEED_KMH = 40.0;
-        final int STOP_TIME_MINUTES = 5; // Time per stop
-        
         double travelTimeMinutes = (distanceKm / AVERAGE_SPEED_KMH) * 60;
         return (int) Math.ceil(travelTimeMinutes) + STOP_TIME_MINUTES;
     }
@@ -0,0 +1,174 @@
+package com.mobileinvoice.delivery.utils;
+
+import com.mobileinvoice.delivery.data.entities.Delivery;
+import com.mobileinvoice.delivery.models.Priority;
+import com.mobileinvoice.ocr.LocalSearch;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Runs every single-vehicle route strategy at once and keeps the best route
+ *
+ * Nearest neighbor, time window, priority and smart planning run concurrently on one
+ * executor (the common ForkJoin pool unless another is given). None of them write to the
+ * deliveries while running; only the winner gets route orders and estimated arrivals.
+ * Every candidate is scored with the same cost, in kilometer-equivalents:
+ * distance + lateMinuteCost * minutes late + priorityViolationCost * priority inversions
+ * (pairs where a delivery is visited after one of lower priority).
+ */
+public class RoutePortfolio {
+    public static final double DEFAULT_LATE_MINUTE_COST = 1.0;          // km per minute late
+    public static final double DEFAULT_PRIORITY_VIOLATION_COST = 0.1;   // km per inverted pair
+
+    public enum Strategy {
+        NEAREST_NEIGHBOR,
+        TIME_WINDOW,
+        PRIORITY,
+        SMART
+    }
+
+    /**
+     * One strategy's route and how it scored
+     */
+    public static class Candidate {
+        public final Strategy strategy;
+        public List<Delivery> route;
+        public double distanceKm;
+        public double lateMinutes;
+        public long priorityViolations;
+        public double cost = Double.MAX_VALUE;
+        public long elapsedMillis;
+        public Exception error;     // Set when the strategy failed (no route)
+
+        Candidate(Strategy strategy) {
+            this.strategy = strategy;
+        }
+    }
+
+    private final ExecutorService executor;
+    private double lateMinuteCost = DEFAULT_LATE_MINUTE_COST;
+    private double priorityViolationCost = DEFAULT_PRIORITY_VIOLATION_COST;
+    private List<Candidate> candidates = new ArrayList<>();
+
+    public RoutePortfolio() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public RoutePortfolio(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    public RoutePortfolio setLateMinuteCost(double kmPerMinute) {
+        this.lateMinuteCost = kmPerMinute;
+        return this;
+    }
+
+    public RoutePortfolio setPriorityViolationCost(double kmPerInversion) {
+        this.priorityViolationCost = kmPerInversion;
+        return this;
+    }
+
+    /**
+     * Every strategy from the last run, in Strategy order, with its cost and timing
+     */
+    public List<Candidate> getCandidates() {
+        return candidates;
+    }
+
+    /**
+     * Run all strategies and apply the cheapest route to the deliveries
+     * (route orders and estimated arrivals)
+     * @return The winning candidate, or null if there are no deliveries or every strategy failed
+     */
+    public Candidate run(List<Delivery> deliveries, double startLat, double startLng, Date startTime) {
+        candidates = new ArrayList<>();
+        if (deliveries == null || deliveries.isEmpty()) {
+            return null;
+        }
+
+        List<Future<Candidate>> futures = new ArrayList<>();
+        for (Strategy strategy : Strategy.values()) {
+            futures.add(executor.submit(() -> evaluate(strategy, deliveries, startLat, startLng, startTime)));
+        }
+
+        Candidate best = null;
+        for (int i = 0; i < futures.size(); i++) {
+            Candidate candidate;
+            try {
+                candidate = futures.get(i).get();
+            } catch (ExecutionException e) {
+                candidate = new Candidate(Strategy.values()[i]);
+                candidate.error = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                for (Future<Candidate> future : futures) {
+                    future.cancel(true);
+                }
+                return null;
+            }
+            candidates.add(candidate);
+            if (candidate.route != null && (best == null || candidate.cost < best.cost)) {
+                best = candidate;
+            }
+        }
+
+        if (best != null) {
+            RouteOptimizer.assignRouteOrder(best.route);
+            RouteOptimizer.estimateArrivals(best.route, startLat, startLng, startTime);
+        }
+        return best;
+    }
+
+    private Candidate evaluate(Strategy strategy, List<Delivery> deliveries,
+                               double startLat, double startLng, Date startTime) {
+        Candidate candidate = new Candidate(strategy);
+        long start = System.nanoTime();
+        candidate.route = plan(strategy, deliveries, startLat, startLng, startTime);
+        candidate.elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+        candidate.distanceKm = RouteOptimizer.calculateTotalDistance(candidate.route, startLat, startLng);
+        candidate.lateMinutes = RouteOptimizer.lateMinutes(candidate.route, startLat, startLng, startTime, null);
+        candidate.priorityViolations = priorityInversions(candidate.route);
+        candidate.cost = candidate.distanceKm
+            + lateMinuteCost * candidate.lateMinutes
+            + priorityViolationCost * candidate.priorityViolations;
+        return candidate;
+    }
+
+    private static List<Delivery> plan(Strategy strategy, List<Delivery> deliveries,
+                                       double startLat, double startLng, Date startTime) {
+        switch (strategy) {
+            case TIME_WINDOW:
+                return RouteOptimizer.planTimeWindow(deliveries, startLat, startLng, startTime);
+            case PRIORITY:
+                return RouteOptimizer.planPriority(deliveries, startLat, startLng);
+            case SMART:
+                return RouteOptimizer.planSmart(deliveries, startLat, startLng, startTime);
+            default:
+                return RouteOptimizer.planNearestNeighbor(deliveries, startLat, startLng,
+                    LocalSearch.DEFAULT_TIME_BUDGET_MS);
+        }
+    }
+
+    /**
+     * Pairs (a before b) where b has a higher priority than a, in O(n) with per-level counts
+     */
+    static long priorityInversions(List<Delivery> route) {
+        int levels = Priority.values().length;
+        long[] seen = new long[levels];
+        long inversions = 0;
+        for (Delivery delivery : route) {
+            int level = delivery.getPriority().ordinal();
+            for (int lower = 0; lower < level; lower++) {
+                inversions += seen[lower];
+            }
+            seen[level]++;
+        }
+        return inversions;
+    }
+}
@@ -0,0 +1,98 @@
+package com.mobileinvoice.delivery.utils;
+
+import com.mobileinvoice.delivery.data.dao.DeliveryDao;
+import com.mobileinvoice.delivery.data.entities.Delivery;
+import com.mobileinvoice.ocr.SpeedProfile;
+import java.io.File;
+import java.io.IOException;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Learns driving speeds from the arrivals drivers record
+ *
+ * Consecutive completed deliveries (by actual arrival) form a leg: from the previous stop's
+ * completion to this stop's arrival. Each plausible leg is added to the SpeedProfile file.
+ * The profile's watermark is the last delivery processed, so a run reads only the rows
+ * arrived since (indexed on actual_arrival) and costs O(new rows).
+ *
+ * Call from a background thread (DeliveryRepository runs it after each completion).
+ */
+public class SpeedCalibrator {
+    private static final double MILES_PER_KM = 0.621371;
+    private static final double MIN_LEG_MILES = 0.1;     // Shorter legs are mostly stop time
+    private static final double MAX_LEG_MINUTES = 120;   // Longer gaps are breaks, not driving
+    private static final double MIN_SPEED_MPH = 2;
+    private static final double MAX_SPEED_MPH = 80;
+
+    private final DeliveryDao deliveryDao;
+    private final File profileFile;
+
+    public SpeedCalibrator(DeliveryDao deliveryDao, File profileFile) {
+        this.deliveryDao = deliveryDao;
+        this.profileFile = profileFile;
+    }
+
+    /**
+     * Fold the deliveries completed since the last run into the speed profile
+     * @return Number of legs learned by this run
+     */
+    public synchronized int calibrate() throws IOException {
+        SpeedProfile profile = SpeedProfile.read(profileFile);
+        List<Delivery> arrived = deliveryDao.getArrivedSince(
+            profile.getWatermarkMillis(), profile.getWatermarkId());
+        if (arrived.isEmpty()) {
+            return 0;
+        }
+
+        Calendar calendar = Calendar.getInstance();
+        int learned = 0;
+        for (Delivery delivery : arrived) {
+            long arrival = delivery.getActualArrival().getTime();
+            if (profile.hasLastStop()) {
+                long departure = profile.getLastDepartureMillis();
+                double miles = RouteOptimizer.calculateDistance(
+                    profile.getLastLatitude(), profile.getLastLongitude(),
+                    delivery.getLatitude(), delivery.getLongitude()) * MILES_PER_KM;
+                double minutes = drivingMinutes(departure, arrival, delivery);
+                if (isPlausible(miles, minutes)) {
+                    calendar.setTimeInMillis(departure);
+                    profile.addLeg(delivery.getLatitude(), delivery.getLongitude(),
+                        calendar.get(Calendar.HOUR_OF_DAY), miles, minutes);
+                    learned++;
+                }
+            }
+
+            Date completed = delivery.getCompletedAt();
+            profile.setWatermark(arrival, delivery.getId(),
+                delivery.getLatitude(), delivery.getLongitude(),
+                completed != null ? Math.max(completed.getTime(), arrival) : arrival);
+        }
+
+        profile.write(profileFile);
+        return learned;
+    }
+
+    /**
+     * Minutes spent driving into a delivery
+     * Completing a delivery records its arrival and completion at the same moment (after the
+     * hand-over), so the usual stop time is taken off to leave the driving.
+     */
+    private static double drivingMinutes(long departure, long arrival, Delivery delivery) {
+        double minutes = (arrival - departure) / 60000.0;
+        Date completed = delivery.getCompletedAt();
+        if (completed != null && completed.getTime() == arrival) {
+            minutes -= RouteOptimizer.STOP_TIME_MINUTES;
+        }
+        return minutes;
+    }
+
+    private static boolean isPlausible(double miles, double minutes) {
+        if (miles < MIN_LEG_MILES || minutes <= 0 || minutes > MAX_LEG_MINUTES) {
+            return false;
+        }
+        double mph = miles / minutes * 60;
+        return mph >= MIN_SPEED_MPH && mph <= MAX_SPEED_MPH;
+    }
+}
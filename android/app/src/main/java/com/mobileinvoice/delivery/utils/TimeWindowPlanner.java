@@ -0,0 +1,307 @@
+package com.mobileinvoice.delivery.utils;
+
+import com.mobileinvoice.delivery.data.entities.Delivery;
+import com.mobileinvoice.ocr.DistanceMatrix;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Time window route planner (VRPTW insertion heuristic for a single vehicle)
+ *
+ * - Time windows are parsed once into minute-of-day ints ("09:00" -> 540)
+ * - Deliveries are inserted tightest deadline first at the cheapest position (added distance
+ *   plus a charge for the delay pushed onto later stops) that keeps every window feasible
+ * - Feasibility of an insertion is O(1) using forward time slack: how long service at a
+ *   stop could be pushed back without making any later stop late
+ * - Deliveries that fit nowhere are repaired in at the position that adds the least lateness,
+ *   then moved again once the rest of the route is fixed
+ * - plan() writes the planned arrival back to each Delivery's estimatedArrival; order()
+ *   only returns the order, so it can run while other planners read the same deliveries
+ */
+public class TimeWindowPlanner {
+    public static final int MAX_STOPS = DistanceMatrix.MAX_STOPS;   // n x n matrix beyond this
+    private static final double KM_PER_MILE = 1.609344;
+    private static final int OPEN_START = 0;
+    private static final int OPEN_END = Integer.MAX_VALUE / 4;
+    private static final double PUSH_FORWARD_WEIGHT = 0.5;   // Miles charged per mile of delay
+    private static final int REPAIR_PASSES = 2;
+
+    private final List<Delivery> deliveries;
+    private final DistanceMatrix matrix;
+    private final double minutesPerMile;
+    private final int serviceMinutes;
+    private final int[] earliest;   // Indexed by matrix index (0 = start)
+    private final int[] latest;
+
+    // Route state: route[0] is the start, positions 1..size hold matrix indices
+    private int[] route;
+    private int size;
+    private double[] arrival;
+    private double[] serviceStart;
+    private double[] slack;
+    private int lateCount;
+    private long midnightMillis;
+
+    /**
+     * @param deliveries Deliveries to plan, all with coordinates (at most MAX_STOPS)
+     */
+    public TimeWindowPlanner(List<Delivery> deliveries, double startLat, double startLng) {
+        int n = deliveries.size();
+        if (n > MAX_STOPS) {
+            throw new IllegalArgumentException(n + " deliveries exceeds the planner's " + MAX_STOPS);
+        }
+        this.deliveries = deliveries;
+        double[] lats = new double[n];
+        double[] lngs = new double[n];
+        earliest = new int[n + 1];
+        latest = new int[n + 1];
+        latest[0] = OPEN_END;
+
+        for (int i = 0; i < n; i++) {
+            Delivery delivery = deliveries.get(i);
+            lats[i] = delivery.getLatitude();
+            lngs[i] = delivery.getLongitude();
+
+            int start = parseMinuteOfDay(delivery.getTimeWindowStart());
+            int end = parseMinuteOfDay(delivery.getTimeWindowEnd());
+            earliest[i + 1] = start >= 0 ? start : OPEN_START;
+            latest[i + 1] = end >= 0 ? end : OPEN_END;
+        }
+
+        matrix = DistanceMatrix.fromCoordinates(startLat, startLng, lats, lngs, n);
+        minutesPerMile = KM_PER_MILE / RouteOptimizer.AVERAGE_SPEED_KMH * 60;
+        serviceMinutes = RouteOptimizer.STOP_TIME_MINUTES;
+    }
+
+    /**
+     * Number of deliveries that could not be served inside their window in the last plan
+     */
+    public int getLateCount() {
+        return lateCount;
+    }
+
+    /**
+     * Build the route and write each delivery's estimated arrival
+     * @param startTime When the vehicle leaves the start location
+     * @return Deliveries in visiting order
+     */
+    public List<Delivery> plan(Date startTime) {
+        List<Delivery> planned = order(startTime);
+        for (int k = 1; k <= size; k++) {
+            planned.get(k - 1).setEstimatedArrival(
+                new Date(midnightMillis + Math.round(serviceStart[k] * 60000)));
+        }
+        return planned;
+    }
+
+    /**
+     * Build the route without touching the deliveries
+     * @param startTime When the vehicle leaves the start location
+     * @return Deliveries in visiting order
+     */
+    public List<Delivery> order(Date startTime) {
+        Calendar midnight = Calendar.getInstance();
+        midnight.setTime(startTime);
+        midnight.set(Calendar.HOUR_OF_DAY, 0);
+        midnight.set(Calendar.MINUTE, 0);
+        midnight.set(Calendar.SECOND, 0);
+        midnight.set(Calendar.MILLISECOND, 0);
+        double startMinute = (startTime.getTime() - midnight.getTimeInMillis()) / 60000.0;
+
+        int n = deliveries.size();
+        route = new int[n + 1];
+        arrival = new double[n + 1];
+        serviceStart = new double[n + 1];
+        slack = new double[n + 1];
+        size = 0;
+        arrival[0] = serviceStart[0] = startMinute;
+
+        // Tightest deadline first, then earliest opening
+        List<Integer> order = new ArrayList<>(n);
+        for (int i = 1; i <= n; i++) {
+            order.add(i);
+        }
+        order.sort((a, b) -> latest[a] != latest[b]
+            ? Integer.compare(latest[a], latest[b])
+            : Integer.compare(earliest[a], earliest[b]));
+
+        List<Integer> unplaced = new ArrayList<>();
+        for (int u : order) {
+            int position = cheapestFeasiblePosition(u);
+            if (position >= 0) {
+                insert(u, position);
+            } else {
+                unplaced.add(u);
+            }
+        }
+
+        // Repair: place the rest where they add the least lateness, then move each one again
+        // once the whole route is known
+        for (int u : unplaced) {
+            insert(u, leastLatenessPosition(u));
+        }
+        for (int pass = 0; pass < REPAIR_PASSES && !unplaced.isEmpty(); pass++) {
+            for (int u : unplaced) {
+                remove(u);
+                insert(u, leastLatenessPosition(u));
+            }
+        }
+
+        lateCount = 0;
+        List<Delivery> planned = new ArrayList<>(n);
+        midnightMillis = midnight.getTimeInMillis();
+        for (int k = 1; k <= size; k++) {
+            int node = route[k];
+            if (serviceStart[k] > latest[node]) {
+                lateCount++;
+            }
+            planned.add(deliveries.get(node - 1));
+        }
+        return planned;
+    }
+
+    private double travel(int from, int to) {
+        return matrix.get(from, to) * minutesPerMile;
+    }
+
+    private int service(int node) {
+        return node == 0 ? 0 : serviceMinutes;
+    }
+
+    /**
+     * Position p (insert after route[p]) with the least added distance that keeps every
+     * window feasible, or -1. Each position is checked in O(1) with the forward slack.
+     */
+    private int cheapestFeasiblePosition(int u) {
+        int best = -1;
+        double bestCost = Double.MAX_VALUE;
+
+        for (int p = 0; p <= size; p++) {
+            int i = route[p];
+            double arriveU = serviceStart[p] + service(i) + travel(i, u);
+            double startU = Math.max(arriveU, earliest[u]);
+            if (startU > latest[u]) continue;
+
+            double cost;
+            if (p < size) {
+                int j = route[p + 1];
+                double newStartJ = Math.max(startU + service(u) + travel(u, j), earliest[j]);
+                double pushForward = newStartJ - serviceStart[p + 1];
+                if (pushForward > slack[p + 1]) continue;
+                cost = matrix.get(i, u) + matrix.get(u, j) - matrix.get(i, j)
+                    + PUSH_FORWARD_WEIGHT * Math.max(0, pushForward) / minutesPerMile;
+            } else {
+                cost = matrix.get(i, u);
+            }
+
+            if (cost < bestCost) {
+                bestCost = cost;
+                best = p;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Position that adds the least total lateness (ties broken by distance), O(n) per position
+     */
+    private int leastLatenessPosition(int u) {
+        int best = size;
+        double bestLateness = Double.MAX_VALUE;
+        double bestCost = Double.MAX_VALUE;
+
+        for (int p = 0; p <= size; p++) {
+            double lateness = 0;
+            double time = serviceStart[p];
+            int prev = route[p];
+            // Visits u, then route[p+1..size]
+            for (int k = p; k <= size; k++) {
+                int node = k == p ? u : route[k];
+                time = Math.max(time + service(prev) + travel(prev, node), earliest[node]);
+                lateness += Math.max(0, time - latest[node]);
+                prev = node;
+            }
+
+            double cost = p < size
+                ? matrix.get(route[p], u) + matrix.get(u, route[p + 1]) - matrix.get(route[p], route[p + 1])
+                : matrix.get(route[p], u);
+            if (lateness < bestLateness || (lateness == bestLateness && cost < bestCost)) {
+                bestLateness = lateness;
+                bestCost = cost;
+                best = p;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Insert u after route[p] and refresh arrival times and slack
+     */
+    private void insert(int u, int p) {
+        System.arraycopy(route, p + 1, route, p + 2, size - p);
+        route[p + 1] = u;
+        size++;
+        refresh(p + 1);
+    }
+
+    /**
+     * Take u off the route and refresh arrival times and slack
+     */
+    private void remove(int u) {
+        int p = 1;
+        while (route[p] != u) p++;
+        System.arraycopy(route, p + 1, route, p, size - p);
+        size--;
+        refresh(p);
+    }
+
+    /**
+     * Recompute times from position from onward, then the forward slack of the whole route
+     */
+    private void refresh(int from) {
+        for (int k = from; k <= size; k++) {
+            int prev = route[k - 1];
+            arrival[k] = serviceStart[k - 1] + service(prev) + travel(prev, route[k]);
+            serviceStart[k] = Math.max(arrival[k], earliest[route[k]]);
+        }
+
+        // Forward slack, computed backward from the end of the route
+        slack[size] = latest[route[size]] - serviceStart[size];
+        for (int k = size - 1; k >= 1; k--) {
+            double wait = serviceStart[k + 1] - arrival[k + 1];
+            slack[k] = Math.min(latest[route[k]] - serviceStart[k], wait + slack[k + 1]);
+        }
+    }
+
+    /**
+     * Parse "HH:mm" (24h, "24:00" = end of day) or "h:mm AM/PM" into minutes after midnight
+     * @return Minute of day, or -1 when missing or malformed
+     */
+    static int parseMinuteOfDay(String time) {
+        if (time == null) return -1;
+        String value = time.trim().toUpperCase();
+        if (value.isEmpty()) return -1;
+
+        boolean pm = value.endsWith("PM");
+        boolean am = value.endsWith("AM");
+        if (pm || am) {
+            value = value.substring(0, value.length() - 2).trim();
+        }
+
+        int colon = value.indexOf(':');
+        try {
+            int hours = Integer.parseInt(colon >= 0 ? value.substring(0, colon) : value);
+            int minutes = colon >= 0 ? Integer.parseInt(value.substring(colon + 1)) : 0;
+            if (pm && hours < 12) hours += 12;
+            if (am && hours == 12) hours = 0;
+            // "24:00" is the end of the day; any other hour past 23 is malformed
+            if (hours == 24 && minutes == 0) return 24 * 60;
+            if (hours < 0 || hours > 23 || minutes < 0 || minutes > 59) return -1;
+            return hours * 60 + minutes;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.mobileinvoice.ocr;
+
+import java.util.Arrays;
+
+/**
+ * Canonical form of a scanned address, for telling when two invoices go to the same place
+ *
+ * The key is lower case, letters, digits and '#' only, single-spaced, with street suffix,
+ * direction and unit words abbreviated the way USPS writes them ("Street" -> "st",
+ * "North" -> "n", "Apt. 4" / "Unit 4" / "# 4" -> "#4"). So "123 Main Street, Apt. 4" and
+ * "123 MAIN ST #4" share a key. Keys are for comparing only; geocode the original text.
+ *
+ * Meant to be fed OCRProcessorMLKit.extractAddress output one address after another: an
+ * instance reuses its buffers and finds words by binary search straight over its character
+ * buffer, so a key costs one String. Not thread-safe; use one instance per thread.
+ */
+public class AddressCanonicalizer {
+    private static final String UNIT = "#";
+
+    // Sorted (binary search); LONG[i] is written as SHORT[i]
+    private static final String[] LONG = {
+        "alley", "apartment", "apt", "av", "avenue", "boulevard", "circle", "court", "drive",
+        "east", "expressway", "freeway", "highway", "lane", "north", "northeast", "northwest",
+        "parkway", "place", "road", "south", "southeast", "southwest", "square", "ste", "str",
+        "street", "suite", "terrace", "trail", "unit", "west"
+    };
+    private static final String[] SHORT = {
+        "aly", UNIT, UNIT, "ave", "ave", "blvd", "cir", "ct", "dr",
+        "e", "expy", "fwy", "hwy", "ln", "n", "ne", "nw",
+        "pkwy", "pl", "rd", "s", "se", "sw", "sq", UNIT, "st",
+        "st", UNIT, "ter", "trl", UNIT, "w"
+    };
+
+    private final StringBuilder key = new StringBuilder(64);
+    private char[] word = new char[32];
+    private int wordLength;
+    private boolean afterUnit;  // Key ends in '#': the next word joins it ("#4")
+
+    /**
+     * Canonical key for an address ("" if it has no letters or digits)
+     */
+    public String canonicalKey(CharSequence address) {
+        key.setLength(0);
+        wordLength = 0;
+        afterUnit = false;
+        for (int i = 0; i < address.length(); i++) {
+            char c = Character.toLowerCase(address.charAt(i));
+            if (Character.isLetterOrDigit(c)) {
+                if (wordLength == word.length) {
+                    word = Arrays.copyOf(word, wordLength * 2);
+                }
+                word[wordLength++] = c;
+            } else {
+                endWord();
+                if (c == '#') {
+                    appendUnit();
+                }
+            }
+        }
+        endWord();
+        return key.toString();
+    }
+
+    private void endWord() {
+        if (wordLength == 0) {
+            return;
+        }
+        int found = find();
+        if (found >= 0 && SHORT[found] == UNIT) {
+            appendUnit();
+        } else {
+            if (key.length() > 0 && !afterUnit) {
+                key.append(' ');
+            }
+            if (found >= 0) {
+                key.append(SHORT[found]);
+            } else {
+                key.append(word, 0, wordLength);
+            }
+            afterUnit = false;
+        }
+        wordLength = 0;
+    }
+
+    private void appendUnit() {
+        if (afterUnit) {
+            return;  // "Apt #4", "Suite # 200"
+        }
+        if (key.length() > 0) {
+            key.append(' ');
+        }
+        key.append('#');
+        afterUnit = true;
+    }
+
+    /**
+     * Index of the current word in LONG, or -1
+     */
+    private int find() {
+        int low = 0;
+        int high = LONG.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compareWord(LONG[mid]);
+            if (cmp == 0) {
+                return mid;
+            } else if (cmp < 0) {
+                high = mid - 1;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return -1;
+    }
+
+    private int compareWord(String other) {
+        int length = Math.min(wordLength, other.length());
+        for (int k = 0; k < length; k++) {
+            int diff = word[k] - other.charAt(k);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return wordLength - other.length();
+    }
+}
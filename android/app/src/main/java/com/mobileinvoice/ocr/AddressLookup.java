@@ -0,0 +1,55 @@
+package com.mobileinvoice.ocr;
+
+import android.location.Address;
+import android.location.Geocoder;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Turns one address into a location (the network part of geocoding)
+ * RouteOptimizer uses the platform Geocoder through this, so tests and benchmarks can
+ * substitute a local fake. Implementations must be safe to call from several threads.
+ */
+public interface AddressLookup {
+
+    /**
+     * Where an address was found
+     */
+    class Match {
+        public final double latitude;
+        public final double longitude;
+        public final String formattedAddress;   // Provider's address line (may be null)
+        public final boolean approximate;       // Only the area is known (e.g. a ZIP centroid)
+
+        public Match(double latitude, double longitude, String formattedAddress) {
+            this(latitude, longitude, formattedAddress, false);
+        }
+
+        public Match(double latitude, double longitude, String formattedAddress, boolean approximate) {
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.formattedAddress = formattedAddress;
+            this.approximate = approximate;
+        }
+    }
+
+    /**
+     * @return The best match, or null if the provider doesn't recognize the address
+     * @throws IOException If the provider couldn't be reached
+     */
+    Match lookup(String address) throws IOException;
+
+    /**
+     * Lookup backed by the platform Geocoder
+     */
+    static AddressLookup of(Geocoder geocoder) {
+        return address -> {
+            List<Address> addresses = geocoder.getFromLocationName(address, 1);
+            if (addresses == null || addresses.isEmpty()) {
+                return null;
+            }
+            Address location = addresses.get(0);
+            return new Match(location.getLatitude(), location.getLongitude(), location.getAddressLine(0));
+        };
+    }
+}
@@ -0,0 +1,313 @@
+package com.mobileinvoice.ocr;
+
+import java.util.SplittableRandom;
+
+/**
+ * Anytime route solver (simulated annealing) that keeps improving a route in the background
+ *
+ * Starts from the route already on screen and applies random 2-opt and relocate moves
+ * between each stop and its nearest neighbors, accepting worse moves with a probability
+ * that falls as the temperature cools. Every strictly shorter route found is handed to the
+ * listener right away, so the UI can show it while the search continues.
+ *
+ * Stops when the time budget (or iteration limit) runs out, the target length is reached
+ * (the route is provably close to optimal), or stop() is called, e.g. when the driver
+ * starts navigating. The random seed is fixed per instance for reproducible runs.
+ */
+public class AnytimeRouteSolver {
+    public static final long DEFAULT_TIME_BUDGET_MS = 15000;
+
+    private static final double EPSILON = 1e-9;
+    private static final int NEIGHBOR_COUNT = 10;
+    private static final double START_TEMPERATURE_FACTOR = 0.3;   // x average leg length
+    private static final double END_TEMPERATURE_FACTOR = 0.0005;
+
+    public interface ImprovementListener {
+        /**
+         * Called on the solver thread with a copy of each new best route
+         * @param tour Matrix indices in visiting order (origin not included)
+         * @param length Route length in miles
+         */
+        void onImprovedRoute(int[] tour, double length);
+    }
+
+    private final DistanceMatrix matrix;
+    private final SplittableRandom random;
+    private long timeBudgetMillis = DEFAULT_TIME_BUDGET_MS;
+    private long maxIterations = Long.MAX_VALUE;
+    private double targetLength;
+    private int[] ranks;
+    private volatile boolean stopRequested;
+    private boolean running;   // Guarded by this
+
+    private int[] path;
+    private int[] pos;
+    private int length;
+    private int[][] neighbors;
+    private double bestLength;
+
+    public AnytimeRouteSolver(DistanceMatrix matrix, long seed) {
+        this.matrix = matrix;
+        this.random = new SplittableRandom(seed);
+    }
+
+    public AnytimeRouteSolver setTimeBudgetMillis(long timeBudgetMillis) {
+        this.timeBudgetMillis = timeBudgetMillis;
+        return this;
+    }
+
+    /**
+     * Limit the number of moves tried (makes runs independent of device speed)
+     */
+    public AnytimeRouteSolver setMaxIterations(long maxIterations) {
+        this.maxIterations = maxIterations;
+        return this;
+    }
+
+    /**
+     * Keep stops in non-decreasing rank order (see LocalSearch.setRanks)
+     */
+    public AnytimeRouteSolver setRanks(int[] ranks) {
+        this.ranks = ranks;
+        return this;
+    }
+
+    /**
+     * Return as soon as a route this short is found (e.g. the lower bound plus a small gap)
+     */
+    public AnytimeRouteSolver setTargetLength(double targetLength) {
+        this.targetLength = targetLength;
+        return this;
+    }
+
+    /**
+     * Ask a running solve() to return as soon as possible (safe from any thread)
+     */
+    public void stop() {
+        stopRequested = true;
+    }
+
+    public boolean isStopRequested() {
+        return stopRequested;
+    }
+
+    /**
+     * stop() and block until a running solve() has returned
+     * After this the solver no longer reads the matrix, so the caller may add points to it
+     * or move its origin. Returns within one move, or the neighbor-list setup at worst.
+     */
+    public synchronized void stopAndWait() {
+        stopRequested = true;
+        boolean interrupted = false;
+        while (running) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Length of the best route found by the last solve()
+     */
+    public double getBestLength() {
+        return bestLength;
+    }
+
+    /**
+     * Improve a route until the budget runs out or stop() is called (blocking)
+     * @param initialTour Matrix indices in visiting order (origin not included)
+     * @param listener Receives every strictly better route, may be null
+     * @return Best route found (a new array)
+     */
+    public int[] solve(int[] initialTour, ImprovementListener listener) {
+        synchronized (this) {
+            if (stopRequested) {
+                // Stopped before the thread got here: the matrix may already have changed
+                return initialTour.clone();
+            }
+            running = true;
+        }
+        try {
+            return search(initialTour, listener);
+        } finally {
+            synchronized (this) {
+                running = false;
+                notifyAll();
+            }
+        }
+    }
+
+    private int[] search(int[] initialTour, ImprovementListener listener) {
+        int count = initialTour.length;
+        int[] best = initialTour.clone();
+        bestLength = matrix.pathLength(best, count);
+        if (count < 3 || bestLength <= targetLength) {
+            return best;
+        }
+
+        length = count + 1;
+        path = new int[length];
+        System.arraycopy(initialTour, 0, path, 1, count);
+        pos = new int[matrix.size()];
+        for (int i = 0; i < length; i++) {
+            pos[path[i]] = i;
+        }
+        neighbors = LocalSearch.nearestNeighbors(matrix, path, length, NEIGHBOR_COUNT);
+
+        double current = bestLength;
+        double averageLeg = current / count;
+        double startTemperature = averageLeg * START_TEMPERATURE_FACTOR;
+        double endTemperature = averageLeg * END_TEMPERATURE_FACTOR;
+        double temperature = startTemperature;
+
+        long startNanos = System.nanoTime();
+        long budgetNanos = timeBudgetMillis * 1_000_000L;
+
+        for (long iteration = 0; iteration < maxIterations && !stopRequested; iteration++) {
+            if ((iteration & 255) == 0) {
+                double progress = Math.max(
+                    (double) (System.nanoTime() - startNanos) / budgetNanos,
+                    maxIterations == Long.MAX_VALUE ? 0 : (double) iteration / maxIterations);
+                if (progress >= 1) break;
+                temperature = startTemperature * Math.pow(endTemperature / startTemperature, progress);
+            }
+
+            current += random.nextBoolean() ? tryTwoOpt(temperature) : tryRelocate(temperature);
+
+            if (current < bestLength - EPSILON) {
+                // Re-sum to avoid drift from accumulated deltas
+                System.arraycopy(path, 1, best, 0, count);
+                current = matrix.pathLength(best, count);
+                if (current < bestLength - EPSILON) {
+                    bestLength = current;
+                    if (listener != null) {
+                        listener.onImprovedRoute(best.clone(), bestLength);
+                    }
+                    if (bestLength <= targetLength) break;
+                }
+            }
+        }
+
+        // Finish with a greedy polish of the best route
+        if (stopRequested) {
+            return best;
+        }
+        int[] polished = best.clone();
+        double polishedLength = new LocalSearch(matrix).setRanks(ranks).improve(polished, count);
+        if (polishedLength < bestLength - EPSILON && !stopRequested) {
+            best = polished;
+            bestLength = polishedLength;
+            if (listener != null) {
+                listener.onImprovedRoute(best.clone(), bestLength);
+            }
+        }
+        return best;
+    }
+
+    private boolean accept(double delta, double temperature) {
+        return delta < 0 || random.nextDouble() < Math.exp(-delta / temperature);
+    }
+
+    private int rankAt(int i) {
+        if (i <= 0) return Integer.MIN_VALUE;
+        if (i >= length) return Integer.MAX_VALUE;
+        return ranks[path[i]];
+    }
+
+    private double edgeAfter(int i) {
+        return i + 1 < length ? matrix.get(path[i], path[i + 1]) : 0;
+    }
+
+    /**
+     * Random 2-opt move that connects a random node to one of its neighbors
+     * @return Change in route length (0 if rejected)
+     */
+    private double tryTwoOpt(double temperature) {
+        int a = path[random.nextInt(length)];
+        int[] list = neighbors[a];
+        int c = list[random.nextInt(list.length)];
+        int lo = Math.min(pos[a], pos[c]);
+        int hi = Math.max(pos[a], pos[c]);
+
+        int i;
+        int j;
+        if (random.nextBoolean()) {
+            i = lo;          // New edges (a,c) and (succ a, succ c)
+            j = hi;
+        } else {
+            i = lo - 1;      // New edges (a,c) and (pred a, pred c)
+            j = hi - 1;
+        }
+        if (i < 0 || j <= i + 1) return 0;
+        if (ranks != null && rankAt(i + 1) != rankAt(j)) return 0;
+
+        double removed = matrix.get(path[i], path[i + 1]) + edgeAfter(j);
+        double added = matrix.get(path[i], path[j]);
+        if (j + 1 < length) {
+            added += matrix.get(path[i + 1], path[j + 1]);
+        }
+        double delta = added - removed;
+        if (!accept(delta, temperature)) return 0;
+
+        for (int x = i + 1, y = j; x < y; x++, y--) {
+            int tmp = path[x];
+            path[x] = path[y];
+            path[y] = tmp;
+            pos[path[x]] = x;
+            pos[path[y]] = y;
+        }
+        return delta;
+    }
+
+    /**
+     * Random move of one stop to right after one of its neighbors
+     * @return Change in route length (0 if rejected)
+     */
+    private double tryRelocate(double temperature) {
+        int c = path[1 + random.nextInt(length - 1)];
+        int[] list = neighbors[c];
+        int a = list[random.nextInt(list.length)];
+        int q = pos[c];
+        int p = pos[a];
+        if (p == q - 1) return 0; // Already right after a
+        if (ranks != null && (rankAt(p) > ranks[c] || rankAt(p + 1) < ranks[c])) return 0;
+
+        int prev = path[q - 1];
+        boolean hasNext = q + 1 < length;
+        double removeGain = matrix.get(prev, c) + edgeAfter(q)
+            - (hasNext ? matrix.get(prev, path[q + 1]) : 0);
+
+        boolean hasAfterA = p + 1 < length;
+        int afterA = hasAfterA ? path[p + 1] : -1;
+        double insertCost = matrix.get(a, c)
+            + (hasAfterA ? matrix.get(c, afterA) - matrix.get(a, afterA) : 0);
+
+        double delta = insertCost - removeGain;
+        if (!accept(delta, temperature)) return 0;
+
+        int start;
+        int end;
+        if (p < q) {
+            // Shift path[p+1..q-1] right by one, c goes to p+1
+            System.arraycopy(path, p + 1, path, p + 2, q - p - 1);
+            path[p + 1] = c;
+            start = p + 1;
+            end = q;
+        } else {
+            // Shift path[q+1..p] left by one, c goes to p
+            System.arraycopy(path, q + 1, path, q, p - q);
+            path[p] = c;
+            start = q;
+            end = p;
+        }
+        for (int x = start; x <= end; x++) {
+            pos[path[x]] = x;
+        }
+        return delta;
+    }
+}
@@ -0,0 +1,188 @@
+package com.mobileinvoice.ocr;
+
+import java.util.Arrays;
+
+/**
+ * Stop coordinates as parallel primitive arrays, with batch haversine kernels
+ *
+ * Radians and cos(latitude) are computed once per point when it is added, so a distance is
+ * two sin() calls, one sqrt() and one asin() instead of the per-pair toRadians/cos/atan2 of
+ * RouteOptimizer.calculateDistance. The kernels loop over plain double[] arrays (no objects,
+ * no calls into other classes) so the JIT keeps them tight.
+ *
+ * Distances are in miles and agree with RouteOptimizer.calculateDistance to rounding error.
+ */
+public class CoordinateStore {
+    public static final double EARTH_RADIUS_MILES = 3959;
+
+    // The equirectangular estimate is within a few percent of haversine for the distances a
+    // delivery route deals with (hundreds of miles, away from the poles); this margin keeps
+    // the pre-filter from ever rejecting a point that is really inside the radius
+    private static final double PREFILTER_SLACK = 1.1;
+
+    private double[] latitudes;
+    private double[] longitudes;
+    private double[] latRadians;
+    private double[] lngRadians;
+    private double[] cosLat;
+    private int size;
+
+    public CoordinateStore(int capacity) {
+        capacity = Math.max(capacity, 1);
+        latitudes = new double[capacity];
+        longitudes = new double[capacity];
+        latRadians = new double[capacity];
+        lngRadians = new double[capacity];
+        cosLat = new double[capacity];
+    }
+
+    /**
+     * Independent copy of the points (same capacity)
+     */
+    public CoordinateStore copy() {
+        CoordinateStore copy = new CoordinateStore(latitudes.length);
+        copy.latitudes = latitudes.clone();
+        copy.longitudes = longitudes.clone();
+        copy.latRadians = latRadians.clone();
+        copy.lngRadians = lngRadians.clone();
+        copy.cosLat = cosLat.clone();
+        copy.size = size;
+        return copy;
+    }
+
+    /**
+     * Store holding count points from coordinate arrays (point i = lats[i], lngs[i])
+     */
+    public static CoordinateStore of(double[] lats, double[] lngs, int count) {
+        CoordinateStore store = new CoordinateStore(count);
+        for (int i = 0; i < count; i++) {
+            store.add(lats[i], lngs[i]);
+        }
+        return store;
+    }
+
+    /**
+     * Append a point, growing the arrays if needed
+     * @return The new point's index
+     */
+    public int add(double lat, double lng) {
+        if (size == latitudes.length) {
+            int capacity = latitudes.length * 2;
+            latitudes = Arrays.copyOf(latitudes, capacity);
+            longitudes = Arrays.copyOf(longitudes, capacity);
+            latRadians = Arrays.copyOf(latRadians, capacity);
+            lngRadians = Arrays.copyOf(lngRadians, capacity);
+            cosLat = Arrays.copyOf(cosLat, capacity);
+        }
+        set(size, lat, lng);
+        return size++;
+    }
+
+    /**
+     * Move an existing point (index < size())
+     */
+    public void set(int index, double lat, double lng) {
+        latitudes[index] = lat;
+        longitudes[index] = lng;
+        latRadians[index] = Math.toRadians(lat);
+        lngRadians[index] = Math.toRadians(lng);
+        cosLat[index] = Math.cos(latRadians[index]);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public double getLatitude(int index) {
+        return latitudes[index];
+    }
+
+    public double getLongitude(int index) {
+        return longitudes[index];
+    }
+
+    /**
+     * Haversine distance in miles between two stored points
+     */
+    public double distance(int i, int j) {
+        double sinLat = Math.sin((latRadians[j] - latRadians[i]) * 0.5);
+        double sinLng = Math.sin((lngRadians[j] - lngRadians[i]) * 0.5);
+        double a = sinLat * sinLat + cosLat[i] * cosLat[j] * sinLng * sinLng;
+        return 2 * EARTH_RADIUS_MILES * Math.asin(Math.sqrt(Math.min(a, 1)));
+    }
+
+    /**
+     * Distances from point i to every stored point
+     * @param out Receives the distance to point j at out[j] (length >= size())
+     */
+    public void distancesFrom(int i, double[] out) {
+        distancesFrom(i, 0, size, out, 0);
+    }
+
+    /**
+     * Distances from point i to points [from, to)
+     * @param out Receives the distance to point j at out[offset + j]
+     */
+    public void distancesFrom(int i, int from, int to, double[] out, int offset) {
+        double lat = latRadians[i];
+        double lng = lngRadians[i];
+        double cos = cosLat[i];
+        double diameter = 2 * EARTH_RADIUS_MILES;
+        for (int j = from; j < to; j++) {
+            double sinLat = Math.sin((latRadians[j] - lat) * 0.5);
+            double sinLng = Math.sin((lngRadians[j] - lng) * 0.5);
+            double a = sinLat * sinLat + cos * cosLat[j] * sinLng * sinLng;
+            out[offset + j] = diameter * Math.asin(Math.sqrt(Math.min(a, 1)));
+        }
+    }
+
+    /**
+     * Distances from point i to the points within a radius
+     * A flat-earth (equirectangular) estimate - no trig - rules out far points first; only
+     * the candidates that survive it get the exact haversine.
+     * @param out Receives the distance to point j at out[j], or +infinity beyond maxMiles
+     * @return Number of points within maxMiles (including i itself)
+     */
+    public int distancesWithin(int i, double maxMiles, double[] out) {
+        return distancesWithin(latRadians[i], lngRadians[i], cosLat[i], maxMiles, out);
+    }
+
+    /**
+     * Distances from a position that isn't stored (e.g. a stop about to be added) to the
+     * points within a radius; see distancesWithin(int, double, double[])
+     */
+    public int distancesWithin(double lat, double lng, double maxMiles, double[] out) {
+        double latRad = Math.toRadians(lat);
+        return distancesWithin(latRad, Math.toRadians(lng), Math.cos(latRad), maxMiles, out);
+    }
+
+    private int distancesWithin(double lat, double lng, double cos, double maxMiles, double[] out) {
+        double diameter = 2 * EARTH_RADIUS_MILES;
+        double limit = maxMiles * PREFILTER_SLACK / EARTH_RADIUS_MILES;
+        double limitSquared = limit * limit;
+        int within = 0;
+        for (int j = 0; j < size; j++) {
+            double dLat = latRadians[j] - lat;
+            double dLng = lngRadians[j] - lng;
+            if (dLng > Math.PI) dLng -= 2 * Math.PI;
+            if (dLng < -Math.PI) dLng += 2 * Math.PI;
+            double x = dLng * 0.5 * (cos + cosLat[j]);
+            if (x * x + dLat * dLat > limitSquared) {
+                out[j] = Double.POSITIVE_INFINITY;
+                continue;
+            }
+
+            double sinLat = Math.sin(dLat * 0.5);
+            double sinLng = Math.sin(dLng * 0.5);
+            double a = sinLat * sinLat + cos * cosLat[j] * sinLng * sinLng;
+            double d = diameter * Math.asin(Math.sqrt(Math.min(a, 1)));
+            if (d <= maxMiles) {
+                out[j] = d;
+                within++;
+            } else {
+                out[j] = Double.POSITIVE_INFINITY;
+            }
+        }
+        return within;
+    }
+}
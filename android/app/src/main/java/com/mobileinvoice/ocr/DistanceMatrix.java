@@ -0,0 +1,415 @@
+package com.mobileinvoice.ocr;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Precomputed distance matrix for one route session
+ * Index 0 is the route origin (current location or warehouse), indices 1..n are the stops.
+ * Distances are haversine miles stored in a flat row-major array, so every route stage
+ * (construction, total distance, ETAs, drag reorder) reads them instead of redoing the trig.
+ * Rows are filled by CoordinateStore's batch kernel, straight into the flat array.
+ *
+ * Stops added mid-session (addPoint) get one new row in O(n); storage grows by doubling so a
+ * day of phoned-in stops doesn't rebuild the matrix each time. Not thread-safe: a background
+ * solver reading the matrix must have returned (AnytimeRouteSolver.stopAndWait) before a
+ * point is added, since growing swaps the storage out from under it.
+ *
+ * With an offline RoadGraph applied, distances become road miles and each pair also gets a
+ * driving time in minutes (used for ETAs instead of a flat average speed).
+ */
+public class DistanceMatrix {
+    // Above this many stops the O(n^2) matrix costs more memory than it saves: at 1000, 8 MB
+    // of miles, 8 MB more of driving times with a road graph, and 16 MB of search results
+    // while the graph is applied
+    public static final int MAX_STOPS = 1000;
+
+    private static final double METERS_PER_MILE = 1609.344;
+    private static final double ACCESS_SPEED_MPH = 15;  // Between a stop and its road node
+    private static final double UNREACHABLE_DETOUR_FACTOR = 2.5;  // x straight line, no road path
+
+    private final CoordinateStore coordinates;
+    private double[] distances;
+    private int size;
+    private int stride;     // Allocated capacity (row length)
+
+    // Road network (null = straight-line distances only)
+    private RoadGraph road;
+    private int[] roadNodes;      // Nearest road node of each index
+    private double[] accessMiles; // Straight line from each index to its road node
+    private double[] minutes;     // Driving minutes, same layout as distances (NaN = unknown)
+
+    private DistanceMatrix(int size) {
+        this.size = size;
+        this.stride = size;
+        this.coordinates = new CoordinateStore(size);
+        this.distances = new double[size * size];
+    }
+
+    private DistanceMatrix(DistanceMatrix other) {
+        this.size = other.size;
+        this.stride = other.stride;
+        this.coordinates = other.coordinates.copy();
+        this.distances = other.distances.clone();
+        this.road = other.road;
+        if (road != null) {
+            this.roadNodes = other.roadNodes.clone();
+            this.accessMiles = other.accessMiles.clone();
+            this.minutes = other.minutes.clone();
+        }
+    }
+
+    /**
+     * Independent copy, for a second owner that may add points or move the origin
+     * The road graph is shared (it is only read).
+     */
+    public DistanceMatrix copy() {
+        return new DistanceMatrix(this);
+    }
+
+    /**
+     * Build the matrix for an origin and a list of stops
+     * Assigns each point its matrixIndex (1-based, 0 is the origin)
+     */
+    public static DistanceMatrix build(double originLat, double originLng,
+                                       List<RouteOptimizer.RoutePoint> points) {
+        DistanceMatrix matrix = new DistanceMatrix(points.size() + 1);
+        matrix.coordinates.add(originLat, originLng);
+
+        for (int i = 0; i < points.size(); i++) {
+            RouteOptimizer.RoutePoint point = points.get(i);
+            point.matrixIndex = i + 1;
+            matrix.coordinates.add(point.latitude, point.longitude);
+        }
+
+        matrix.fill();
+        return matrix;
+    }
+
+    /**
+     * Build the matrix from plain coordinate arrays (used by the Delivery route optimizer)
+     * Stop k of the arrays becomes matrix index k + 1
+     */
+    public static DistanceMatrix fromCoordinates(double originLat, double originLng,
+                                                 double[] lats, double[] lngs, int count) {
+        DistanceMatrix matrix = new DistanceMatrix(count + 1);
+        matrix.coordinates.add(originLat, originLng);
+        for (int i = 0; i < count; i++) {
+            matrix.coordinates.add(lats[i], lngs[i]);
+        }
+
+        matrix.fill();
+        return matrix;
+    }
+
+    /**
+     * Fill the upper triangle and mirror it (haversine is symmetric)
+     */
+    private void fill() {
+        for (int i = 0; i < size; i++) {
+            int row = i * stride;
+            distances[row + i] = 0;
+            coordinates.distancesFrom(i, i + 1, size, distances, row);
+            for (int j = i + 1; j < size; j++) {
+                distances[j * stride + i] = distances[row + j];
+            }
+        }
+    }
+
+    /**
+     * Road routes between one point and a set of road nodes, found before the point is added
+     * The graph searches are the slow part of adding a stop on a road graph, so they can run
+     * on a worker thread (routeTo) and be handed to addPoint on the matrix's own thread.
+     */
+    public static class RoadRoute {
+        final int node;          // The point's road node
+        final int[] targets;     // Road nodes routed to and from
+        final double[] outSeconds;
+        final double[] outMeters;
+        final double[] inSeconds;
+        final double[] inMeters;
+
+        RoadRoute(int node, int[] targets) {
+            this.node = node;
+            this.targets = targets;
+            this.outSeconds = new double[targets.length];
+            this.outMeters = new double[targets.length];
+            this.inSeconds = new double[targets.length];
+            this.inMeters = new double[targets.length];
+        }
+
+        /**
+         * The point's road node, so later points can be routed to it as well
+         */
+        public int getNode() {
+            return node;
+        }
+    }
+
+    /**
+     * Route a point to and from road nodes (e.g. getRoadNodes of a matrix); thread-safe
+     */
+    public static RoadRoute routeTo(RoadGraph graph, double lat, double lng, int[] targets) {
+        return route(graph, graph.nearestNode(lat, lng), targets);
+    }
+
+    private static RoadRoute route(RoadGraph graph, int node, int[] targets) {
+        RoadRoute route = new RoadRoute(node, targets);
+        int[] source = {node};
+        graph.manyToMany(source, 1, targets, targets.length, route.outSeconds, route.outMeters);
+        graph.manyToMany(targets, targets.length, source, 1, route.inSeconds, route.inMeters);
+        return route;
+    }
+
+    /**
+     * Road graph the matrix was routed on, or null
+     */
+    public RoadGraph getRoadGraph() {
+        return road;
+    }
+
+    /**
+     * Road node of every index (a copy for routeTo), or null without a road graph
+     */
+    public int[] getRoadNodes() {
+        return road != null ? Arrays.copyOf(roadNodes, size) : null;
+    }
+
+    /**
+     * Add a stop to the matrix, computing only its distances to the existing indices
+     * @return The new stop's matrix index
+     */
+    public int addPoint(double lat, double lng) {
+        return addPoint(lat, lng, null);
+    }
+
+    /**
+     * Add a stop with its road routes found ahead of time (see RoadRoute)
+     * Only indices whose road node the prepared route doesn't cover (e.g. the origin moved
+     * since) are searched here.
+     * @param prepared routeTo result for the same position, or null
+     */
+    public int addPoint(double lat, double lng, RoadRoute prepared) {
+        if (size == stride) {
+            grow(Math.max(stride * 2, 2));
+        }
+
+        int index = size++;
+        coordinates.add(lat, lng);
+        int row = index * stride;
+        coordinates.distancesFrom(index, 0, index + 1, distances, row);
+        for (int j = 0; j < index; j++) {
+            distances[j * stride + index] = distances[row + j];
+        }
+        if (road != null) {
+            routeIndex(index, prepared);
+        }
+        return index;
+    }
+
+    /**
+     * Move the origin (e.g. to the driver's current position), recomputing only its row
+     * Rewrites cells in place, so like addPoint it must not run under a background solver.
+     */
+    public void setOrigin(double lat, double lng) {
+        setOrigin(lat, lng, null);
+    }
+
+    /**
+     * Move the origin, with its road routes found off the UI thread (routeTo)
+     */
+    public void setOrigin(double lat, double lng, RoadRoute prepared) {
+        coordinates.set(0, lat, lng);
+        coordinates.distancesFrom(0, 0, size, distances, 0);
+        for (int j = 1; j < size; j++) {
+            distances[j * stride] = distances[j];
+        }
+        if (road != null) {
+            routeIndex(0, prepared);
+        }
+    }
+
+    /**
+     * Replace straight-line distances with road distances and driving times
+     * Every index is snapped to its nearest road node, and the straight line between a stop
+     * and its node is added at ACCESS_SPEED_MPH. Both directions of a pair are averaged
+     * (the solvers assume a symmetric matrix). Pairs with no road path get the straight-line
+     * distance times UNREACHABLE_DETOUR_FACTOR, so the solvers don't take them for shortcuts,
+     * and have no driving time. Points added later are routed on the same graph.
+     */
+    public void applyRoadGraph(RoadGraph graph) {
+        if (graph.getNodeCount() == 0) return;
+        road = graph;
+        roadNodes = new int[stride];
+        accessMiles = new double[stride];
+        minutes = new double[stride * stride];
+        for (int i = 0; i < size; i++) {
+            snap(i);
+        }
+
+        double[] seconds = new double[size * size];
+        double[] meters = new double[size * size];
+        graph.manyToMany(roadNodes, size, roadNodes, size, seconds, meters);
+        for (int i = 0; i < size; i++) {
+            for (int j = i + 1; j < size; j++) {
+                setRoad(i, j, seconds[i * size + j], meters[i * size + j],
+                    seconds[j * size + i], meters[j * size + i]);
+            }
+        }
+    }
+
+    /**
+     * Route one index to and from every other index on the road graph
+     * @param prepared Routes already found for some of the nodes, or null
+     */
+    private void routeIndex(int index, RoadRoute prepared) {
+        snap(index);
+        int node = roadNodes[index];
+        Map<Integer, Integer> known = new HashMap<>();
+        if (prepared != null && prepared.node == node) {
+            for (int k = 0; k < prepared.targets.length; k++) {
+                known.put(prepared.targets[k], k);
+            }
+        }
+
+        int[] missing = new int[size];
+        int missingCount = 0;
+        for (int j = 0; j < size; j++) {
+            if (j != index && !known.containsKey(roadNodes[j])) {
+                missing[missingCount++] = roadNodes[j];
+            }
+        }
+        RoadRoute searched = missingCount > 0 ? route(road, node, Arrays.copyOf(missing, missingCount)) : null;
+
+        int next = 0;
+        for (int j = 0; j < size; j++) {
+            if (j == index) {
+                continue;
+            }
+            Integer k = known.get(roadNodes[j]);
+            if (k != null) {
+                setRoad(index, j, prepared.outSeconds[k], prepared.outMeters[k],
+                    prepared.inSeconds[k], prepared.inMeters[k]);
+            } else {
+                setRoad(index, j, searched.outSeconds[next], searched.outMeters[next],
+                    searched.inSeconds[next], searched.inMeters[next]);
+                next++;
+            }
+        }
+    }
+
+    private void snap(int index) {
+        double lat = coordinates.getLatitude(index);
+        double lng = coordinates.getLongitude(index);
+        int node = road.nearestNode(lat, lng);
+        roadNodes[index] = node;
+        accessMiles[index] = RouteOptimizer.calculateDistance(
+            lat, lng, road.getLatitude(node), road.getLongitude(node));
+        minutes[index * stride + index] = 0;
+    }
+
+    private void setRoad(int i, int j, double secondsTo, double metersTo, double secondsFrom, double metersFrom) {
+        double access = accessMiles[i] + accessMiles[j];
+        double miles = distances[i * stride + j];
+        double driving = Double.NaN;
+        if (roadNodes[i] == roadNodes[j]) {
+            driving = miles / ACCESS_SPEED_MPH * 60;
+        } else if (secondsTo != Double.POSITIVE_INFINITY && secondsFrom != Double.POSITIVE_INFINITY) {
+            miles = (metersTo + metersFrom) / 2 / METERS_PER_MILE + access;
+            driving = (secondsTo + secondsFrom) / 2 / 60 + access / ACCESS_SPEED_MPH * 60;
+        } else {
+            miles *= UNREACHABLE_DETOUR_FACTOR;
+        }
+        distances[i * stride + j] = miles;
+        distances[j * stride + i] = miles;
+        minutes[i * stride + j] = driving;
+        minutes[j * stride + i] = driving;
+    }
+
+    /**
+     * Reallocate for a larger capacity, copying the existing rows
+     */
+    private void grow(int capacity) {
+        double[] grown = new double[capacity * capacity];
+        for (int i = 0; i < size; i++) {
+            System.arraycopy(distances, i * stride, grown, i * capacity, size);
+        }
+        distances = grown;
+
+        if (minutes != null) {
+            double[] grownMinutes = new double[capacity * capacity];
+            for (int i = 0; i < size; i++) {
+                System.arraycopy(minutes, i * stride, grownMinutes, i * capacity, size);
+            }
+            minutes = grownMinutes;
+            roadNodes = Arrays.copyOf(roadNodes, capacity);
+            accessMiles = Arrays.copyOf(accessMiles, capacity);
+        }
+        stride = capacity;
+    }
+
+    /**
+     * Distance in miles between two matrix indices
+     */
+    public double get(int from, int to) {
+        return distances[from * stride + to];
+    }
+
+    /**
+     * Whether driving times are known (a road graph was applied)
+     */
+    public boolean hasTravelTimes() {
+        return minutes != null;
+    }
+
+    /**
+     * Driving minutes between two matrix indices, or NaN if unknown (no road graph, no path)
+     */
+    public double getMinutes(int from, int to) {
+        return minutes != null ? minutes[from * stride + to] : Double.NaN;
+    }
+
+    /**
+     * Number of indices including the origin
+     */
+    public int size() {
+        return size;
+    }
+
+    public double getLatitude(int index) {
+        return coordinates.getLatitude(index);
+    }
+
+    public double getLongitude(int index) {
+        return coordinates.getLongitude(index);
+    }
+
+    /**
+     * The matrix's coordinates (index i = matrix index i), for batch or radius queries
+     */
+    public CoordinateStore getCoordinates() {
+        return coordinates;
+    }
+
+    /**
+     * Check whether a coordinate is the origin this matrix was built from
+     */
+    public boolean isOrigin(double lat, double lng) {
+        return coordinates.getLatitude(0) == lat && coordinates.getLongitude(0) == lng;
+    }
+
+    /**
+     * Length of an open path that starts at the origin and visits the given indices in order
+     */
+    public double pathLength(int[] order, int count) {
+        double total = 0;
+        int prev = 0;
+        for (int i = 0; i < count; i++) {
+            total += distances[prev * stride + order[i]];
+            prev = order[i];
+        }
+        return total;
+    }
+}
@@ -0,0 +1,216 @@
+package com.mobileinvoice.ocr;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * k-means++ clustering of stop coordinates, used to split big routes into areas
+ *
+ * Works on primitive coordinate arrays projected to a flat plane (same projection as
+ * SpatialGrid). Seeds are picked with k-means++ (each new seed sampled proportionally to
+ * its squared distance from the nearest existing seed), then Lloyd iterations alternate a
+ * parallel assignment step (ForkJoin over chunks of points) with a sequential centroid update
+ * until no point changes cluster.
+ */
+public class GeoClusterer {
+    private static final int MAX_ITERATIONS = 25;
+    private static final int CHUNK_SIZE = 2048;
+
+    private final double[] xs;
+    private final double[] ys;
+    private final int count;
+    private final double lngScale;
+    private final ForkJoinPool pool;
+
+    private double[] centerX;
+    private double[] centerY;
+    private int[] labels;
+    private int iterations;
+
+    public GeoClusterer(double[] lats, double[] lngs, int count) {
+        this(lats, lngs, count, ForkJoinPool.commonPool());
+    }
+
+    public GeoClusterer(double[] lats, double[] lngs, int count, ForkJoinPool pool) {
+        this.count = count;
+        this.pool = pool;
+        xs = new double[count];
+        ys = new double[count];
+
+        double latSum = 0;
+        for (int i = 0; i < count; i++) {
+            latSum += lats[i];
+        }
+        lngScale = Math.cos(Math.toRadians(count > 0 ? latSum / count : 0));
+        for (int i = 0; i < count; i++) {
+            xs[i] = lngs[i] * lngScale;
+            ys[i] = lats[i];
+        }
+    }
+
+    /**
+     * Number of Lloyd iterations used by the last cluster() call
+     */
+    public int getIterations() {
+        return iterations;
+    }
+
+    public double getCenterLatitude(int cluster) {
+        return centerY[cluster];
+    }
+
+    public double getCenterLongitude(int cluster) {
+        return centerX[cluster] / lngScale;
+    }
+
+    /**
+     * Split the points into k clusters
+     * @param seed Random seed for k-means++ seeding (fixed seed = same clusters every run)
+     * @return Cluster label (0..k-1) of every point
+     */
+    public int[] cluster(int k, long seed) {
+        k = Math.max(1, Math.min(k, count));
+        centerX = new double[k];
+        centerY = new double[k];
+        labels = new int[count];
+        iterations = 0;
+        if (count == 0) return labels;
+
+        seedCenters(k, new SplittableRandom(seed));
+
+        int[] sizes = new int[k];
+        double[] sumX = new double[k];
+        double[] sumY = new double[k];
+        Arrays.fill(labels, -1);
+
+        while (iterations < MAX_ITERATIONS) {
+            iterations++;
+            int changed = pool.invoke(new AssignTask(0, count));
+            if (changed == 0) break;
+
+            Arrays.fill(sizes, 0);
+            Arrays.fill(sumX, 0);
+            Arrays.fill(sumY, 0);
+            for (int i = 0; i < count; i++) {
+                int c = labels[i];
+                sizes[c]++;
+                sumX[c] += xs[i];
+                sumY[c] += ys[i];
+            }
+            for (int c = 0; c < k; c++) {
+                if (sizes[c] > 0) {
+                    centerX[c] = sumX[c] / sizes[c];
+                    centerY[c] = sumY[c] / sizes[c];
+                } else {
+                    // Empty cluster: move it onto the point farthest from its own center
+                    int far = farthestPoint();
+                    centerX[c] = xs[far];
+                    centerY[c] = ys[far];
+                    labels[far] = c;
+                }
+            }
+        }
+        return labels;
+    }
+
+    /**
+     * k-means++ seeding, O(n * k)
+     */
+    private void seedCenters(int k, SplittableRandom random) {
+        double[] nearest = new double[count];
+        int first = random.nextInt(count);
+        centerX[0] = xs[first];
+        centerY[0] = ys[first];
+        for (int i = 0; i < count; i++) {
+            nearest[i] = squaredDistance(i, 0);
+        }
+
+        for (int c = 1; c < k; c++) {
+            double total = 0;
+            for (int i = 0; i < count; i++) {
+                total += nearest[i];
+            }
+
+            int pick = 0;
+            if (total > 0) {
+                double target = random.nextDouble() * total;
+                while (pick < count - 1 && (target -= nearest[pick]) > 0) {
+                    pick++;
+                }
+            } else {
+                pick = random.nextInt(count);   // All points coincide
+            }
+
+            centerX[c] = xs[pick];
+            centerY[c] = ys[pick];
+            for (int i = 0; i < count; i++) {
+                nearest[i] = Math.min(nearest[i], squaredDistance(i, c));
+            }
+        }
+    }
+
+    private double squaredDistance(int point, int cluster) {
+        double dx = xs[point] - centerX[cluster];
+        double dy = ys[point] - centerY[cluster];
+        return dx * dx + dy * dy;
+    }
+
+    private int farthestPoint() {
+        int far = 0;
+        double farDist = -1;
+        for (int i = 0; i < count; i++) {
+            double d = squaredDistance(i, labels[i]);
+            if (d > farDist) {
+                farDist = d;
+                far = i;
+            }
+        }
+        return far;
+    }
+
+    /**
+     * Assigns each point in [from, to) to its nearest center
+     * @return Number of points whose label changed
+     */
+    private class AssignTask extends RecursiveTask<Integer> {
+        private final int from;
+        private final int to;
+
+        AssignTask(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Integer compute() {
+            if (to - from <= CHUNK_SIZE) {
+                int changed = 0;
+                int k = centerX.length;
+                for (int i = from; i < to; i++) {
+                    int best = 0;
+                    double bestDist = squaredDistance(i, 0);
+                    for (int c = 1; c < k; c++) {
+                        double d = squaredDistance(i, c);
+                        if (d < bestDist) {
+                            bestDist = d;
+                            best = c;
+                        }
+                    }
+                    if (labels[i] != best) {
+                        labels[i] = best;
+                        changed++;
+                    }
+                }
+                return changed;
+            }
+
+            int mid = (from + to) >>> 1;
+            AssignTask left = new AssignTask(from, mid);
+            left.fork();
+            int right = new AssignTask(mid, to).compute();
+            return left.join() + right;
+        }
+    }
+}
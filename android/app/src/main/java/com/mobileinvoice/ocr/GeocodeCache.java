@@ -0,0 +1,139 @@
+package com.mobileinvoice.ocr;
+
+import android.util.Log;
+import com.mobileinvoice.ocr.database.GeocodeCacheDao;
+import com.mobileinvoice.ocr.database.GeocodeCacheEntry;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Geocoder answers remembered across route builds (the geocode_cache table)
+ *
+ * Addresses are looked up by their AddressCanonicalizer key (case, punctuation, spacing and
+ * "Street" vs "St" ignored), so "123 Main Street" and "123 main st." share an entry. Found
+ * addresses are kept for SUCCESS_TTL_MILLIS; addresses the geocoder didn't recognize are
+ * kept for the shorter FAILURE_TTL_MILLIS, so a bad address isn't retried on every build
+ * but a fixed-up map gets another chance. Network errors are never cached.
+ *
+ * prefetch() loads a whole route's entries in one query; lookups after that don't touch
+ * the database. Not thread-safe; call from a background thread.
+ */
+public class GeocodeCache {
+    private static final String TAG = "GeocodeCache";
+
+    public static final long SUCCESS_TTL_MILLIS = 90L * 24 * 60 * 60 * 1000;  // 90 days
+    public static final long FAILURE_TTL_MILLIS = 7L * 24 * 60 * 60 * 1000;   // 7 days
+    private static final int QUERY_CHUNK = 500;  // Below SQLite's 999 bound parameters
+
+    private final GeocodeCacheDao dao;
+    private final Map<String, GeocodeCacheEntry> prefetched = new HashMap<>();
+    private final Set<String> checked = new HashSet<>();  // Keys prefetch() asked for, found or not
+    private final AddressCanonicalizer canonicalizer = new AddressCanonicalizer();
+
+    public GeocodeCache(GeocodeCacheDao dao) {
+        this.dao = dao;
+    }
+
+    /**
+     * Cache key for an address
+     */
+    public String normalize(String address) {
+        return canonicalizer.canonicalKey(address);
+    }
+
+    /**
+     * Load the entries for many addresses at once and drop expired rows
+     */
+    public void prefetch(List<String> addresses) {
+        List<String> keys = new ArrayList<>(addresses.size());
+        for (String address : addresses) {
+            if (address != null) {
+                keys.add(normalize(address));
+            }
+        }
+        try {
+            dao.deleteExpired(System.currentTimeMillis());
+            for (int from = 0; from < keys.size(); from += QUERY_CHUNK) {
+                List<String> chunk = keys.subList(from, Math.min(from + QUERY_CHUNK, keys.size()));
+                for (GeocodeCacheEntry entry : dao.getAll(chunk)) {
+                    prefetched.put(entry.getAddressKey(), entry);
+                }
+                checked.addAll(chunk);
+            }
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Geocode cache unavailable", e);
+        }
+    }
+
+    /**
+     * The remembered answer for an address, or null if unknown or expired
+     */
+    public GeocodeCacheEntry lookup(String address) {
+        String key = normalize(address);
+        GeocodeCacheEntry entry = prefetched.get(key);
+        if (entry == null && !checked.contains(key)) {
+            try {
+                entry = dao.get(key);
+            } catch (RuntimeException e) {
+                Log.w(TAG, "Geocode cache unavailable", e);
+                return null;
+            }
+        }
+        return entry != null && !entry.isExpired(System.currentTimeMillis()) ? entry : null;
+    }
+
+    /**
+     * Remember where an address is
+     */
+    public void putLocation(String address, double lat, double lng, String formattedAddress) {
+        GeocodeCacheEntry entry = newEntry(address, SUCCESS_TTL_MILLIS);
+        entry.setLatitude(lat);
+        entry.setLongitude(lng);
+        entry.setFormattedAddress(formattedAddress);
+        store(entry);
+    }
+
+    /**
+     * Remember that the geocoder doesn't know an address
+     */
+    public void putFailure(String address, String reason) {
+        GeocodeCacheEntry entry = newEntry(address, FAILURE_TTL_MILLIS);
+        entry.setFailureReason(reason);
+        store(entry);
+    }
+
+    /**
+     * Forget an address (e.g. the driver corrected it and wants it looked up again)
+     */
+    public void invalidate(String address) {
+        String key = normalize(address);
+        prefetched.remove(key);
+        try {
+            dao.delete(key);
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Geocode cache unavailable", e);
+        }
+    }
+
+    private GeocodeCacheEntry newEntry(String address, long ttlMillis) {
+        long now = System.currentTimeMillis();
+        GeocodeCacheEntry entry = new GeocodeCacheEntry();
+        entry.setAddressKey(normalize(address));
+        entry.setResolvedAt(now);
+        entry.setExpiresAt(now + ttlMillis);
+        return entry;
+    }
+
+    private void store(GeocodeCacheEntry entry) {
+        prefetched.put(entry.getAddressKey(), entry);
+        try {
+            dao.put(entry);
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Geocode cache unavailable", e);
+        }
+    }
+}
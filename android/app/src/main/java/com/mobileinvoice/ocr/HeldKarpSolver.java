@@ -0,0 +1,159 @@
+package com.mobileinvoice.ocr;
+
+/**
+ * Exact route solver (Held-Karp bitmask dynamic programming) for small routes
+ *
+ * cost[mask][last] is the shortest path that leaves the origin, visits exactly the stops in
+ * mask and ends at last. Every state is extended by one unvisited stop, so the whole table
+ * takes O(2^n * n^2) time and O(2^n * n) memory: about 1M states for 16 stops. The best
+ * full-mask state is the provably shortest open route.
+ *
+ * Precedence ranks are supported by only extending a state with a stop once every stop of
+ * a lower rank has been visited (one mask test per transition).
+ *
+ * Tables are sized to the largest route solved so far and grow on demand (2^n * n doubles,
+ * so 8 stops take 16 KB and only 16 stops take 9 MB); repeated solves of that size or less
+ * (e.g. re-planning during the day) don't allocate. Not thread-safe.
+ */
+public class HeldKarpSolver {
+    public static final int MAX_STOPS = 16;
+
+    private static final byte NONE = -1;
+
+    private int capacity;
+    private double[] cost;     // [mask * count + last]
+    private byte[] parent;     // Previous stop of each state (NONE = came from origin)
+    private double[] legs;     // [from * (count + 1) + to], slot 0 = origin, slot k = tour[k - 1]
+    private int[] scratch;
+    private int[] lowerRanks;  // Per slot: mask of slots that must be visited before it
+
+    /**
+     * Solver whose tables are allocated by the first solve()
+     */
+    public HeldKarpSolver() {
+    }
+
+    /**
+     * @param capacity Number of stops to allocate the tables for up front (at most MAX_STOPS)
+     */
+    public HeldKarpSolver(int capacity) {
+        if (capacity < 1 || capacity > MAX_STOPS) {
+            throw new IllegalArgumentException("Held-Karp supports 1.." + MAX_STOPS + " stops");
+        }
+        ensureCapacity(capacity);
+    }
+
+    private void ensureCapacity(int count) {
+        if (count <= capacity) {
+            return;
+        }
+        if (count > MAX_STOPS) {
+            throw new IllegalArgumentException(count + " stops exceeds Held-Karp's " + MAX_STOPS);
+        }
+        capacity = count;
+        cost = new double[(1 << count) * count];
+        parent = new byte[(1 << count) * count];
+        legs = new double[(count + 1) * (count + 1)];
+        scratch = new int[count];
+        lowerRanks = new int[count];
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Reorder stops into the shortest open route from the matrix origin
+     * @param tour Matrix indices of the stops, rewritten in optimal visiting order
+     * @param count Number of stops in tour (at most MAX_STOPS; the tables grow to fit)
+     * @return Length of the optimal route in miles
+     */
+    public double solve(DistanceMatrix matrix, int[] tour, int count) {
+        return solve(matrix, tour, count, null);
+    }
+
+    /**
+     * Shortest open route that visits stops in non-decreasing rank order
+     * @param ranks Rank by matrix index (lower = earlier), or null for no constraints
+     */
+    public double solve(DistanceMatrix matrix, int[] tour, int count, int[] ranks) {
+        if (count < 2) {
+            return matrix.pathLength(tour, count);
+        }
+
+        ensureCapacity(count);
+
+        // Local copy of the legs between the stops (slot 0 = origin)
+        int side = count + 1;
+        for (int a = 0; a <= count; a++) {
+            int from = a == 0 ? 0 : tour[a - 1];
+            for (int b = 0; b <= count; b++) {
+                int to = b == 0 ? 0 : tour[b - 1];
+                legs[a * side + b] = matrix.get(from, to);
+            }
+        }
+
+        for (int a = 0; a < count; a++) {
+            lowerRanks[a] = 0;
+            if (ranks == null) continue;
+            for (int b = 0; b < count; b++) {
+                if (ranks[tour[b]] < ranks[tour[a]]) lowerRanks[a] |= 1 << b;
+            }
+        }
+
+        int full = (1 << count) - 1;
+        for (int mask = 1; mask <= full; mask++) {
+            int row = mask * count;
+            for (int last = 0; last < count; last++) {
+                cost[row + last] = Double.MAX_VALUE;
+            }
+        }
+        for (int k = 0; k < count; k++) {
+            if (lowerRanks[k] != 0) continue;
+            cost[(1 << k) * count + k] = legs[k + 1];
+            parent[(1 << k) * count + k] = NONE;
+        }
+
+        for (int mask = 1; mask < full; mask++) {
+            int row = mask * count;
+            for (int last = 0; last < count; last++) {
+                if ((mask & (1 << last)) == 0) continue;
+                double base = cost[row + last];
+                if (base == Double.MAX_VALUE) continue;
+
+                int legRow = (last + 1) * side + 1;
+                int open = full & ~mask;
+                while (open != 0) {
+                    int next = Integer.numberOfTrailingZeros(open);
+                    open &= open - 1;
+                    if ((lowerRanks[next] & ~mask) != 0) continue;
+
+                    int state = (mask | (1 << next)) * count + next;
+                    double candidate = base + legs[legRow + next];
+                    if (candidate < cost[state]) {
+                        cost[state] = candidate;
+                        parent[state] = (byte) last;
+                    }
+                }
+            }
+        }
+
+        int last = 0;
+        int row = full * count;
+        for (int k = 1; k < count; k++) {
+            if (cost[row + k] < cost[row + last]) last = k;
+        }
+        double best = cost[row + last];
+
+        // Walk the parents back from the end of the route
+        System.arraycopy(tour, 0, scratch, 0, count);
+        int mask = full;
+        for (int position = count - 1; position >= 0; position--) {
+            tour[position] = scratch[last];
+            int previous = parent[mask * count + last];
+            mask &= ~(1 << last);
+            last = previous;
+        }
+        return best;
+    }
+}
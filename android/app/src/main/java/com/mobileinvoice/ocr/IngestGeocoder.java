@@ -0,0 +1,103 @@
+package com.mobileinvoice.ocr;
+
+import android.content.Context;
+import android.util.Log;
+import com.mobileinvoice.ocr.database.Invoice;
+import com.mobileinvoice.ocr.database.InvoiceDao;
+import com.mobileinvoice.ocr.database.InvoiceDatabase;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Geocodes invoice addresses in the background as they are saved
+ *
+ * MainActivity's OCR loop and InvoiceDetailActivity queue an invoice here after writing it.
+ * One worker thread geocodes it (geocode cache first, then the Geocoder, at a gentle rate so
+ * a route build keeps most of the provider's budget) and stores the coordinates on the
+ * invoice row, and RouteOptimizer reads them from there instead of geocoding while the
+ * driver waits for the route map.
+ *
+ * Queuing is cheap: an invoice already queued, or whose coordinates belong to its current
+ * address, costs nothing. Addresses that can't be found are left for the route build to
+ * report. queueMissing() catches up rows saved offline or before the columns existed.
+ */
+public class IngestGeocoder {
+    private static final String TAG = "IngestGeocoder";
+    private static final double GEOCODES_PER_SECOND = 2;
+
+    private static IngestGeocoder instance;
+
+    private final InvoiceDao invoiceDao;
+    private final RouteOptimizer optimizer;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Set<Integer> queued = new HashSet<>();
+
+    /**
+     * @param optimizer Geocodes the addresses (used from the worker thread only)
+     */
+    public IngestGeocoder(InvoiceDao invoiceDao, RouteOptimizer optimizer) {
+        this.invoiceDao = invoiceDao;
+        this.optimizer = optimizer;
+    }
+
+    public static synchronized IngestGeocoder getInstance(Context context) {
+        if (instance == null) {
+            Context appContext = context.getApplicationContext();
+            RouteOptimizer optimizer = new RouteOptimizer(appContext);
+            optimizer.setGeocodeRateLimiter(new RateLimiter(GEOCODES_PER_SECOND, 1));
+            instance = new IngestGeocoder(InvoiceDatabase.getInstance(appContext).invoiceDao(), optimizer);
+        }
+        return instance;
+    }
+
+    /**
+     * Geocode an invoice's address in the background (call after saving it)
+     */
+    public void queue(int invoiceId) {
+        synchronized (queued) {
+            if (!queued.add(invoiceId)) {
+                return;
+            }
+        }
+        executor.execute(() -> geocode(invoiceId));
+    }
+
+    /**
+     * Queue every invoice whose coordinates are missing or belong to an older address
+     * Reads the table; call from a background thread.
+     */
+    public void queueMissing() {
+        for (int invoiceId : invoiceDao.getIdsWithoutLocationSync()) {
+            queue(invoiceId);
+        }
+    }
+
+    private void geocode(int invoiceId) {
+        // Dequeue before reading, so a save made during the lookup queues the invoice again
+        synchronized (queued) {
+            queued.remove(invoiceId);
+        }
+        try {
+            Invoice invoice = invoiceDao.getInvoiceByIdSync(invoiceId);
+            if (invoice == null || invoice.hasLocation()) {
+                return;
+            }
+            List<RouteOptimizer.GeocodingFailure> failures = new ArrayList<>();
+            RouteOptimizer.RoutePoint point = optimizer.geocodeStop(invoice, failures);
+            if (point == null) {
+                Log.d(TAG, "Left for the route build: " + invoice.getInvoiceNumber()
+                    + " - " + failures.get(0).reason);
+                return;
+            }
+            if (invoiceDao.setLocation(invoiceId, point.latitude, point.longitude, invoice.getAddress()) == 0) {
+                Log.d(TAG, "Address of " + invoice.getInvoiceNumber() + " changed while geocoding");
+            }
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Geocoding invoice " + invoiceId + " failed", e);
+        }
+    }
+}
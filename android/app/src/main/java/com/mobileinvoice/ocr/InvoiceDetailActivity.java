@@ -584,9 +584,10 @@ public class InvoiceDetailActivity extends AppCompatActivity {
         currentInvoice.setPodImagePath2(podImagePath2);
         currentInvoice.setPodImagePath3(podImagePath3);
         
-        // Save to database in background
+        // Save to database in background (and geocode the address if it changed)
         new Thread(() -> {
-            database.invoiceDao().update(currentInvoice);
+            database.invoiceDao().updateKeepingLocation(currentInvoice);
+            IngestGeocoder.getInstance(this).queue(currentInvoice.getId());
         }).start();
     }
     
@@ -628,7 +629,8 @@ public class InvoiceDetailActivity extends AppCompatActivity {
         
         // Save to database
         new Thread(() -> {
-            database.invoiceDao().update(currentInvoice);
+            database.invoiceDao().updateKeepingLocation(currentInvoice);
+            IngestGeocoder.getInstance(this).queue(currentInvoice.getId());
             
             runOnUiThread(() -> {
                 Toast.makeText(this, "Invoice saved successfully!", Toast.LENGTH_SHORT).show();
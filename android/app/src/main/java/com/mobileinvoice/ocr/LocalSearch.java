@@ -0,0 +1,350 @@
+package com.mobileinvoice.ocr;
+
+/**
+ * Local search improvement stage for routes built by nearest neighbor
+ *
+ * Works on an open path that starts at the matrix origin (index 0) and ends at the last stop.
+ * Moves:
+ * - 2-opt (reverse a section of the path, removes crossing legs)
+ * - Or-opt (move a run of 1-3 stops to a better position, optionally reversed)
+ *
+ * With ranks set (precedence constraints, e.g. pinned first/last stops), only moves that keep
+ * the ranks along the path non-decreasing are applied, so the starting path must already
+ * respect them.
+ *
+ * Only the K nearest neighbors of each stop are tried as new edges, and don't-look bits
+ * (a queue of "dirty" stops) keep the search focused on the parts of the route that changed.
+ * The search stops when no improving move is left or the time budget runs out.
+ */
+public class LocalSearch {
+    public static final long DEFAULT_TIME_BUDGET_MS = 100;
+    public static final int DEFAULT_NEIGHBOR_COUNT = 8;
+
+    private static final double EPSILON = 1e-9;
+    private static final int MAX_SEGMENT_LENGTH = 3;
+
+    private final DistanceMatrix matrix;
+    private long timeBudgetMillis = DEFAULT_TIME_BUDGET_MS;
+    private int neighborCount = DEFAULT_NEIGHBOR_COUNT;
+    private int[] ranks;      // Precedence rank by matrix index (null = unconstrained)
+    private int warmStartStops; // > 0: only the start of the path begins dirty
+
+    // Working state, sized per call
+    private int[] path;       // path[0] is the origin
+    private int[] pos;        // matrix index -> position in path (-1 if not on the path)
+    private int[][] neighbors;
+    private int length;
+    private int[] queue;
+    private boolean[] queued;
+    private int queueHead;
+    private int queueSize;
+    private int[] segment = new int[MAX_SEGMENT_LENGTH];
+    private int movesApplied;
+
+    public LocalSearch(DistanceMatrix matrix) {
+        this.matrix = matrix;
+    }
+
+    public LocalSearch setTimeBudgetMillis(long timeBudgetMillis) {
+        this.timeBudgetMillis = timeBudgetMillis;
+        return this;
+    }
+
+    public LocalSearch setNeighborCount(int neighborCount) {
+        this.neighborCount = Math.max(1, neighborCount);
+        return this;
+    }
+
+    /**
+     * Keep stops in non-decreasing rank order (lower rank = visited earlier)
+     * @param ranks Rank by matrix index, or null for no constraints
+     */
+    public LocalSearch setRanks(int[] ranks) {
+        this.ranks = ranks;
+        return this;
+    }
+
+    /**
+     * Treat the given path as already locally optimal except near its start
+     * Only the origin, its nearest neighbors and the first stops of the path begin in the
+     * queue, so a re-plan after the origin moved (driver's position) only touches the part
+     * of the route it affects and leaves the rest of the order alone.
+     * @param stops Number of leading stops to queue (0 = queue every stop)
+     */
+    public LocalSearch setWarmStart(int stops) {
+        this.warmStartStops = Math.max(0, stops);
+        return this;
+    }
+
+    /**
+     * Number of improving moves applied by the last call to improve()
+     */
+    public int getMovesApplied() {
+        return movesApplied;
+    }
+
+    /**
+     * Improve a path in place
+     * @param tour Matrix indices of the stops in visiting order (origin not included)
+     * @param count Number of stops in tour
+     * @return Length of the improved path from the origin
+     */
+    public double improve(int[] tour, int count) {
+        movesApplied = 0;
+        if (count < 3) {
+            return matrix.pathLength(tour, count);
+        }
+
+        setUp(tour, count);
+        long deadline = System.nanoTime() + timeBudgetMillis * 1_000_000L;
+        int checks = 0;
+
+        while (queueSize > 0) {
+            if ((++checks & 15) == 0 && System.nanoTime() > deadline) {
+                break;
+            }
+
+            int node = poll();
+            if (tryTwoOpt(node) || tryOrOpt(node)) {
+                movesApplied++;
+                offer(node);
+            }
+        }
+
+        System.arraycopy(path, 1, tour, 0, count);
+        return matrix.pathLength(tour, count);
+    }
+
+    private void setUp(int[] tour, int count) {
+        length = count + 1;
+        path = new int[length];
+        path[0] = 0;
+        System.arraycopy(tour, 0, path, 1, count);
+
+        pos = new int[matrix.size()];
+        java.util.Arrays.fill(pos, -1);
+        for (int i = 0; i < length; i++) {
+            pos[path[i]] = i;
+        }
+
+        neighbors = nearestNeighbors(matrix, path, length, neighborCount);
+
+        queue = new int[length];
+        queued = new boolean[matrix.size()];
+        queueHead = 0;
+        queueSize = 0;
+        if (warmStartStops > 0) {
+            for (int i = 0; i < Math.min(length, warmStartStops + 1); i++) {
+                offer(path[i]);
+            }
+            for (int neighbor : neighbors[0]) {
+                offer(neighbor);
+            }
+            return;
+        }
+        for (int i = 0; i < length; i++) {
+            offer(path[i]);
+        }
+    }
+
+    /**
+     * K nearest members of nodes for every node (insertion into a small sorted buffer)
+     * @return Neighbor lists indexed by matrix index (null for indices not in nodes)
+     */
+    public static int[][] nearestNeighbors(DistanceMatrix matrix, int[] nodes, int count, int neighborCount) {
+        int k = Math.min(neighborCount, count - 1);
+        int[][] neighbors = new int[matrix.size()][];
+        double[] best = new double[k];
+
+        for (int i = 0; i < count; i++) {
+            int a = nodes[i];
+            int[] list = new int[k];
+            int filled = 0;
+
+            for (int j = 0; j < count; j++) {
+                int b = nodes[j];
+                if (b == a) continue;
+                double d = matrix.get(a, b);
+                if (filled == k && d >= best[k - 1]) continue;
+
+                int slot = filled < k ? filled++ : k - 1;
+                while (slot > 0 && best[slot - 1] > d) {
+                    best[slot] = best[slot - 1];
+                    list[slot] = list[slot - 1];
+                    slot--;
+                }
+                best[slot] = d;
+                list[slot] = b;
+            }
+            neighbors[a] = list;
+        }
+        return neighbors;
+    }
+
+    private void offer(int node) {
+        if (queued[node]) return;
+        queued[node] = true;
+        queue[(queueHead + queueSize) % queue.length] = node;
+        queueSize++;
+    }
+
+    private int poll() {
+        int node = queue[queueHead];
+        queueHead = (queueHead + 1) % queue.length;
+        queueSize--;
+        queued[node] = false;
+        return node;
+    }
+
+    /**
+     * Rank of the node at a position; the origin comes before everything, past the end after
+     */
+    private int rankAt(int i) {
+        if (i <= 0) return Integer.MIN_VALUE;
+        if (i >= length) return Integer.MAX_VALUE;
+        return ranks[path[i]];
+    }
+
+    /**
+     * Distance of the edge leaving position i (0 when i is the end of the path)
+     */
+    private double edgeAfter(int i) {
+        return i + 1 < length ? matrix.get(path[i], path[i + 1]) : 0;
+    }
+
+    /**
+     * Try 2-opt moves that create an edge between node and one of its neighbors
+     */
+    private boolean tryTwoOpt(int node) {
+        int pa = pos[node];
+
+        for (int c : neighbors[node]) {
+            int pc = pos[c];
+
+            // New edges (a,c) and (succ a, succ c)
+            if (tryReversal(Math.min(pa, pc), Math.max(pa, pc))) return true;
+
+            // New edges (a,c) and (pred a, pred c)
+            int i = Math.min(pa, pc) - 1;
+            if (i >= 0 && tryReversal(i, Math.max(pa, pc) - 1)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Reverse path[i+1..j] if that shortens the path
+     * Replaces edges (i,i+1),(j,j+1) with (i,j),(i+1,j+1)
+     */
+    private boolean tryReversal(int i, int j) {
+        if (j <= i + 1) return false;
+        // A reversed run keeps rank order only if it is all one rank
+        if (ranks != null && rankAt(i + 1) != rankAt(j)) return false;
+
+        double removed = matrix.get(path[i], path[i + 1]) + edgeAfter(j);
+        double added = matrix.get(path[i], path[j]);
+        if (j + 1 < length) {
+            added += matrix.get(path[i + 1], path[j + 1]);
+        }
+        if (added >= removed - EPSILON) return false;
+
+        offer(path[i]);
+        offer(path[i + 1]);
+        offer(path[j]);
+        if (j + 1 < length) offer(path[j + 1]);
+
+        for (int lo = i + 1, hi = j; lo < hi; lo++, hi--) {
+            int tmp = path[lo];
+            path[lo] = path[hi];
+            path[hi] = tmp;
+            pos[path[lo]] = lo;
+            pos[path[hi]] = hi;
+        }
+        return true;
+    }
+
+    /**
+     * Try moving the run of stops starting at node next to one of its neighbors
+     */
+    private boolean tryOrOpt(int node) {
+        int s = pos[node];
+        if (s == 0) return false; // Origin stays put
+
+        for (int len = 1; len <= MAX_SEGMENT_LENGTH && s + len - 1 < length; len++) {
+            int first = path[s];
+            int last = path[s + len - 1];
+            int prev = path[s - 1];
+            boolean hasNext = s + len < length;
+
+            double removeGain = matrix.get(prev, first) + edgeAfter(s + len - 1)
+                - (hasNext ? matrix.get(prev, path[s + len]) : 0);
+            if (removeGain <= EPSILON) continue;
+
+            for (int c : neighbors[first]) {
+                if (tryInsert(s, len, pos[c], removeGain)) return true;
+                if (tryInsert(s, len, pos[c] - 1, removeGain)) return true;
+            }
+            if (len > 1) {
+                for (int c : neighbors[last]) {
+                    if (tryInsert(s, len, pos[c], removeGain)) return true;
+                    if (tryInsert(s, len, pos[c] - 1, removeGain)) return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Move path[s..s+len-1] between positions q and q+1 if that shortens the path
+     */
+    private boolean tryInsert(int s, int len, int q, double removeGain) {
+        if (q < 0 || (q >= s - 1 && q < s + len)) return false;
+
+        int first = path[s];
+        int last = path[s + len - 1];
+        int x = path[q];
+        boolean hasY = q + 1 < length;
+        int y = hasY ? path[q + 1] : -1;
+
+        double forward = matrix.get(x, first) + (hasY ? matrix.get(last, y) : 0);
+        double reversed = matrix.get(x, last) + (hasY ? matrix.get(first, y) : 0);
+        double xy = hasY ? matrix.get(x, y) : 0;
+        boolean reverse = reversed < forward;
+        if (ranks != null) {
+            // The run must fit between x and y; it may only be flipped if it is all one rank
+            if (rankAt(q) > rankAt(s) || rankAt(q + 1) < rankAt(s + len - 1)) return false;
+            if (rankAt(s) != rankAt(s + len - 1)) reverse = false;
+        }
+        double insertCost = (reverse ? reversed : forward) - xy;
+
+        if (insertCost >= removeGain - EPSILON) return false;
+
+        offer(path[s - 1]);
+        if (s + len < length) offer(path[s + len]);
+        offer(x);
+        if (hasY) offer(y);
+
+        for (int k = 0; k < len; k++) {
+            segment[k] = path[reverse ? s + len - 1 - k : s + k];
+        }
+
+        int start;
+        int end;
+        if (q < s) {
+            // Shift path[q+1..s-1] right by len
+            System.arraycopy(path, q + 1, path, q + 1 + len, s - 1 - q);
+            System.arraycopy(segment, 0, path, q + 1, len);
+            start = q + 1;
+            end = s + len - 1;
+        } else {
+            // Shift path[s+len..q] left by len
+            System.arraycopy(path, s + len, path, s, q - s - len + 1);
+            System.arraycopy(segment, 0, path, q - len + 1, len);
+            start = s;
+            end = q;
+        }
+        for (int i = start; i <= end; i++) {
+            pos[path[i]] = i;
+        }
+        return true;
+    }
+}
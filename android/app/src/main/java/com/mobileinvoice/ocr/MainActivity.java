@@ -55,6 +55,9 @@ public class MainActivity extends AppCompatActivity implements InvoiceAdapter.On
         setupClickListeners();
         setupRecyclerViews();
         loadInvoicesFromDatabase();
+
+        // Catch up on addresses saved offline (or before they were geocoded at ingest)
+        new Thread(() -> IngestGeocoder.getInstance(this).queueMissing()).start();
     }
     
     @Override
@@ -199,6 +202,9 @@ public class MainActivity extends AppCompatActivity implements InvoiceAdapter.On
                     long newId = database.invoiceDao().insert(invoice);
                     invoice.setId((int) newId);
                     invoices.add(invoice);
+
+                    // Geocode while the next image is scanned, so the route map doesn't wait
+                    IngestGeocoder.getInstance(this).queue((int) newId);
                 }
                 
                 // Clean up ML Kit resources
@@ -409,7 +415,7 @@ public class MainActivity extends AppCompatActivity implements InvoiceAdapter.On
 
         // Save to database
         new Thread(() -> {
-            database.invoiceDao().update(invoice);
+            database.invoiceDao().setStatus(invoice.getId(), newStatus);
             runOnUiThread(() -> {
                 String message = isComplete ?
                     "Delivery marked complete!" : "Delivery marked pending";
@@ -0,0 +1,173 @@
+package com.mobileinvoice.ocr;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Multi-start route construction
+ *
+ * Nearest neighbor quality depends heavily on the first stop, so this builds one greedy
+ * route per seed (the K stops closest to the origin), improves each with LocalSearch and
+ * keeps the shortest. Seeds run in parallel on a ForkJoinPool, one per worker by default
+ * (the common pool has one fewer worker than there are cores), so the wall-clock time is
+ * about that of a single construction + improvement pass. More seeds than workers run in
+ * waves, and the time budget is split across the waves to keep that total.
+ */
+public class MultiStartSolver {
+    private final DistanceMatrix matrix;
+    private final ForkJoinPool pool;
+    private int starts;
+    private long timeBudgetMillis = LocalSearch.DEFAULT_TIME_BUDGET_MS;
+    private double bestLength;
+
+    public MultiStartSolver(DistanceMatrix matrix) {
+        this(matrix, ForkJoinPool.commonPool());
+    }
+
+    public MultiStartSolver(DistanceMatrix matrix, ForkJoinPool pool) {
+        this.matrix = matrix;
+        this.pool = pool;
+        this.starts = pool.getParallelism();
+    }
+
+    /**
+     * Number of seeds to try (defaults to the pool's parallelism)
+     */
+    public MultiStartSolver setStarts(int starts) {
+        this.starts = Math.max(1, starts);
+        return this;
+    }
+
+    /**
+     * Local search time budget for each wave of seeds (one seed per pool worker)
+     */
+    public MultiStartSolver setTimeBudgetMillis(long timeBudgetMillis) {
+        this.timeBudgetMillis = timeBudgetMillis;
+        return this;
+    }
+
+    /**
+     * Length of the route returned by the last solve()
+     */
+    public double getBestLength() {
+        return bestLength;
+    }
+
+    /**
+     * Build and improve one route per seed in parallel
+     * @return Matrix indices of all stops (1..size-1) in visiting order
+     */
+    public int[] solve() {
+        int stops = matrix.size() - 1;
+        if (stops == 0) {
+            bestLength = 0;
+            return new int[0];
+        }
+
+        int[] seeds = closestToOrigin(Math.min(starts, stops));
+        int parallelism = pool.getParallelism();
+        int waves = (seeds.length + parallelism - 1) / parallelism;
+        long seedBudgetMillis = timeBudgetMillis / waves;
+        Result best = pool.invoke(new SeedTask(seeds, 0, seeds.length, seedBudgetMillis));
+        bestLength = best.length;
+        return best.tour;
+    }
+
+    /**
+     * The k stops nearest to the origin, nearest first
+     */
+    private int[] closestToOrigin(int k) {
+        int[] seeds = new int[k];
+        double[] dist = new double[k];
+        int filled = 0;
+
+        for (int i = 1; i < matrix.size(); i++) {
+            double d = matrix.get(0, i);
+            if (filled == k && d >= dist[k - 1]) continue;
+
+            int slot = filled < k ? filled++ : k - 1;
+            while (slot > 0 && dist[slot - 1] > d) {
+                dist[slot] = dist[slot - 1];
+                seeds[slot] = seeds[slot - 1];
+                slot--;
+            }
+            dist[slot] = d;
+            seeds[slot] = i;
+        }
+        return seeds;
+    }
+
+    /**
+     * Greedy route from the origin that is forced to visit firstStop first
+     */
+    static int[] nearestNeighborTour(DistanceMatrix matrix, int firstStop) {
+        int stops = matrix.size() - 1;
+        double[] lats = new double[stops];
+        double[] lngs = new double[stops];
+        for (int i = 0; i < stops; i++) {
+            lats[i] = matrix.getLatitude(i + 1);
+            lngs[i] = matrix.getLongitude(i + 1);
+        }
+
+        SpatialGrid grid = new SpatialGrid(lats, lngs, stops);
+        int[] tour = new int[stops];
+        int count = 0;
+
+        grid.remove(firstStop - 1);
+        tour[count++] = firstStop;
+        int current = firstStop;
+
+        int next;
+        while ((next = grid.nearest(matrix.getLatitude(current), matrix.getLongitude(current))) >= 0) {
+            grid.remove(next);
+            current = next + 1;
+            tour[count++] = current;
+        }
+        return tour;
+    }
+
+    private static class Result {
+        final int[] tour;
+        final double length;
+
+        Result(int[] tour, double length) {
+            this.tour = tour;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Splits the seed range in half until one seed is left, then builds and improves it
+     */
+    private class SeedTask extends RecursiveTask<Result> {
+        private final int[] seeds;
+        private final int from;
+        private final int to;
+        private final long budgetMillis;
+
+        SeedTask(int[] seeds, int from, int to, long budgetMillis) {
+            this.seeds = seeds;
+            this.from = from;
+            this.to = to;
+            this.budgetMillis = budgetMillis;
+        }
+
+        @Override
+        protected Result compute() {
+            if (to - from == 1) {
+                int[] tour = nearestNeighborTour(matrix, seeds[from]);
+                double length = budgetMillis > 0
+                    ? new LocalSearch(matrix).setTimeBudgetMillis(budgetMillis).improve(tour, tour.length)
+                    : matrix.pathLength(tour, tour.length);
+                return new Result(tour, length);
+            }
+
+            int mid = (from + to) >>> 1;
+            SeedTask left = new SeedTask(seeds, from, mid, budgetMillis);
+            left.fork();
+            Result right = new SeedTask(seeds, mid, to, budgetMillis).compute();
+            Result leftResult = left.join();
+            return leftResult.length <= right.length ? leftResult : right;
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package com.mobileinvoice.ocr;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Geocoder for dead zones, memory-mapped from a ZIP code and street range index
+ *
+ * The file is produced by tools/build_geocode_index.py. ZIP codes are sorted with their
+ * centroids; street ranges (optional) are sorted by ZIP, then street name, then first house
+ * number, and give the coordinates of both ends of a block range. Street names are stored as
+ * AddressCanonicalizer keys ("n oak ave"), so a scanned "45 North Oak Avenue" finds them.
+ *
+ * A lookup canonicalizes the address, takes the last five-digit word as the ZIP code and the
+ * leading number as the house number, then binary searches for the longest run of words
+ * after the number that names a street in that ZIP. The position is interpolated along the
+ * range holding the house number; without a street match it is the ZIP centroid, flagged
+ * approximate so distinct addresses in one ZIP aren't taken for one place. Only the
+ * searched records are touched, so a lookup costs microseconds and no network.
+ *
+ * File layout (little-endian ints, then bytes):
+ * magic, version, zipCount, streetCount, nameByteCount,
+ * zip[zipCount], zipLatE6[zipCount], zipLngE6[zipCount],
+ * streetZip[streetCount], nameOffset[streetCount], nameLength[streetCount],
+ * fromNumber[streetCount], toNumber[streetCount],
+ * fromLatE6[streetCount], fromLngE6[streetCount], toLatE6[streetCount], toLngE6[streetCount],
+ * names[nameByteCount] (UTF-8)
+ *
+ * Lookups are thread-safe.
+ */
+public class OfflineGeocoder implements AddressLookup {
+    public static final String FILE_NAME = "geocode_index.bin";
+
+    private static final int MAGIC = 0x58444947;   // "GIDX"
+    private static final int VERSION = 1;
+    private static final int HEADER_INTS = 5;
+    private static final int MAX_STREET_WORDS = 6;   // Longest street name tried
+
+    private static OfflineGeocoder cached;
+
+    private final File file;
+    private final long lastModified;
+    private final int zipCount;
+    private final int streetCount;
+    private final IntBuffer zips;
+    private final IntBuffer zipLatE6;
+    private final IntBuffer zipLngE6;
+    private final IntBuffer streetZip;
+    private final IntBuffer nameOffset;
+    private final IntBuffer nameLength;
+    private final IntBuffer fromNumber;
+    private final IntBuffer toNumber;
+    private final IntBuffer fromLatE6;
+    private final IntBuffer fromLngE6;
+    private final IntBuffer toLatE6;
+    private final IntBuffer toLngE6;
+    private final ByteBuffer names;
+
+    private OfflineGeocoder(File file, ByteBuffer buffer) throws IOException {
+        this.file = file;
+        this.lastModified = file.lastModified();
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        IntBuffer ints = buffer.asIntBuffer();
+        if (ints.limit() < HEADER_INTS || ints.get(0) != MAGIC || ints.get(1) != VERSION) {
+            throw new IOException("Not a geocode index file (version " + VERSION + "): " + file);
+        }
+        zipCount = ints.get(2);
+        streetCount = ints.get(3);
+        int nameBytes = ints.get(4);
+        long intCount = HEADER_INTS + 3L * zipCount + 9L * streetCount;
+        if (zipCount < 0 || streetCount < 0 || nameBytes < 0
+                || buffer.limit() != intCount * 4 + nameBytes) {
+            throw new IOException("Truncated or corrupt geocode index: " + file);
+        }
+
+        int offset = HEADER_INTS;
+        zips = slice(ints, offset, zipCount);
+        zipLatE6 = slice(ints, offset + zipCount, zipCount);
+        zipLngE6 = slice(ints, offset + 2 * zipCount, zipCount);
+        offset += 3 * zipCount;
+
+        streetZip = slice(ints, offset, streetCount);
+        nameOffset = slice(ints, offset + streetCount, streetCount);
+        nameLength = slice(ints, offset + 2 * streetCount, streetCount);
+        fromNumber = slice(ints, offset + 3 * streetCount, streetCount);
+        toNumber = slice(ints, offset + 4 * streetCount, streetCount);
+        fromLatE6 = slice(ints, offset + 5 * streetCount, streetCount);
+        fromLngE6 = slice(ints, offset + 6 * streetCount, streetCount);
+        toLatE6 = slice(ints, offset + 7 * streetCount, streetCount);
+        toLngE6 = slice(ints, offset + 8 * streetCount, streetCount);
+
+        ByteBuffer view = buffer.duplicate();
+        view.position((int) (intCount * 4));
+        names = view.slice();
+    }
+
+    private static IntBuffer slice(IntBuffer ints, int offset, int length) {
+        IntBuffer view = ints.duplicate();
+        view.position(offset);
+        view.limit(offset + length);
+        return view.slice();
+    }
+
+    /**
+     * Memory-map a geocode index file
+     */
+    public static OfflineGeocoder open(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            // The mapping stays valid after the channel is closed
+            return new OfflineGeocoder(file, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Shared instance for a file, re-mapped only when the file changes
+     * @return The geocoder, or null if the file doesn't exist
+     */
+    public static synchronized OfflineGeocoder load(File file) throws IOException {
+        if (!file.exists()) {
+            cached = null;
+            return null;
+        }
+        if (cached == null || !cached.file.equals(file) || cached.lastModified != file.lastModified()) {
+            cached = open(file);
+        }
+        return cached;
+    }
+
+    public int getZipCount() {
+        return zipCount;
+    }
+
+    public int getStreetCount() {
+        return streetCount;
+    }
+
+    /**
+     * @return The street position (or the ZIP centroid), or null if the address has no ZIP
+     *     code the index covers
+     */
+    @Override
+    public Match lookup(String address) {
+        String[] words = new AddressCanonicalizer().canonicalKey(address).split(" ");
+        int zipWord = -1;
+        for (int w = words.length - 1; w >= 0; w--) {
+            if (words[w].length() == 5 && isDigits(words[w])) {
+                zipWord = w;
+                break;
+            }
+        }
+        if (zipWord < 0) {
+            return null;
+        }
+        int zip = Integer.parseInt(words[zipWord]);
+        int zipIndex = findZip(zip);
+        if (zipIndex < 0) {
+            return null;
+        }
+
+        int number = leadingNumber(words[0]);
+        if (number >= 0) {
+            // Longest street name first: "n oak ave" before "n oak"
+            int end = Math.min(zipWord, 1 + MAX_STREET_WORDS);
+            for (int w = 1; w < end; w++) {
+                if (words[w].startsWith("#")) {
+                    end = w;
+                    break;
+                }
+            }
+            for (int last = end - 1; last >= 1; last--) {
+                String street = join(words, 1, last + 1);
+                Match match = lookupStreet(zip, street, number);
+                if (match != null) {
+                    return match;
+                }
+            }
+        }
+        // Every address in the ZIP lands here, so the match is flagged approximate
+        return new Match(zipLatE6.get(zipIndex) / 1e6, zipLngE6.get(zipIndex) / 1e6,
+            words[zipWord] + " (ZIP centroid)", true);
+    }
+
+    private int findZip(int zip) {
+        int low = 0;
+        int high = zipCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int value = zips.get(mid);
+            if (value == zip) {
+                return mid;
+            } else if (value < zip) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Interpolated position of a house number on a street, or null if the ZIP has no such street
+     */
+    private Match lookupStreet(int zip, String street, int number) {
+        byte[] name = street.getBytes(StandardCharsets.UTF_8);
+
+        // First range of (zip, name)
+        int low = 0;
+        int high = streetCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compareStreet(mid, zip, name) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        if (low == streetCount || compareStreet(low, zip, name) != 0) {
+            return null;
+        }
+
+        // Ranges of one street are few; take the one holding the number, else the nearest
+        int best = low;
+        int bestGap = Integer.MAX_VALUE;
+        for (int r = low; r < streetCount && compareStreet(r, zip, name) == 0; r++) {
+            int from = Math.min(fromNumber.get(r), toNumber.get(r));
+            int to = Math.max(fromNumber.get(r), toNumber.get(r));
+            int gap = number < from ? from - number : (number > to ? number - to : 0);
+            if (gap < bestGap) {
+                best = r;
+                bestGap = gap;
+                if (gap == 0) {
+                    break;
+                }
+            }
+        }
+
+        int from = fromNumber.get(best);
+        int to = toNumber.get(best);
+        double t = to == from ? 0 : (double) (number - from) / (to - from);
+        t = Math.max(0, Math.min(1, t));
+        double lat = (fromLatE6.get(best) + t * (toLatE6.get(best) - fromLatE6.get(best))) / 1e6;
+        double lng = (fromLngE6.get(best) + t * (toLngE6.get(best) - fromLngE6.get(best))) / 1e6;
+        return new Match(lat, lng, number + " " + street + " " + zip);
+    }
+
+    /**
+     * Order of range r against (zip, name): ZIP first, then name bytes (unsigned)
+     */
+    private int compareStreet(int r, int zip, byte[] name) {
+        int rangeZip = streetZip.get(r);
+        if (rangeZip != zip) {
+            return rangeZip < zip ? -1 : 1;
+        }
+        int offset = nameOffset.get(r);
+        int length = nameLength.get(r);
+        int common = Math.min(length, name.length);
+        for (int k = 0; k < common; k++) {
+            int diff = (names.get(offset + k) & 0xff) - (name[k] & 0xff);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return length - name.length;
+    }
+
+    private static boolean isDigits(String word) {
+        for (int i = 0; i < word.length(); i++) {
+            if (word.charAt(i) < '0' || word.charAt(i) > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * House number at the start of a word ("123", "123b"), or -1
+     */
+    private static int leadingNumber(String word) {
+        int number = 0;
+        int digits = 0;
+        while (digits < word.length() && digits < 9
+                && word.charAt(digits) >= '0' && word.charAt(digits) <= '9') {
+            number = number * 10 + (word.charAt(digits) - '0');
+            digits++;
+        }
+        return digits > 0 ? number : -1;
+    }
+
+    private static String join(String[] words, int from, int to) {
+        StringBuilder joined = new StringBuilder(words[from]);
+        for (int w = from + 1; w < to; w++) {
+            joined.append(' ').append(words[w]);
+        }
+        return joined.toString();
+    }
+}
@@ -0,0 +1,145 @@
+package com.mobileinvoice.ocr;
+
+import java.util.Arrays;
+
+/**
+ * Lower bound on the shortest route (Held-Karp 1-tree bound with subgradient optimization)
+ *
+ * An open route from the origin becomes a closed tour by adding a dummy node that is joined
+ * to the origin and to the last stop at zero cost. A 1-tree is a minimum spanning tree over
+ * the real nodes plus the dummy's two edges (the one to the origin is forced); every tour is
+ * a 1-tree, so the cheapest 1-tree can't be longer than the best route. Node penalties are
+ * then adjusted (subgradient steps) to push every node towards degree 2, which tightens the
+ * bound to within a few percent of optimal on typical delivery routes.
+ *
+ * Each iteration is an O(n^2) Prim's pass over the distance matrix, no extra allocation.
+ */
+public class OneTreeBound {
+    public static final int DEFAULT_ITERATIONS = 50;
+
+    private static final double INITIAL_STEP_SCALE = 2.0;
+    private static final int STALL_LIMIT = 5;     // Halve the step after this many non-improving iterations
+    private static final double MIN_STEP_SCALE = 1e-4;
+
+    private final DistanceMatrix matrix;
+    private final int size;
+    private final double[] penalty;
+    private final int[] degree;
+    private final double[] key;
+    private final int[] parent;
+    private final boolean[] inTree;
+    private int iterations = DEFAULT_ITERATIONS;
+
+    public OneTreeBound(DistanceMatrix matrix) {
+        this.matrix = matrix;
+        this.size = matrix.size();
+        penalty = new double[size];
+        degree = new int[size];
+        key = new double[size];
+        parent = new int[size];
+        inTree = new boolean[size];
+    }
+
+    public OneTreeBound setIterations(int iterations) {
+        this.iterations = Math.max(0, iterations);
+        return this;
+    }
+
+    /**
+     * Best lower bound found, in miles
+     * @param upperBound Length of a known route (drives the subgradient step size)
+     */
+    public double compute(double upperBound) {
+        if (size <= 2) {
+            return size == 2 ? matrix.get(0, 1) : 0;
+        }
+
+        Arrays.fill(penalty, 0);
+        double best = 0;
+        double scale = INITIAL_STEP_SCALE;
+        int stalled = 0;
+
+        for (int iteration = 0; iteration <= iterations; iteration++) {
+            double bound = oneTree();
+            if (bound > best) {
+                best = bound;
+                stalled = 0;
+            } else if (++stalled >= STALL_LIMIT) {
+                scale /= 2;
+                stalled = 0;
+                if (scale < MIN_STEP_SCALE) break;
+            }
+
+            // Subgradient: degree - 2 for every real node
+            double norm = 0;
+            for (int i = 0; i < size; i++) {
+                int g = degree[i] - 2;
+                norm += g * g;
+            }
+            if (norm == 0) break;   // The 1-tree is a route, so the bound is exact
+
+            double step = scale * Math.max(upperBound - bound, 1e-9) / norm;
+            for (int i = 0; i < size; i++) {
+                penalty[i] += step * (degree[i] - 2);
+            }
+        }
+        return Math.min(best, upperBound);
+    }
+
+    /**
+     * Cheapest 1-tree under the current penalties, minus the penalty offset
+     * Fills degree[] with each node's degree in the 1-tree
+     */
+    private double oneTree() {
+        Arrays.fill(degree, 0);
+        Arrays.fill(inTree, false);
+        for (int i = 0; i < size; i++) {
+            key[i] = Double.MAX_VALUE;
+            parent[i] = -1;
+        }
+
+        // Prim's algorithm over the real nodes
+        double total = 0;
+        key[0] = 0;
+        for (int added = 0; added < size; added++) {
+            int u = -1;
+            double uKey = Double.MAX_VALUE;
+            for (int i = 0; i < size; i++) {
+                if (!inTree[i] && key[i] < uKey) {
+                    uKey = key[i];
+                    u = i;
+                }
+            }
+            inTree[u] = true;
+            total += uKey;
+            if (parent[u] >= 0) {
+                degree[u]++;
+                degree[parent[u]]++;
+            }
+
+            for (int v = 0; v < size; v++) {
+                if (inTree[v]) continue;
+                double cost = matrix.get(u, v) + penalty[u] + penalty[v];
+                if (cost < key[v]) {
+                    key[v] = cost;
+                    parent[v] = u;
+                }
+            }
+        }
+
+        // Dummy node: forced zero-cost edge to the origin plus the cheapest edge to a stop
+        int last = 1;
+        for (int i = 2; i < size; i++) {
+            if (penalty[i] < penalty[last]) last = i;
+        }
+        total += penalty[0] + penalty[last];
+        degree[0]++;
+        degree[last]++;
+
+        double offset = 0;
+        for (int i = 0; i < size; i++) {
+            offset += penalty[i];
+        }
+        return total - 2 * offset;
+    }
+}
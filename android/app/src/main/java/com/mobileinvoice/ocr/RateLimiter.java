@@ -0,0 +1,48 @@
+package com.mobileinvoice.ocr;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket: up to burst calls at once, then permitsPerSecond on average
+ *
+ * A caller that finds the bucket empty reserves the next token (the count goes negative)
+ * and sleeps until it is due, outside the lock, so waiting callers are served in arrival
+ * order and never wake up to find the token taken. Thread-safe.
+ */
+public class RateLimiter {
+    private final double permitsPerSecond;
+    private final double burst;
+    private double tokens;
+    private long refilledAtNanos;
+
+    public RateLimiter(double permitsPerSecond, int burst) {
+        if (permitsPerSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException("Rate and burst must be positive");
+        }
+        this.permitsPerSecond = permitsPerSecond;
+        this.burst = burst;
+        this.tokens = burst;
+        this.refilledAtNanos = System.nanoTime();
+    }
+
+    /**
+     * Take one token, waiting for it if necessary
+     */
+    public void acquire() throws InterruptedException {
+        long waitNanos;
+        synchronized (this) {
+            long now = System.nanoTime();
+            tokens = Math.min(burst, tokens + (now - refilledAtNanos) / 1e9 * permitsPerSecond);
+            refilledAtNanos = now;
+            tokens -= 1;
+            waitNanos = tokens >= 0 ? 0 : (long) (-tokens / permitsPerSecond * 1e9);
+        }
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    public double getPermitsPerSecond() {
+        return permitsPerSecond;
+    }
+}
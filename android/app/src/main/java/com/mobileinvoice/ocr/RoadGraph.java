@@ -0,0 +1,360 @@
+package com.mobileinvoice.ocr;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Offline road network for the service region, memory-mapped from a contraction hierarchy
+ *
+ * The file is produced by tools/build_road_graph.py: every node has a rank, and the
+ * original road edges plus shortcut edges are split into an upward graph (edges towards
+ * higher-ranked nodes, stored at their tail) and a downward graph (edges arriving from
+ * higher-ranked nodes, stored at their head). A shortest path is always "up, then down", so
+ * a query only runs two small upward Dijkstra searches instead of searching the whole map.
+ *
+ * Many-to-many tables use buckets: one backward upward search per target leaves
+ * (target, time, length) entries at the nodes it settles, then one forward upward search per
+ * source scans the buckets of the nodes it settles. Times are the fastest path; the length
+ * is the road length of that path.
+ *
+ * File layout (little-endian ints):
+ * magic, version, nodeCount, upEdgeCount, downEdgeCount,
+ * latE6[nodeCount], lngE6[nodeCount],
+ * upFirst[nodeCount + 1], upTarget[up], upTenthsOfSecond[up], upMeters[up],
+ * downFirst[nodeCount + 1], downTarget[down], downTenthsOfSecond[down], downMeters[down]
+ *
+ * The mapped file stays on disk (page cache), so only the arrays of a query are on the heap.
+ * Queries are thread-safe.
+ */
+public class RoadGraph {
+    public static final String FILE_NAME = "road_graph.bin";
+
+    private static final int MAGIC = 0x48434752;   // "RGCH"
+    private static final int VERSION = 1;
+    private static final int HEADER_INTS = 5;
+
+    private static RoadGraph cached;
+
+    private final File file;
+    private final long lastModified;
+    private final int nodeCount;
+    private final IntBuffer latE6;
+    private final IntBuffer lngE6;
+    private final Adjacency up;
+    private final Adjacency down;
+    private SpatialGrid nodeIndex;   // Built on the first snap
+
+    /**
+     * Compressed adjacency (CSR) of one direction of the hierarchy
+     */
+    private static class Adjacency {
+        final IntBuffer first;
+        final IntBuffer target;
+        final IntBuffer tenths;
+        final IntBuffer meters;
+
+        Adjacency(IntBuffer first, IntBuffer target, IntBuffer tenths, IntBuffer meters) {
+            this.first = first;
+            this.target = target;
+            this.tenths = tenths;
+            this.meters = meters;
+        }
+    }
+
+    private RoadGraph(File file, ByteBuffer buffer) throws IOException {
+        this.file = file;
+        this.lastModified = file.lastModified();
+        IntBuffer ints = buffer.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+        if (ints.limit() < HEADER_INTS || ints.get(0) != MAGIC || ints.get(1) != VERSION) {
+            throw new IOException("Not a road graph file (version " + VERSION + "): " + file);
+        }
+        nodeCount = ints.get(2);
+        int upCount = ints.get(3);
+        int downCount = ints.get(4);
+        long expected = HEADER_INTS + 2L * nodeCount + 2L * (nodeCount + 1) + 3L * upCount + 3L * downCount;
+        if (nodeCount < 0 || upCount < 0 || downCount < 0 || ints.limit() != expected) {
+            throw new IOException("Truncated or corrupt road graph: " + file);
+        }
+
+        int offset = HEADER_INTS;
+        latE6 = slice(ints, offset, nodeCount);
+        offset += nodeCount;
+        lngE6 = slice(ints, offset, nodeCount);
+        offset += nodeCount;
+
+        IntBuffer upFirst = slice(ints, offset, nodeCount + 1);
+        offset += nodeCount + 1;
+        up = new Adjacency(upFirst, slice(ints, offset, upCount),
+            slice(ints, offset + upCount, upCount), slice(ints, offset + 2 * upCount, upCount));
+        offset += 3 * upCount;
+
+        IntBuffer downFirst = slice(ints, offset, nodeCount + 1);
+        offset += nodeCount + 1;
+        down = new Adjacency(downFirst, slice(ints, offset, downCount),
+            slice(ints, offset + downCount, downCount), slice(ints, offset + 2 * downCount, downCount));
+    }
+
+    private static IntBuffer slice(IntBuffer ints, int offset, int length) {
+        IntBuffer view = ints.duplicate();
+        view.position(offset);
+        view.limit(offset + length);
+        return view.slice();
+    }
+
+    /**
+     * Memory-map a road graph file
+     */
+    public static RoadGraph open(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            // The mapping stays valid after the channel is closed
+            return new RoadGraph(file, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Shared instance for a file, re-mapped only when the file changes
+     * @return The graph, or null if the file doesn't exist
+     */
+    public static synchronized RoadGraph load(File file) throws IOException {
+        if (!file.exists()) {
+            cached = null;
+            return null;
+        }
+        if (cached == null || !cached.file.equals(file) || cached.lastModified != file.lastModified()) {
+            cached = open(file);
+        }
+        return cached;
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    public double getLatitude(int node) {
+        return latE6.get(node) / 1e6;
+    }
+
+    public double getLongitude(int node) {
+        return lngE6.get(node) / 1e6;
+    }
+
+    /**
+     * Road node closest to a coordinate (where a stop joins the network)
+     */
+    public int nearestNode(double lat, double lng) {
+        SpatialGrid index;
+        synchronized (this) {
+            if (nodeIndex == null) {
+                double[] lats = new double[nodeCount];
+                double[] lngs = new double[nodeCount];
+                for (int i = 0; i < nodeCount; i++) {
+                    lats[i] = getLatitude(i);
+                    lngs[i] = getLongitude(i);
+                }
+                nodeIndex = new SpatialGrid(lats, lngs, nodeCount);
+            }
+            index = nodeIndex;
+        }
+        return index.nearest(lat, lng);
+    }
+
+    /**
+     * Fastest travel times (and their road lengths) between every source and every target
+     * @param seconds Receives source s -> target t at [s * targetCount + t]; +infinity if unreachable
+     * @param meters Receives the road length of each of those paths (may be null)
+     */
+    public void manyToMany(int[] sources, int sourceCount, int[] targets, int targetCount,
+                           double[] seconds, double[] meters) {
+        Search search = new Search();
+        Buckets buckets = new Buckets();
+        for (int t = 0; t < targetCount; t++) {
+            search.run(down, targets[t]);
+            for (int k = 0; k < search.settledCount; k++) {
+                int node = search.settled[k];
+                buckets.add(node, t, search.tenths[node], search.meters[node]);
+            }
+            search.reset();
+        }
+
+        Arrays.fill(seconds, 0, sourceCount * targetCount, Double.POSITIVE_INFINITY);
+        for (int s = 0; s < sourceCount; s++) {
+            search.run(up, sources[s]);
+            int row = s * targetCount;
+            for (int k = 0; k < search.settledCount; k++) {
+                int node = search.settled[k];
+                long toNode = search.tenths[node];
+                for (int e = buckets.head[node]; e >= 0; e = buckets.next[e]) {
+                    double total = (toNode + buckets.tenths[e]) / 10.0;
+                    int cell = row + buckets.target[e];
+                    if (total < seconds[cell]) {
+                        seconds[cell] = total;
+                        if (meters != null) {
+                            meters[cell] = (double) search.meters[node] + buckets.meters[e];
+                        }
+                    }
+                }
+            }
+            search.reset();
+        }
+    }
+
+    /**
+     * Upward Dijkstra search with a binary heap; node arrays are reset per run by walking
+     * the settled/touched list, so one Search serves many runs without O(n) clears
+     */
+    private class Search {
+        final long[] tenths = new long[nodeCount];
+        final long[] meters = new long[nodeCount];
+        final boolean[] done = new boolean[nodeCount];
+        final int[] heapIndex = new int[nodeCount];   // -1 = not in heap
+        int[] heap = new int[64];
+        int heapSize;
+        int[] touched = new int[64];
+        int touchedCount;
+        int[] settled = new int[64];
+        int settledCount;
+
+        Search() {
+            Arrays.fill(tenths, Long.MAX_VALUE);
+            Arrays.fill(heapIndex, -1);
+        }
+
+        void run(Adjacency graph, int source) {
+            touch(source, 0, 0);
+            push(source);
+            while (heapSize > 0) {
+                int node = pop();
+                done[node] = true;
+                settled = grow(settled, settledCount);
+                settled[settledCount++] = node;
+
+                long base = tenths[node];
+                long baseMeters = meters[node];
+                int end = graph.first.get(node + 1);
+                for (int e = graph.first.get(node); e < end; e++) {
+                    int next = graph.target.get(e);
+                    if (done[next]) continue;
+                    long candidate = base + graph.tenths.get(e);
+                    if (candidate < tenths[next]) {
+                        boolean queued = heapIndex[next] >= 0;
+                        touch(next, candidate, baseMeters + graph.meters.get(e));
+                        if (queued) {
+                            siftUp(heapIndex[next]);
+                        } else {
+                            push(next);
+                        }
+                    }
+                }
+            }
+        }
+
+        void reset() {
+            for (int i = 0; i < touchedCount; i++) {
+                int node = touched[i];
+                tenths[node] = Long.MAX_VALUE;
+                done[node] = false;
+                heapIndex[node] = -1;
+            }
+            touchedCount = 0;
+            settledCount = 0;
+        }
+
+        private void touch(int node, long time, long length) {
+            if (tenths[node] == Long.MAX_VALUE) {
+                touched = grow(touched, touchedCount);
+                touched[touchedCount++] = node;
+            }
+            tenths[node] = time;
+            meters[node] = length;
+        }
+
+        private void push(int node) {
+            heap = grow(heap, heapSize);
+            heap[heapSize] = node;
+            heapIndex[node] = heapSize;
+            siftUp(heapSize++);
+        }
+
+        private int pop() {
+            int top = heap[0];
+            heapIndex[top] = -1;
+            heapSize--;
+            if (heapSize > 0) {
+                heap[0] = heap[heapSize];
+                heapIndex[heap[0]] = 0;
+                siftDown(0);
+            }
+            return top;
+        }
+
+        private void siftUp(int i) {
+            int node = heap[i];
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (tenths[heap[parent]] <= tenths[node]) break;
+                heap[i] = heap[parent];
+                heapIndex[heap[i]] = i;
+                i = parent;
+            }
+            heap[i] = node;
+            heapIndex[node] = i;
+        }
+
+        private void siftDown(int i) {
+            int node = heap[i];
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= heapSize) break;
+                if (child + 1 < heapSize && tenths[heap[child + 1]] < tenths[heap[child]]) child++;
+                if (tenths[heap[child]] >= tenths[node]) break;
+                heap[i] = heap[child];
+                heapIndex[heap[i]] = i;
+                i = child;
+            }
+            heap[i] = node;
+            heapIndex[node] = i;
+        }
+    }
+
+    /**
+     * Bucket entries as linked lists in parallel arrays, headed per node
+     */
+    private class Buckets {
+        final int[] head = new int[nodeCount];
+        int[] next = new int[256];
+        int[] target = new int[256];
+        long[] tenths = new long[256];
+        long[] meters = new long[256];
+        int size;
+
+        Buckets() {
+            Arrays.fill(head, -1);
+        }
+
+        void add(int node, int targetIndex, long time, long length) {
+            if (size == next.length) {
+                int capacity = size * 2;
+                next = Arrays.copyOf(next, capacity);
+                target = Arrays.copyOf(target, capacity);
+                tenths = Arrays.copyOf(tenths, capacity);
+                meters = Arrays.copyOf(meters, capacity);
+            }
+            next[size] = head[node];
+            target[size] = targetIndex;
+            tenths[size] = time;
+            meters[size] = length;
+            head[node] = size++;
+        }
+    }
+
+    private static int[] grow(int[] array, int size) {
+        return size < array.length ? array : Arrays.copyOf(array, array.length * 2);
+    }
+}
@@ -0,0 +1,257 @@
+package com.mobileinvoice.ocr;
+
+import android.util.Log;
+import com.mobileinvoice.ocr.database.Invoice;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A geocode-and-solve run in the background, with progress and a cancellable handle
+ *
+ * Runs are single-flight: starting a run for the same stops, start position and optimizer
+ * settings as one already in progress subscribes to that run instead of starting another
+ * (getting the stops located and the latest progress so far, straight away). The caller
+ * that started the run gets its OptimizedRoute; each caller that joined gets its own copy,
+ * holding its own Invoice objects, so later edits by one caller don't change another's
+ * route. Stops are streamed as geocoding locates them (the same objects to every caller,
+ * for display only). A run is cancelled (its thread interrupted) once every handle on it
+ * has been cancelled.
+ *
+ * Callbacks arrive on the worker thread; post to the UI thread to touch views.
+ */
+public class RouteJob {
+    private static final String TAG = "RouteJob";
+
+    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool();
+    private static final Map<String, RouteJob> RUNNING = new HashMap<>();
+
+    /**
+     * Receives one run's progress and outcome (nothing more after cancel())
+     */
+    public interface Callback {
+        void onProgress(RouteOptimizer.Stage stage, int done, int total);
+        void onStopLocated(RouteOptimizer.RoutePoint stop);
+        void onComplete(RouteOptimizer.OptimizedRoute route);
+        void onError(Exception e);
+    }
+
+    /**
+     * One caller's subscription to a run
+     */
+    public static class Handle {
+        private final RouteJob job;
+        private final Callback callback;
+        private final Map<Integer, Invoice> invoicesById;   // Joined callers only (else null)
+        private volatile boolean cancelled;
+
+        private Handle(RouteJob job, Callback callback, Map<Integer, Invoice> invoicesById) {
+            this.job = job;
+            this.callback = callback;
+            this.invoicesById = invoicesById;
+        }
+
+        /**
+         * The run's route for this caller: the original for the caller that started it
+         */
+        private RouteOptimizer.OptimizedRoute routeFor(RouteOptimizer.OptimizedRoute route) {
+            return invoicesById == null ? route : route.copy(invoicesById);
+        }
+
+        /**
+         * Stop receiving callbacks; the run itself stops when no other handle is waiting on it
+         */
+        public void cancel() {
+            if (!cancelled) {
+                cancelled = true;
+                job.unsubscribe(this);
+            }
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        /**
+         * Whether this caller joined a run that another caller started
+         */
+        public boolean isShared() {
+            return job.shared;
+        }
+    }
+
+    private final String key;
+    private final List<Handle> handles = new ArrayList<>();
+    private Future<?> future;
+    private boolean finished;
+    private volatile boolean shared;
+    private RouteOptimizer.Stage stage;
+    private int done;
+    private int total;
+    private final List<RouteOptimizer.RoutePoint> located = new ArrayList<>();
+
+    private RouteJob(String key) {
+        this.key = key;
+    }
+
+    /**
+     * Optimize a route for invoices from a start position, calculating ETAs from when it
+     * finishes; joins the run already in progress for the same stops, start and optimizer
+     * settings, if any (this caller's optimizer then goes unused, and its route is a copy)
+     * @param optimizer Configured optimizer (its progress listener is taken over)
+     */
+    public static Handle start(RouteOptimizer optimizer, List<Invoice> invoices,
+                               double startLat, double startLng, Callback callback) {
+        String key = key(invoices, startLat, startLng) + "\n" + optimizer.getSettingsKey();
+        RouteJob job;
+        Handle handle;
+        synchronized (RUNNING) {
+            job = RUNNING.get(key);
+            Map<Integer, Invoice> invoicesById = null;
+            if (job != null) {
+                job.shared = true;
+                invoicesById = new HashMap<>();
+                for (Invoice invoice : invoices) {
+                    invoicesById.put(invoice.getId(), invoice);
+                }
+                Log.d(TAG, "Joining route run in progress for " + invoices.size() + " stops");
+            } else {
+                job = new RouteJob(key);
+                RUNNING.put(key, job);
+                RouteJob run = job;
+                List<Invoice> stops = new ArrayList<>(invoices);
+                job.future = EXECUTOR.submit(() -> run.execute(optimizer, stops, startLat, startLng));
+            }
+            handle = job.subscribe(callback, invoicesById);
+        }
+        return handle;
+    }
+
+    /**
+     * Single-flight key: the stops (id and address, in any order) and the start position
+     * rounded to about 100 m, so two location fixes a few meters apart share a run
+     */
+    static String key(List<Invoice> invoices, double startLat, double startLng) {
+        List<String> stops = new ArrayList<>(invoices.size());
+        for (Invoice invoice : invoices) {
+            stops.add(invoice.getId() + "|" + invoice.getAddress());
+        }
+        Collections.sort(stops);
+        return String.format(Locale.US, "%.3f,%.3f:", startLat, startLng) + String.join("\n", stops);
+    }
+
+    private void execute(RouteOptimizer optimizer, List<Invoice> invoices, double startLat, double startLng) {
+        try {
+            optimizer.setProgressListener(this::publishProgress);
+            optimizer.setStopListener(this::publishStop);
+            RouteOptimizer.OptimizedRoute route = optimizer.optimizeRoute(invoices, startLat, startLng);
+            RouteOptimizer.calculateETAs(route, startLat, startLng, System.currentTimeMillis());
+            for (Handle handle : finish()) {
+                handle.callback.onComplete(handle.routeFor(route));
+            }
+        } catch (CancellationException e) {
+            Log.d(TAG, "Route run cancelled");
+            finish();
+        } catch (Exception e) {
+            Log.e(TAG, "Route run failed", e);
+            for (Handle handle : finish()) {
+                handle.callback.onError(e);
+            }
+        }
+    }
+
+    private Handle subscribe(Callback callback, Map<Integer, Invoice> invoicesById) {
+        Handle handle = new Handle(this, callback, invoicesById);
+        RouteOptimizer.Stage current;
+        int currentDone;
+        int currentTotal;
+        List<RouteOptimizer.RoutePoint> stops;
+        synchronized (this) {
+            handles.add(handle);
+            current = stage;
+            currentDone = done;
+            currentTotal = total;
+            stops = new ArrayList<>(located);
+        }
+        for (RouteOptimizer.RoutePoint stop : stops) {
+            callback.onStopLocated(stop);
+        }
+        if (current != null) {
+            callback.onProgress(current, currentDone, currentTotal);
+        }
+        return handle;
+    }
+
+    private void unsubscribe(Handle handle) {
+        synchronized (RUNNING) {
+            boolean idle;
+            synchronized (this) {
+                handles.remove(handle);
+                idle = handles.isEmpty() && !finished;
+            }
+            if (idle) {
+                if (RUNNING.get(key) == this) {
+                    RUNNING.remove(key);
+                }
+                future.cancel(true);
+            }
+        }
+    }
+
+    private void publishProgress(RouteOptimizer.Stage stage, int done, int total) {
+        List<Handle> current;
+        synchronized (this) {
+            this.stage = stage;
+            this.done = done;
+            this.total = total;
+            current = new ArrayList<>(handles);
+        }
+        for (Handle handle : current) {
+            if (!handle.cancelled) {
+                handle.callback.onProgress(stage, done, total);
+            }
+        }
+    }
+
+    private void publishStop(RouteOptimizer.RoutePoint stop) {
+        List<Handle> current;
+        synchronized (this) {
+            located.add(stop);
+            current = new ArrayList<>(handles);
+        }
+        for (Handle handle : current) {
+            if (!handle.cancelled) {
+                handle.callback.onStopLocated(stop);
+            }
+        }
+    }
+
+    /**
+     * Retire the run (later starts begin a new one)
+     * @return The handles still waiting for its outcome
+     */
+    private List<Handle> finish() {
+        synchronized (RUNNING) {
+            if (RUNNING.get(key) == this) {
+                RUNNING.remove(key);
+            }
+            synchronized (this) {
+                finished = true;
+                List<Handle> waiting = new ArrayList<>();
+                for (Handle handle : handles) {
+                    if (!handle.cancelled) {
+                        waiting.add(handle);
+                    }
+                }
+                return waiting;
+            }
+        }
+    }
+}
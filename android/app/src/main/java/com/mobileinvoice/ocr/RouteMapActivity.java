@@ -34,8 +34,16 @@ import com.google.android.gms.maps.model.PolylineOptions;
 import com.mobileinvoice.ocr.database.Invoice;
 import com.mobileinvoice.ocr.database.InvoiceDatabase;
 import com.mobileinvoice.ocr.databinding.ActivityRouteMapBinding;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Route Map Activity - Display optimized delivery route on Google Maps
@@ -43,6 +51,7 @@ import java.util.List;
  */
 public class RouteMapActivity extends AppCompatActivity implements OnMapReadyCallback {
     private static final String TAG = "RouteMapActivity";
+    private static final double BACKGROUND_TARGET_GAP_PERCENT = 2.0; // Stop improving once this close to optimal
     private ActivityRouteMapBinding binding;
     private GoogleMap googleMap;
     private InvoiceDatabase database;
@@ -53,6 +62,8 @@ public class RouteMapActivity extends AppCompatActivity implements OnMapReadyCal
     private RouteStopAdapter stopAdapter;
     private ItemTouchHelper itemTouchHelper;
     private boolean isMapExpanded = false;
+    private AnytimeRouteSolver backgroundSolver;
+    private RouteJob.Handle routeJob;  // Geocode-and-solve in progress (null = none)
     
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -149,19 +160,12 @@ public class RouteMapActivity extends AppCompatActivity implements OnMapReadyCal
      * Handle "Make First" priority action
      */
     private void handleMakeFirst(RouteOptimizer.RoutePoint stop) {
-        List<RouteOptimizer.RoutePoint> activeStops = stopAdapter.getActiveStops();
-        RouteOptimizer.makeFirst(activeStops, stop);
+        stopBackgroundImprovement();
 
-        // Clear other FIRST priorities
-        for (RouteOptimizer.RoutePoint s : activeStops) {
-            if (s != stop && s.priority == RouteOptimizer.PRIORITY_FIRST) {
-                s.priority = RouteOptimizer.PRIORITY_NORMAL;
-            }
-        }
-
-        // Update route and recalculate ETAs
-        optimizedRoute.orderedPoints = activeStops;
-        recalculateETAsAndRefresh();
+        // Pin the stop and re-plan the rest of the route around it
+        optimizedRoute.orderedPoints = stopAdapter.getActiveStops();
+        RouteOptimizer.makeFirst(optimizedRoute, stop);
+        showPinnedRoute();
 
         Toast.makeText(this, stop.invoice.getCustomerName() + " moved to first", Toast.LENGTH_SHORT).show();
     }
@@ -170,19 +174,12 @@ public class RouteMapActivity extends AppCompatActivity implements OnMapReadyCal
      * Handle "Make Last" priority action
      */
     private void handleMakeLast(RouteOptimizer.RoutePoint stop) {
-        List<RouteOptimizer.RoutePoint> activeStops = stopAdapter.getActiveStops();
-        RouteOptimizer.makeLast(activeStops, stop);
-
-        // Clear other LAST priorities
-        for (RouteOptimizer.RoutePoint s : activeStops) {
-            if (s != stop && s.priority == RouteOptimizer.PRIORITY_LAST) {
-                s.priority = RouteOptimizer.PRIORITY_NORMAL;
-            }
-        }
+        stopBackgroundImprovement();
 
-        // Update route and recalculate ETAs
-        optimizedRoute.orderedPoints = activeStops;
-        recalculateETAsAndRefresh();
+        // Pin the stop and re-plan the rest of the route around it
+        optimizedRoute.orderedPoints = stopAdapter.getActiveStops();
+        RouteOptimizer.makeLast(optimizedRoute, stop);
+        showPinnedRoute();
 
         Toast.makeText(this, stop.invoice.getCustomerName() + " moved to last", Toast.LENGTH_SHORT).show();
     }
@@ -191,84 +188,176 @@ public class RouteMapActivity extends AppCompatActivity implements OnMapReadyCal
      * Handle stop time change
      */
     private void handleStopTimeChanged(RouteOptimizer.RoutePoint stop, int newTimeMinutes) {
-        stop.stopTimeMinutes = newTimeMinutes;
-
-        // Save to database for persistence
-        stop.invoice.setStopTimeMinutes(newTimeMinutes);
+        // Save to database for persistence (a merged stop's time is split over its invoices)
+        stop.spreadStopTime(newTimeMinutes);
         new Thread(() -> {
-            database.invoiceDao().update(stop.invoice);
+            for (Invoice invoice : stop.invoices) {
+                database.invoiceDao().setStopTimeMinutes(invoice.getId(), invoice.getStopTimeMinutes());
+            }
         }).start();
 
-        // Recalculate ETAs for all subsequent stops
-        recalculateETAsAndRefresh();
+        int index = optimizedRoute != null ? optimizedRoute.orderedPoints.indexOf(stop) : -1;
+        if (index < 0) {
+            stop.stopTimeMinutes = newTimeMinutes;
+            stopAdapter.notifyDataSetChanged();
+            return;
+        }
+
+        // Shift ETAs of subsequent stops only and rebind just those rows
+        RouteOptimizer.EtaChange change = RouteOptimizer.updateStopTime(optimizedRoute, index, newTimeMinutes);
+        stopAdapter.notifyEtaRangeChanged(change);
+        updateRouteSummary();
     }
 
     /**
      * Handle delivery completed checkbox change
      */
     private void handleCompletedChanged(RouteOptimizer.RoutePoint stop, boolean completed) {
-        // Update the invoice's completed status
-        stop.invoice.setCompleted(completed);
+        stopBackgroundImprovement();
+
+        // Update the completed status of every invoice delivered at the stop
+        for (Invoice invoice : stop.invoices) {
+            invoice.setCompleted(completed);
+        }
+
+        // Patch the route around the stop instead of recomputing every leg
+        if (optimizedRoute != null) {
+            if (completed) {
+                int index = optimizedRoute.orderedPoints.indexOf(stop);
+                if (index >= 0) {
+                    RouteOptimizer.removeStop(optimizedRoute, index);
+                }
+                stopAdapter.moveToCompleted(stop);
+                replanFromCurrentLocation();
+            } else if (stop.latitude != 0 || stop.longitude != 0) {
+                RouteOptimizer.EtaChange change = RouteOptimizer.insertStop(optimizedRoute, stop);
+                stopAdapter.moveToActive(stop, change.fromIndex);
+            } else {
+                // Placeholders for stops completed before this session were never geocoded
+                reactivatePlaceholder(stop);
+                return;
+            }
+            displayRouteOnMap(optimizedRoute.startLatitude, optimizedRoute.startLongitude);
+            updateRouteSummary();
+        }
 
         // Save to database
         new Thread(() -> {
-            database.invoiceDao().update(stop.invoice);
+            for (Invoice invoice : stop.invoices) {
+                database.invoiceDao().setStatus(invoice.getId(), invoice.getStatus());
+            }
             runOnUiThread(() -> {
-                // Refresh the adapter to update styling
-                stopAdapter.setStops(stopAdapter.getAllStops());
-                recalculateETAsAndRefresh();
-
                 String status = completed ? "completed" : "active";
-                Toast.makeText(this, stop.invoice.getCustomerName() + " marked as " + status,
+                Toast.makeText(this, stop.getCustomerLabel() + " marked as " + status,
                     Toast.LENGTH_SHORT).show();
             });
         }).start();
     }
 
     /**
-     * Recalculate ETAs and refresh the display
+     * Put a stop completed before this session back on the route
+     * It has no position yet, so it is located first (stored coordinates, the geocode cache,
+     * then the Geocoder); if that fails it stays completed.
      */
-    private void recalculateETAsAndRefresh() {
-        if (optimizedRoute == null || optimizedRoute.orderedPoints.isEmpty()) {
-            return;
-        }
-
-        double startLat = currentLocation != null ?
-            currentLocation.getLatitude() : optimizedRoute.orderedPoints.get(0).latitude;
-        double startLng = currentLocation != null ?
-            currentLocation.getLongitude() : optimizedRoute.orderedPoints.get(0).longitude;
-
-        // Recalculate ETAs
-        RouteOptimizer.recalculateETAs(optimizedRoute, startLat, startLng);
-
-        // Recalculate distance
-        recalculateRouteDistance();
-
-        // Rebuild adapter items to show updated ETAs
-        List<RouteOptimizer.RoutePoint> allPoints = new ArrayList<>(optimizedRoute.orderedPoints);
+    private void reactivatePlaceholder(RouteOptimizer.RoutePoint stop) {
+        new Thread(() -> {
+            RouteOptimizer optimizer = new RouteOptimizer(this);
+            optimizer.setOfflineGeocoder(loadOfflineGeocoder());
+            List<RouteOptimizer.GeocodingFailure> failures = new ArrayList<>();
+            RouteOptimizer.RoutePoint located = optimizer.geocodeStop(stop.invoice, failures);
 
-        // Re-add completed stops
-        List<Invoice> allInvoices;
-        try {
-            allInvoices = database.invoiceDao().getAllInvoicesSync();
-            for (Invoice invoice : allInvoices) {
-                if (invoice.isCompleted()) {
-                    RouteOptimizer.RoutePoint completedPoint =
-                        new RouteOptimizer.RoutePoint(invoice, 0, 0, invoice.getAddress());
-                    completedPoint.orderIndex = 0;
-                    allPoints.add(completedPoint);
+            runOnUiThread(() -> {
+                if (stop.invoice.isCompleted()) {
+                    return;   // Checked again while it was being located
                 }
-            }
-        } catch (Exception e) {
-            Log.e(TAG, "Error loading completed invoices", e);
+                if (located == null) {
+                    for (Invoice invoice : stop.invoices) {
+                        invoice.setCompleted(true);
+                    }
+                    stopAdapter.notifyDataSetChanged();
+                    Toast.makeText(this, stop.getCustomerLabel() + " left completed: "
+                        + failures.get(0).reason, Toast.LENGTH_LONG).show();
+                    return;
+                }
+                new Thread(() -> {
+                    for (Invoice invoice : stop.invoices) {
+                        database.invoiceDao().setStatus(invoice.getId(), invoice.getStatus());
+                    }
+                }).start();
+                if (optimizedRoute == null || isFinishing()) {
+                    return;
+                }
+                stop.latitude = located.latitude;
+                stop.longitude = located.longitude;
+                stop.approximate = located.approximate;
+                stopBackgroundImprovement();
+                RouteOptimizer.EtaChange change = RouteOptimizer.insertStop(optimizedRoute, stop);
+                stopAdapter.moveToActive(stop, change.fromIndex);
+                displayRouteOnMap(optimizedRoute.startLatitude, optimizedRoute.startLongitude);
+                updateRouteSummary();
+                Toast.makeText(this, stop.getCustomerLabel() + " marked as active",
+                    Toast.LENGTH_SHORT).show();
+            });
+        }).start();
+    }
+
+    /**
+     * Re-plan the remaining stops from the driver's live position
+     * Warm-started from the current order, so it takes milliseconds and the order the
+     * driver already knows mostly stays put.
+     */
+    private void replanFromCurrentLocation() {
+        if (ContextCompat.checkSelfPermission(this, Manifest.permission.ACCESS_FINE_LOCATION)
+                != PackageManager.PERMISSION_GRANTED) {
+            return;
         }
 
-        stopAdapter.setStops(allPoints);
+        fusedLocationClient.getLastLocation()
+            .addOnSuccessListener(this, location -> {
+                if (location == null || optimizedRoute == null || optimizedRoute.orderedPoints.isEmpty()) {
+                    return;
+                }
+                currentLocation = location;
+                DistanceMatrix matrix = optimizedRoute.distanceMatrix;
+                RoadGraph roadGraph = matrix != null ? matrix.getRoadGraph() : null;
+                if (roadGraph == null) {
+                    applyReplan(location, null);
+                    return;
+                }
+                // Route the new origin to every stop off the UI thread, like insertNewInvoices
+                int[] roadNodes = matrix.getRoadNodes();
+                new Thread(() -> {
+                    DistanceMatrix.RoadRoute roadRoute = DistanceMatrix.routeTo(
+                        roadGraph, location.getLatitude(), location.getLongitude(), roadNodes);
+                    runOnUiThread(() -> applyReplan(location, roadRoute));
+                }).start();
+            })
+            .addOnFailureListener(e -> Log.w(TAG, "No location for re-plan, keeping current order", e));
+    }
 
-        // Update map
-        displayRouteOnMap(startLat, startLng);
+    /**
+     * Re-plan from a location on the UI thread and refresh the list and map
+     * @param roadRoute The location's road routes (DistanceMatrix.routeTo), or null
+     */
+    private void applyReplan(Location location, DistanceMatrix.RoadRoute roadRoute) {
+        if (optimizedRoute == null || optimizedRoute.orderedPoints.isEmpty() || isFinishing()) {
+            return;
+        }
+        stopBackgroundImprovement();
+        RouteOptimizer.replanFrom(optimizedRoute, location.getLatitude(), location.getLongitude(),
+            RouteOptimizer.REPLAN_BUDGET_MS, roadRoute);
+        stopAdapter.setActiveOrder(optimizedRoute.orderedPoints);
+        displayRouteOnMap(optimizedRoute.startLatitude, optimizedRoute.startLongitude);
+        updateRouteSummary();
+    }
 
-        // Update summary
+    /**
+     * Show the route after makeFirst / makeLast, which already re-planned it and set its ETAs
+     * from the route start; the list is reordered in place like a re-plan.
+     */
+    private void showPinnedRoute() {
+        stopAdapter.setActiveOrder(optimizedRoute.orderedPoints);
+        displayRouteOnMap(optimizedRoute.startLatitude, optimizedRoute.startLongitude);
         updateRouteSummary();
     }
     
@@ -280,8 +369,12 @@ public class RouteMapActivity extends AppCompatActivity implements OnMapReadyCal
             return;
         }
 
+        // Manual order wins over the background solver
+        stopBackgroundImprovement();
+
         // Update the optimized route with new order (ACTIVE ONLY)
         optimizedRoute.orderedPoints = stopAdapter.getActiveStops();
+        RouteOptimizer.markEdited(optimizedRoute);
         
         // Recalculate total distance
         recalculateRouteDistance();
@@ -306,21 +399,14 @@ public class RouteMapActivity extends AppCompatActivity implements OnMapReadyCal
             return;
         }
         
-        double totalDistance = 0;
-        double prevLat = currentLocation != null ? 
+        double startLat = currentLocation != null ? 
             currentLocation.getLatitude() : optimizedRoute.orderedPoints.get(0).latitude;
-        double prevLng = currentLocation != null ? 
+        double startLng = currentLocation != null ? 
             currentLocation.getLongitude() : optimizedRoute.orderedPoints.get(0).longitude;
         
-        for (RouteOptimizer.RoutePoint point : optimizedRoute.orderedPoints) {
-            double distance = RouteOptimizer.calculateDistance(
-                prevLat, prevLng, point.latitude, point.longitude);
-            totalDistance += distance;
-            prevLat = point.latitude;
-            prevLng = point.longitude;
-        }
-        
-        optimizedRoute.totalDistance = totalDistance;
+        // Leg distances come from the route's precomputed matrix
+        optimizedRoute.totalDistance = RouteOptimizer.calculateRouteDistance(
+            optimizedRoute, startLat, startLng);
     }
     
     /**
@@ -349,6 +435,9 @@ public class RouteMapActivity extends AppCompatActivity implements OnMapReadyCal
                 RouteOptimizer.estimateTravelTime(optimizedRoute.totalDistance)
             );
         }
+        if (optimizedRoute.gapPercent >= 0) {
+            summary += String.format(" • within %.1f%% of optimal", optimizedRoute.gapPercent);
+        }
         binding.tvRouteSummary.setText(summary);
     }
     
@@ -377,6 +466,8 @@ public class RouteMapActivity extends AppCompatActivity implements OnMapReadyCal
         // Start navigation
         binding.btnStartNavigation.setOnClickListener(v -> {
             if (optimizedRoute != null && !optimizedRoute.orderedPoints.isEmpty()) {
+                // Driver is leaving - freeze the route
+                stopBackgroundImprovement();
                 startGoogleMapsNavigation();
             } else {
                 Toast.makeText(this, "No route available", Toast.LENGTH_SHORT).show();
@@ -568,76 +659,360 @@ public class RouteMapActivity extends AppCompatActivity implements OnMapReadyCal
                     return;
                 }
 
-                // Optimize route with ACTIVE invoices only
+                // Optimize route with ACTIVE invoices only (joins a run already in progress
+                // for the same stops instead of geocoding them all again)
                 RouteOptimizer optimizer = new RouteOptimizer(this);
-                optimizedRoute = optimizer.optimizeRoute(activeInvoices, startLat, startLng);
-
-                // Calculate ETAs for all stops (starting now)
-                long startTimeMillis = System.currentTimeMillis();
-                RouteOptimizer.calculateETAs(optimizedRoute, startLat, startLng, startTimeMillis);
-                
-                // Update UI on main thread
+                // One seed per pool worker, so they all run in a single wave
+                optimizer.setMultiStart(ForkJoinPool.commonPool().getParallelism());
+                optimizer.setRoadGraph(loadRoadGraph());
+                optimizer.setSpeedProfile(loadSpeedProfile());
+                optimizer.setOfflineGeocoder(loadOfflineGeocoder());
                 runOnUiThread(() -> {
-                    binding.progressBar.setVisibility(View.GONE);
-                    
-                    if (optimizedRoute.orderedPoints.isEmpty()) {
-                        binding.tvRouteSummary.setText("Could not geocode any addresses");
-                        Toast.makeText(this, "No valid addresses found for routing", Toast.LENGTH_SHORT).show();
-                        return;
-                    }
-                    
-                    // Update summary
-                    String summary = String.format(
-                        "Optimized Route\n%d stops • %.1f mi • %s estimated",
-                        optimizedRoute.totalStops,
-                        optimizedRoute.totalDistance,
-                        RouteOptimizer.estimateTravelTime(optimizedRoute.totalDistance)
-                    );
-                    binding.tvRouteSummary.setText(summary);
-                    
-                    // Display route on map
-                    displayRouteOnMap(startLat, startLng);
-                    
-                    // Enable action buttons
-                    binding.btnStartNavigation.setEnabled(true);
-                    binding.btnReorderList.setEnabled(true);
-
-                    // Update RecyclerView with ALL stops (active + completed)
-                    // Adapter will handle splitting into sections
-                    List<RouteOptimizer.RoutePoint> allPoints = new ArrayList<>(optimizedRoute.orderedPoints);
-
-                    // Add completed invoices to list (they won't be in optimized route)
-                    for (Invoice invoice : allInvoices) {
-                        if (invoice.isCompleted()) {
-                            // Create RoutePoint for completed items (with address, no geocoding)
-                            RouteOptimizer.RoutePoint completedPoint =
-                                new RouteOptimizer.RoutePoint(invoice, 0, 0, invoice.getAddress());
-                            completedPoint.orderIndex = 0; // No order for completed
-                            allPoints.add(completedPoint);
-                        }
-                    }
+                    if (isDestroyed()) return;
+                    RouteJob.Handle previous = routeJob;
+                    routeJob = RouteJob.start(optimizer, activeInvoices, startLat, startLng,
+                        new RouteJob.Callback() {
+                            @Override
+                            public void onProgress(RouteOptimizer.Stage stage, int done, int total) {
+                                runOnUiThread(() -> showRouteProgress(stage, done, total));
+                            }
 
-                    stopAdapter.setStops(allPoints);
+                            @Override
+                            public void onStopLocated(RouteOptimizer.RoutePoint stop) {
+                                runOnUiThread(() -> showLocatedStop(stop));
+                            }
 
-                    // Show dialog if some invoices failed to geocode
-                    if (!optimizedRoute.failedInvoices.isEmpty()) {
-                        showGeocodingFailuresDialog(optimizedRoute.failedInvoices);
-                    } else {
-                        Toast.makeText(this, "Route optimized successfully!", Toast.LENGTH_SHORT).show();
+                            @Override
+                            public void onComplete(RouteOptimizer.OptimizedRoute route) {
+                                runOnUiThread(() -> displayOptimizedRoute(route, allInvoices, startLat, startLng));
+                            }
+
+                            @Override
+                            public void onError(Exception e) {
+                                runOnUiThread(() -> showRouteError(e));
+                            }
+                        });
+                    if (previous != null) {
+                        previous.cancel();
                     }
                 });
                 
             } catch (Exception e) {
                 Log.e(TAG, "Error optimizing route", e);
-                runOnUiThread(() -> {
-                    binding.progressBar.setVisibility(View.GONE);
-                    binding.tvRouteSummary.setText("Error optimizing route");
-                    Toast.makeText(this, "Error: " + e.getMessage(), Toast.LENGTH_SHORT).show();
-                });
+                runOnUiThread(() -> showRouteError(e));
             }
         }).start();
     }
-    
+
+    /**
+     * Show how far the route run has got
+     */
+    private void showRouteProgress(RouteOptimizer.Stage stage, int done, int total) {
+        if (isDestroyed()) return;
+        binding.progressBar.setVisibility(View.VISIBLE);
+        switch (stage) {
+            case GEOCODING:
+                binding.tvRouteSummary.setText(String.format(Locale.getDefault(),
+                    "Finding addresses %d/%d...", done, total));
+                break;
+            case CONSTRUCTING:
+                binding.tvRouteSummary.setText("Building route...");
+                break;
+            default:
+                binding.tvRouteSummary.setText("Optimizing route...");
+                break;
+        }
+    }
+
+    /**
+     * Pin a stop on the map as soon as its address is found (before the route is ready)
+     */
+    private void showLocatedStop(RouteOptimizer.RoutePoint stop) {
+        if (isDestroyed() || googleMap == null) return;
+        googleMap.addMarker(new MarkerOptions()
+            .position(new LatLng(stop.latitude, stop.longitude))
+            .title(stop.getCustomerLabel())
+            .snippet(stop.getAddressLabel())
+            .icon(BitmapDescriptorFactory.defaultMarker(BitmapDescriptorFactory.HUE_ORANGE)));
+    }
+
+    private void showRouteError(Exception e) {
+        if (isDestroyed()) return;
+        binding.progressBar.setVisibility(View.GONE);
+        binding.tvRouteSummary.setText("Error optimizing route");
+        Toast.makeText(this, "Error: " + e.getMessage(), Toast.LENGTH_SHORT).show();
+    }
+
+    /**
+     * Show a finished route on the map and in the list (with the completed stops)
+     */
+    private void displayOptimizedRoute(RouteOptimizer.OptimizedRoute route, List<Invoice> allInvoices,
+                                       double startLat, double startLng) {
+        if (isDestroyed()) return;
+        routeJob = null;
+        optimizedRoute = route;
+        binding.progressBar.setVisibility(View.GONE);
+        
+        if (optimizedRoute.orderedPoints.isEmpty()) {
+            binding.tvRouteSummary.setText("Could not geocode any addresses");
+            Toast.makeText(this, "No valid addresses found for routing", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        
+        // Update summary
+        String summary = String.format(
+            "Optimized Route\n%d stops • %.1f mi • %s estimated",
+            optimizedRoute.totalStops,
+            optimizedRoute.totalDistance,
+            RouteOptimizer.estimateTravelTime(optimizedRoute.totalDistance)
+        );
+        binding.tvRouteSummary.setText(summary);
+        
+        // Display route on map
+        displayRouteOnMap(startLat, startLng);
+        
+        // Enable action buttons
+        binding.btnStartNavigation.setEnabled(true);
+        binding.btnReorderList.setEnabled(true);
+
+        // Update RecyclerView with ALL stops (active + completed)
+        // Adapter will handle splitting into sections
+        List<RouteOptimizer.RoutePoint> allPoints = new ArrayList<>(optimizedRoute.orderedPoints);
+
+        // Add completed invoices to list (they won't be in optimized route)
+        for (Invoice invoice : allInvoices) {
+            if (invoice.isCompleted()) {
+                // Create RoutePoint for completed items (with address, no geocoding)
+                RouteOptimizer.RoutePoint completedPoint =
+                    new RouteOptimizer.RoutePoint(invoice, 0, 0, invoice.getAddress());
+                completedPoint.orderIndex = 0; // No order for completed
+                allPoints.add(completedPoint);
+            }
+        }
+
+        stopAdapter.setStops(allPoints);
+
+        // Show dialog if some invoices failed to geocode
+        if (!optimizedRoute.failedInvoices.isEmpty()) {
+            showGeocodingFailuresDialog(optimizedRoute.failedInvoices);
+        } else {
+            Toast.makeText(this, "Route optimized successfully!", Toast.LENGTH_SHORT).show();
+        }
+
+        // Keep looking for a shorter route while the driver reviews this one
+        startBackgroundImprovement();
+    }
+
+    /**
+     * Run the anytime solver in the background, streaming shorter routes to the screen
+     */
+    private void startBackgroundImprovement() {
+        stopBackgroundImprovement();
+        if (optimizedRoute == null || optimizedRoute.distanceMatrix == null
+                || optimizedRoute.optimal || optimizedRoute.orderedPoints.size() < 3) {
+            return;
+        }
+
+        AnytimeRouteSolver solver = new AnytimeRouteSolver(
+            optimizedRoute.distanceMatrix, System.nanoTime());
+        solver.setRanks(RouteOptimizer.priorityRanks(
+            optimizedRoute.orderedPoints, optimizedRoute.distanceMatrix));
+        if (optimizedRoute.lowerBound > 0) {
+            // Not worth the battery once the route is provably close to optimal
+            solver.setTargetLength(optimizedRoute.lowerBound * (1 + BACKGROUND_TARGET_GAP_PERCENT / 100));
+        }
+        backgroundSolver = solver;
+        int[] initialTour = RouteOptimizer.toTour(optimizedRoute);
+        AtomicReference<int[]> pendingTour = new AtomicReference<>();
+
+        new Thread(() -> {
+            solver.solve(initialTour, (tour, length) -> {
+                // Coalesce: only post when the previous improvement has been applied
+                if (pendingTour.getAndSet(tour) == null) {
+                    runOnUiThread(() -> applyImprovedTour(solver, pendingTour.getAndSet(null)));
+                }
+            });
+            Log.d(TAG, "Background solver finished at " + solver.getBestLength() + " mi");
+        }).start();
+    }
+
+    /**
+     * Stop the background solver and wait for it to let go of the route's matrix
+     * Call before anything that changes the matrix (insertStop, replanFrom, ...).
+     */
+    private void stopBackgroundImprovement() {
+        if (backgroundSolver != null) {
+            backgroundSolver.stopAndWait();
+            backgroundSolver = null;
+        }
+    }
+
+    /**
+     * Show the latest route from the background solver
+     */
+    private void applyImprovedTour(AnytimeRouteSolver solver, int[] tour) {
+        if (tour == null || solver != backgroundSolver || isFinishing()) {
+            return;
+        }
+        if (!RouteOptimizer.applyTour(optimizedRoute, tour)) {
+            stopBackgroundImprovement();
+            return;
+        }
+
+        List<RouteOptimizer.RoutePoint> allPoints = new ArrayList<>(optimizedRoute.orderedPoints);
+        for (RouteOptimizer.RoutePoint point : stopAdapter.getAllStops()) {
+            if (point.invoice.isCompleted()) {
+                allPoints.add(point);
+            }
+        }
+        stopAdapter.setStops(allPoints);
+        displayRouteOnMap(optimizedRoute.startLatitude, optimizedRoute.startLongitude);
+        updateRouteSummary();
+    }
+
+    /**
+     * Offline road network for the service region, if one has been installed
+     * @return The graph, or null to plan with straight-line distances
+     */
+    private RoadGraph loadRoadGraph() {
+        try {
+            return RoadGraph.load(new File(getFilesDir(), RoadGraph.FILE_NAME));
+        } catch (IOException e) {
+            Log.w(TAG, "Road graph unreadable, using straight-line distances", e);
+            return null;
+        }
+    }
+
+    /**
+     * ZIP code and street index for geocoding without a connection, if one has been installed
+     * @return The index, or null to leave unreachable addresses as failures
+     */
+    private OfflineGeocoder loadOfflineGeocoder() {
+        try {
+            return OfflineGeocoder.load(new File(getFilesDir(), OfflineGeocoder.FILE_NAME));
+        } catch (IOException e) {
+            Log.w(TAG, "Geocode index unreadable, geocoding online only", e);
+            return null;
+        }
+    }
+
+    /**
+     * Travel speeds learned from completed deliveries, if any have been recorded
+     * @return The profile, or null to use the flat average speed
+     */
+    private SpeedProfile loadSpeedProfile() {
+        try {
+            return SpeedProfile.load(new File(getFilesDir(), SpeedProfile.FILE_NAME));
+        } catch (IOException e) {
+            Log.w(TAG, "Speed profile unreadable, using the average speed", e);
+            return null;
+        }
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        insertNewInvoices();
+    }
+
+    /**
+     * Add invoices created since the route was planned (e.g. phoned in by dispatch)
+     * Each one is geocoded and inserted at its cheapest position; the rest of the route keeps
+     * its order instead of being re-geocoded and re-solved.
+     */
+    private void insertNewInvoices() {
+        if (optimizedRoute == null) return;
+
+        Set<Integer> known = new HashSet<>();
+        for (RouteOptimizer.RoutePoint stop : stopAdapter.getAllStops()) {
+            for (Invoice invoice : stop.invoices) {
+                known.add(invoice.getId());
+            }
+        }
+        // Don't retry addresses that already failed to geocode on every resume
+        for (RouteOptimizer.GeocodingFailure failure : optimizedRoute.failedInvoices) {
+            known.add(failure.invoice.getId());
+        }
+        // Road nodes of the route as it is now, to route new stops to off the UI thread
+        DistanceMatrix matrix = optimizedRoute.distanceMatrix;
+        RoadGraph roadGraph = matrix != null ? matrix.getRoadGraph() : null;
+        int[] roadNodes = roadGraph != null ? matrix.getRoadNodes() : null;
+
+        new Thread(() -> {
+            List<Invoice> added = new ArrayList<>();
+            for (Invoice invoice : database.invoiceDao().getAllInvoicesSync()) {
+                if (invoice.isActive() && !known.contains(invoice.getId())) {
+                    added.add(invoice);
+                }
+            }
+            if (added.isEmpty()) return;
+
+            RouteOptimizer optimizer = new RouteOptimizer(this);
+            optimizer.setOfflineGeocoder(loadOfflineGeocoder());
+            List<RouteOptimizer.GeocodingFailure> failures = new ArrayList<>();
+            List<RouteOptimizer.RoutePoint> stops = new ArrayList<>();
+            for (Invoice invoice : added) {
+                RouteOptimizer.RoutePoint stop = optimizer.geocodeStop(invoice, failures);
+                if (stop != null) {
+                    stops.add(stop);
+                }
+            }
+
+            // The graph searches are the slow part of an insert; each stop is also routed to
+            // the ones before it, so the UI thread only reads the results
+            List<DistanceMatrix.RoadRoute> roadRoutes = new ArrayList<>();
+            int[] targets = roadNodes;
+            for (RouteOptimizer.RoutePoint stop : stops) {
+                if (roadGraph == null) {
+                    roadRoutes.add(null);
+                    continue;
+                }
+                DistanceMatrix.RoadRoute roadRoute =
+                    DistanceMatrix.routeTo(roadGraph, stop.latitude, stop.longitude, targets);
+                roadRoutes.add(roadRoute);
+                targets = Arrays.copyOf(targets, targets.length + 1);
+                targets[targets.length - 1] = roadRoute.getNode();
+            }
+
+            runOnUiThread(() -> {
+                if (!stops.isEmpty()) {
+                    stopBackgroundImprovement();
+                    for (int k = 0; k < stops.size(); k++) {
+                        RouteOptimizer.RoutePoint stop = stops.get(k);
+                        // A new invoice for an address already on the route joins that stop
+                        int existing = RouteOptimizer.findColocated(optimizedRoute, stop);
+                        if (existing >= 0) {
+                            stopAdapter.notifyEtaRangeChanged(
+                                RouteOptimizer.mergeStop(optimizedRoute, existing, stop));
+                            continue;
+                        }
+                        RouteOptimizer.EtaChange change =
+                            RouteOptimizer.insertStop(optimizedRoute, stop, roadRoutes.get(k));
+                        stopAdapter.insertActive(stop, change.fromIndex);
+                    }
+                    displayRouteOnMap(optimizedRoute.startLatitude, optimizedRoute.startLongitude);
+                    updateRouteSummary();
+                    Toast.makeText(this, "Added " + stops.size() + " new stop(s) to the route",
+                        Toast.LENGTH_SHORT).show();
+                }
+                if (!failures.isEmpty()) {
+                    optimizedRoute.failedInvoices.addAll(failures);
+                    showGeocodingFailuresDialog(failures);
+                }
+            });
+        }).start();
+    }
+
+    @Override
+    protected void onDestroy() {
+        if (routeJob != null) {
+            routeJob.cancel();
+            routeJob = null;
+        }
+        stopBackgroundImprovement();
+        super.onDestroy();
+    }
+
     private void displayRouteOnMap(double startLat, double startLng) {
         if (googleMap == null || optimizedRoute == null) {
             return;
@@ -664,9 +1039,10 @@ public class RouteMapActivity extends AppCompatActivity implements OnMapReadyCal
             // Add marker
             googleMap.addMarker(new MarkerOptions()
                 .position(position)
-                .title(point.orderIndex + ". " + point.invoice.getCustomerName())
-                .snippet(point.invoice.getAddress() + "\nItems: " + point.invoice.getItems())
-                .icon(BitmapDescriptorFactory.defaultMarker(BitmapDescriptorFactory.HUE_RED)));
+                .title(point.orderIndex + ". " + point.getCustomerLabel())
+                .snippet(point.getAddressLabel() + "\nItems: " + point.getItems())
+                .icon(BitmapDescriptorFactory.defaultMarker(point.approximate
+                    ? BitmapDescriptorFactory.HUE_YELLOW : BitmapDescriptorFactory.HUE_RED)));
             
             routePoints.add(position);
             boundsBuilder.include(position);
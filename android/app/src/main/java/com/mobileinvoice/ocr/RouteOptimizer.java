@@ -1,17 +1,28 @@
 package com.mobileinvoice.ocr;
 
-import android.location.Address;
 import android.location.Geocoder;
 import android.content.Context;
 import android.util.Log;
+import com.mobileinvoice.ocr.database.GeocodeCacheEntry;
 import com.mobileinvoice.ocr.database.Invoice;
+import com.mobileinvoice.ocr.database.InvoiceDatabase;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Route Optimizer using Nearest Neighbor algorithm for TSP (Traveling Salesman Problem)
@@ -20,7 +31,33 @@ import java.util.Locale;
 public class RouteOptimizer {
     private static final String TAG = "RouteOptimizer";
     private Context context;
-    private Geocoder geocoder;
+    public static final int DEFAULT_GEOCODE_CONCURRENCY = 4;
+    public static final double DEFAULT_GEOCODES_PER_SECOND = 10;
+    public static final double COLOCATED_MILES = 0.01;  // About 50 ft: one building or driveway
+    private AddressLookup addressLookup;  // Geocoder by default; replaceable with a fake
+    private AddressLookup offlineGeocoder;  // Used when addressLookup can't be reached (null = none)
+    private int geocodeConcurrency = DEFAULT_GEOCODE_CONCURRENCY;
+    private RateLimiter geocodeRateLimiter =
+        new RateLimiter(DEFAULT_GEOCODES_PER_SECOND, DEFAULT_GEOCODE_CONCURRENCY);
+    private long improvementTimeBudgetMillis = LocalSearch.DEFAULT_TIME_BUDGET_MS;
+    private int multiStartCount = 1;
+    private int construction = CONSTRUCTION_NEAREST_NEIGHBOR;
+    private int exactStopThreshold = HeldKarpSolver.MAX_STOPS;
+    private static final long PRIORITY_REPAIR_BUDGET_MS = 50;
+    public static final long REPLAN_BUDGET_MS = 20;
+    private static final int REPLAN_DIRTY_STOPS = 8;  // Leading stops re-examined by a re-plan
+    // Shared by every build (each makes its own RouteOptimizer); its tables grow to the
+    // largest route solved and are reused after that. Lock it while solving.
+    private static final HeldKarpSolver EXACT_SOLVER = new HeldKarpSolver();
+    private RoadGraph roadGraph;          // Offline road network (null = straight-line distances)
+    private SpeedProfile speedProfile;    // Learned speeds (null = AVG_SPEED_MPH everywhere)
+    private ProgressListener progressListener;
+    private StopListener stopListener;
+    private GeocodeCache geocodeCache;    // Consulted before every Geocoder call (null = none)
+    
+    // Route construction strategies
+    public static final int CONSTRUCTION_NEAREST_NEIGHBOR = 0;
+    public static final int CONSTRUCTION_SPACE_FILLING_CURVE = 1;  // Bulk runs of thousands of stops
     
     // Priority constants
     public static final int PRIORITY_NORMAL = 0;
@@ -29,6 +66,7 @@ public class RouteOptimizer {
 
     public static class RoutePoint {
         public Invoice invoice;
+        public List<Invoice> invoices = new ArrayList<>();  // Every invoice delivered here (invoice first)
         public double latitude;
         public double longitude;
         public String formattedAddress;
@@ -40,16 +78,102 @@ public class RouteOptimizer {
         public long etaMillis = 0;  // Estimated arrival time in milliseconds
         public int priority = PRIORITY_NORMAL;  // Delivery priority
         public int travelTimeMinutes = 0;  // Travel time from previous stop
+        public int matrixIndex = -1;  // Row in the route's DistanceMatrix (-1 = not in matrix)
+        public boolean approximate = false;  // Placed in its area only (ZIP centroid), never merged
 
         public RoutePoint(Invoice invoice, double lat, double lng, String address) {
             this.invoice = invoice;
             this.latitude = lat;
             this.longitude = lng;
             this.formattedAddress = address;
+            this.invoices.add(invoice);
             // Load stop time from invoice (persisted value)
             this.stopTimeMinutes = invoice.getStopTimeMinutes();
         }
 
+        /**
+         * Deliver another invoice at this stop too (its stop time adds to the stop's)
+         */
+        public void addInvoice(Invoice other) {
+            invoices.add(other);
+            stopTimeMinutes += other.getStopTimeMinutes();
+        }
+
+        /**
+         * Take over the invoices of a stop at the same spot
+         */
+        public void merge(RoutePoint other) {
+            for (Invoice extra : other.invoices) {
+                addInvoice(extra);
+            }
+        }
+
+        /**
+         * Split an edited stop time over the stop's invoices, so their persisted stop times
+         * add up to it again the next time the stop is merged
+         */
+        public void spreadStopTime(int minutes) {
+            int count = invoices.size();
+            for (int k = 0; k < count; k++) {
+                invoices.get(k).setStopTimeMinutes(minutes / count + (k < minutes % count ? 1 : 0));
+            }
+        }
+
+        /**
+         * Address for lists and markers, flagged when the stop's position is only approximate
+         */
+        public String getAddressLabel() {
+            String address = invoice.getAddress();
+            return approximate ? address + " (approximate location)" : address;
+        }
+
+        /**
+         * Customer name for lists and markers (e.g. "Jane Smith +2 more" for a merged stop)
+         */
+        public String getCustomerLabel() {
+            if (invoices.size() > 1) {
+                return invoice.getCustomerName() + " +" + (invoices.size() - 1) + " more";
+            }
+            return invoice.getCustomerName();
+        }
+
+        /**
+         * Items of every invoice at this stop, "; " separated (empty if none listed)
+         */
+        public String getItems() {
+            StringBuilder items = new StringBuilder();
+            for (Invoice each : invoices) {
+                String more = each.getItems();
+                if (more != null && !more.isEmpty()) {
+                    if (items.length() > 0) {
+                        items.append("; ");
+                    }
+                    items.append(more);
+                }
+            }
+            return items.toString();
+        }
+
+        /**
+         * Copy of this stop with its own invoice list (see OptimizedRoute.copy)
+         */
+        RoutePoint copy(Map<Integer, Invoice> invoicesById) {
+            RoutePoint copy = new RoutePoint(own(invoice, invoicesById), latitude, longitude, formattedAddress);
+            copy.invoices.clear();
+            for (Invoice each : invoices) {
+                copy.invoices.add(own(each, invoicesById));
+            }
+            copy.orderIndex = orderIndex;
+            copy.stopTimeMinutes = stopTimeMinutes;
+            copy.distanceFromPrevious = distanceFromPrevious;
+            copy.etaMillis = etaMillis;
+            copy.priority = priority;
+            copy.travelTimeMinutes = travelTimeMinutes;
+            copy.matrixIndex = matrixIndex;
+            copy.approximate = approximate;
+            return copy;
+        }
+
         /**
          * Get formatted ETA string (e.g., "10:30 AM")
          */
@@ -88,6 +212,42 @@ public class RouteOptimizer {
         }
     }
 
+    /**
+     * Range of stops (positions in orderedPoints) whose ETA or stop details changed
+     */
+    public static class EtaChange {
+        public final int fromIndex;
+        public final int count;
+
+        public EtaChange(int fromIndex, int count) {
+            this.fromIndex = fromIndex;
+            this.count = count;
+        }
+    }
+
+    /**
+     * Stages of optimizeRoute, in order
+     */
+    public enum Stage {
+        GEOCODING,      // done/total = addresses looked up so far
+        CONSTRUCTING,   // Distance matrix and first route
+        IMPROVING       // Local search / exact solve / lower bound
+    }
+
+    /**
+     * Receives optimizeRoute's progress (called on the optimizing thread)
+     */
+    public interface ProgressListener {
+        void onProgress(Stage stage, int done, int total);
+    }
+
+    /**
+     * Receives stops as geocoding locates them, in completion order (on the optimizing thread)
+     */
+    public interface StopListener {
+        void onStopLocated(RoutePoint stop);
+    }
+
     public static class OptimizedRoute {
         public List<RoutePoint> orderedPoints;
         public List<GeocodingFailure> failedInvoices;
@@ -96,6 +256,14 @@ public class RouteOptimizer {
         public String summary;
         public long startTimeMillis; // When the route starts
         public long endTimeMillis;   // Estimated end time
+        public DistanceMatrix distanceMatrix; // Leg distances for this route session
+        public SpeedProfile speedProfile;     // Learned speeds for legs without a road time (may be null)
+        public double startLatitude;  // Where ETAs are measured from
+        public double startLongitude;
+        public int[] arrivalOffsets = new int[0]; // Prefix sums: minutes from start to arrival at stop i
+        public boolean optimal;       // Order came from the exact solver (no shorter route exists)
+        public double lowerBound;     // No route through these stops is shorter (0 = unknown)
+        public double gapPercent = -1; // totalDistance above lowerBound, in percent (-1 = unknown)
 
         public OptimizedRoute() {
             orderedPoints = new ArrayList<>();
@@ -105,6 +273,36 @@ public class RouteOptimizer {
             startTimeMillis = System.currentTimeMillis();
         }
 
+        /**
+         * Independent copy for another owner (e.g. a second RouteJob subscriber): its own
+         * stops, matrix and offsets, so edits to one don't show up in the other
+         * @param invoicesById The owner's Invoice objects by id, used in place of these ones
+         *                     (invoices not in it are shared)
+         */
+        public OptimizedRoute copy(Map<Integer, Invoice> invoicesById) {
+            OptimizedRoute copy = new OptimizedRoute();
+            for (RoutePoint point : orderedPoints) {
+                copy.orderedPoints.add(point.copy(invoicesById));
+            }
+            for (GeocodingFailure failure : failedInvoices) {
+                copy.failedInvoices.add(new GeocodingFailure(own(failure.invoice, invoicesById), failure.reason));
+            }
+            copy.totalDistance = totalDistance;
+            copy.totalStops = totalStops;
+            copy.summary = summary;
+            copy.startTimeMillis = startTimeMillis;
+            copy.endTimeMillis = endTimeMillis;
+            copy.distanceMatrix = distanceMatrix != null ? distanceMatrix.copy() : null;
+            copy.speedProfile = speedProfile;
+            copy.startLatitude = startLatitude;
+            copy.startLongitude = startLongitude;
+            copy.arrivalOffsets = arrivalOffsets.clone();
+            copy.optimal = optimal;
+            copy.lowerBound = lowerBound;
+            copy.gapPercent = gapPercent;
+            return copy;
+        }
+
         /**
          * Get total estimated route time in minutes
          */
@@ -123,9 +321,127 @@ public class RouteOptimizer {
         }
     }
     
+    private static Invoice own(Invoice invoice, Map<Integer, Invoice> invoicesById) {
+        Invoice own = invoicesById.get(invoice.getId());
+        return own != null ? own : invoice;
+    }
+
     public RouteOptimizer(Context context) {
         this.context = context;
-        this.geocoder = new Geocoder(context);
+        this.addressLookup = AddressLookup.of(new Geocoder(context));
+        this.geocodeCache = context != null
+            ? new GeocodeCache(InvoiceDatabase.getInstance(context).geocodeCacheDao()) : null;
+    }
+
+    /**
+     * Replace how addresses are looked up (e.g. a local fake in tests)
+     */
+    public void setAddressLookup(AddressLookup addressLookup) {
+        this.addressLookup = addressLookup;
+    }
+
+    /**
+     * Fallback for addresses that can't be looked up for lack of a connection (e.g. an
+     * OfflineGeocoder); its answers aren't cached
+     */
+    public void setOfflineGeocoder(AddressLookup offlineGeocoder) {
+        this.offlineGeocoder = offlineGeocoder;
+    }
+
+    /**
+     * Most address lookups in flight at once while building a route
+     */
+    public void setGeocodeConcurrency(int lookups) {
+        this.geocodeConcurrency = Math.max(1, lookups);
+    }
+
+    /**
+     * Limit on lookup requests to the geocoding provider (shared by every lookup thread)
+     */
+    public void setGeocodeRateLimiter(RateLimiter rateLimiter) {
+        this.geocodeRateLimiter = rateLimiter;
+    }
+
+    /**
+     * Replace the geocode cache (null = always ask the Geocoder)
+     */
+    public void setGeocodeCache(GeocodeCache geocodeCache) {
+        this.geocodeCache = geocodeCache;
+    }
+
+    /**
+     * Set the time budget for the 2-opt / Or-opt improvement stage (0 disables it)
+     */
+    public void setImprovementTimeBudget(long millis) {
+        this.improvementTimeBudgetMillis = millis;
+    }
+
+    /**
+     * Enable multi-start construction: build and improve routes from this many seeds
+     * in parallel and keep the shortest (1 = single greedy pass)
+     */
+    public void setMultiStart(int starts) {
+        this.multiStartCount = Math.max(1, starts);
+    }
+    
+    /**
+     * Solve routes with at most this many stops exactly (Held-Karp) instead of with
+     * heuristics (0 disables, capped at HeldKarpSolver.MAX_STOPS)
+     */
+    public void setExactStopThreshold(int stops) {
+        this.exactStopThreshold = Math.max(0, Math.min(stops, HeldKarpSolver.MAX_STOPS));
+    }
+
+    /**
+     * Plan on road distances and driving times from an offline road graph
+     * (null = straight-line distances at an average speed)
+     */
+    public void setRoadGraph(RoadGraph roadGraph) {
+        this.roadGraph = roadGraph;
+    }
+
+    /**
+     * Receive each stop as soon as it is located, before the route is built (null = none)
+     */
+    public void setStopListener(StopListener stopListener) {
+        this.stopListener = stopListener;
+    }
+
+    /**
+     * Report progress of optimizeRoute (null = no reports)
+     */
+    public void setProgressListener(ProgressListener progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * Estimate legs at speeds learned from past deliveries, by zone and hour of day
+     * (null = the flat average speed)
+     */
+    public void setSpeedProfile(SpeedProfile speedProfile) {
+        this.speedProfile = speedProfile;
+    }
+
+    /**
+     * Choose how the first route is built before improvement
+     * (CONSTRUCTION_NEAREST_NEIGHBOR or CONSTRUCTION_SPACE_FILLING_CURVE)
+     */
+    public void setConstruction(int construction) {
+        this.construction = construction;
+    }
+
+    /**
+     * The settings that shape optimizeRoute's result, so runs with different ones aren't
+     * mistaken for each other (RouteJob's single-flight key). A road graph or speed profile
+     * is described by its size, as each build loads its own instance of the same file.
+     */
+    String getSettingsKey() {
+        return String.format(Locale.US, "c%d m%d x%d t%d g%d s%d/%d o%b",
+            construction, multiStartCount, exactStopThreshold, improvementTimeBudgetMillis,
+            roadGraph != null ? roadGraph.getNodeCount() : -1,
+            speedProfile != null ? speedProfile.getLegCount() : -1,
+            speedProfile != null ? speedProfile.getWatermarkMillis() : -1,
+            offlineGeocoder != null);
     }
     
     /**
@@ -134,6 +450,8 @@ public class RouteOptimizer {
      * @param startLatitude Starting point latitude (e.g., warehouse)
      * @param startLongitude Starting point longitude
      * @return OptimizedRoute with ordered delivery points and any failed invoices
+     * @throws CancellationException If the thread is interrupted (checked between addresses
+     *     and between stages)
      */
     public OptimizedRoute optimizeRoute(List<Invoice> invoices, double startLatitude, double startLongitude) {
         Log.d(TAG, "Starting route optimization for " + invoices.size() + " invoices");
@@ -151,17 +469,74 @@ public class RouteOptimizer {
         Log.d(TAG, "Successfully geocoded " + points.size() + " addresses, " +
               route.failedInvoices.size() + " failed");
 
-        // Step 2: Apply Nearest Neighbor algorithm for TSP
-        List<RoutePoint> optimizedPoints = nearestNeighborTSP(points, startLatitude, startLongitude);
+        // Step 2: Compute all leg distances once for the whole route session
+        // (very large depot-wide runs skip the O(n^2) matrix and use haversine per leg)
+        reportProgress(Stage.CONSTRUCTING, 0, points.size());
+        DistanceMatrix matrix = points.size() <= DistanceMatrix.MAX_STOPS
+            ? DistanceMatrix.build(startLatitude, startLongitude, points) : null;
+        if (matrix != null && roadGraph != null) {
+            matrix.applyRoadGraph(roadGraph);
+        }
+        route.distanceMatrix = matrix;
+        route.speedProfile = speedProfile;
 
-        // Step 3: Calculate total distance
-        double totalDist = calculateTotalDistance(optimizedPoints, startLatitude, startLongitude);
+        // Pinned stops (FIRST / LAST) are precedence constraints for every later stage
+        int[] ranks = matrix != null ? priorityRanks(points, matrix) : null;
+        boolean exact = matrix != null && points.size() <= exactStopThreshold;
+        boolean multiStart = !exact && matrix != null && multiStartCount > 1 && ranks == null;
 
-        // Step 4: Build result
+        // Step 3: Build a first route (Nearest Neighbor, or Hilbert curve order for bulk runs);
+        // the exact and multi-start solvers don't start from one
+        double greedyDist = -1;
+        if (!exact && !multiStart) {
+            route.orderedPoints = construction == CONSTRUCTION_SPACE_FILLING_CURVE
+                ? spaceFillingCurveTSP(points, startLatitude, startLongitude)
+                : nearestNeighborTSP(points, startLatitude, startLongitude);
+            route.orderedPoints = sortByPriority(route.orderedPoints);
+            greedyDist = calculateRouteDistance(route, startLatitude, startLongitude);
+        }
+
+        // Step 4: Remove crossing legs and misplaced stops with local search
+        // (small routes are solved exactly; multi-start mode builds and improves several
+        // seeds in parallel instead)
+        reportProgress(Stage.IMPROVING, 0, points.size());
+        List<RoutePoint> optimizedPoints = route.orderedPoints;
+        if (exact) {
+            optimizedPoints = solveExact(points, matrix, ranks);
+            route.optimal = true;
+        } else if (multiStart) {
+            MultiStartSolver solver = new MultiStartSolver(matrix)
+                .setStarts(multiStartCount)
+                .setTimeBudgetMillis(improvementTimeBudgetMillis);
+            optimizedPoints = toRoutePoints(points, solver.solve());
+        } else if (matrix != null && improvementTimeBudgetMillis > 0) {
+            optimizedPoints = improveRoute(points, optimizedPoints, matrix, ranks, improvementTimeBudgetMillis);
+        }
         route.orderedPoints = optimizedPoints;
+
+        checkCancelled();
+
+        // Step 5: Calculate total distance
+        double totalDist = calculateRouteDistance(route, startLatitude, startLongitude);
+
+        // Step 6: Bound how far this is from the best possible route
         route.totalDistance = totalDist;
+        if (route.optimal) {
+            route.lowerBound = totalDist;
+        } else if (matrix != null) {
+            route.lowerBound = new OneTreeBound(matrix).compute(totalDist);
+        }
+        updateGap(route);
+
+        // Step 7: Build result
         route.totalStops = optimizedPoints.size();
         route.summary = String.format("Total: %.1f mi | %d stops", totalDist, optimizedPoints.size());
+        if (greedyDist >= 0) {
+            route.summary += String.format(" | %.1f mi before improvement", greedyDist);
+        }
+        if (route.gapPercent >= 0) {
+            route.summary += String.format(" | within %.1f%% of optimal", route.gapPercent);
+        }
 
         Log.d(TAG, "Route optimization complete: " + route.summary);
 
@@ -170,118 +545,472 @@ public class RouteOptimizer {
     
     /**
      * Geocode all invoice addresses to lat/lng coordinates
+     * Invoices geocoded when they were saved (see IngestGeocoder) use their stored
+     * coordinates. Invoices whose addresses have the same canonical key (see AddressCanonicalizer) are
+     * looked up once and share one stop, and stops that land within COLOCATED_MILES of each
+     * other are merged. Cached and unusable addresses are settled first; the rest are looked
+     * up on up to geocodeConcurrency threads, each taking a token from the rate limiter per
+     * request. Results are handled on this thread as they arrive (cache writes, progress,
+     * the stop listener), and the returned points and failures keep the invoices' order.
      * @param invoices List of invoices to geocode
      * @param failures List to populate with failed geocoding attempts
      */
-    private List<RoutePoint> geocodeAddresses(List<Invoice> invoices, List<GeocodingFailure> failures) {
-        List<RoutePoint> points = new ArrayList<>();
-
-        for (Invoice invoice : invoices) {
-            String address = invoice.getAddress();
+    List<RoutePoint> geocodeAddresses(List<Invoice> invoices, List<GeocodingFailure> failures) {
+        int n = invoices.size();
 
-            if (address == null || address.trim().isEmpty()) {
-                Log.w(TAG, "Skipping invoice " + invoice.getInvoiceNumber() + " - no address");
-                failures.add(new GeocodingFailure(invoice, "No address provided"));
+        // Group invoices by canonical address: the first of a group is looked up, and
+        // nextSame[] chains the rest of the group behind it
+        AddressCanonicalizer canonicalizer = new AddressCanonicalizer();
+        Map<String, Integer> lastByKey = new HashMap<>();
+        String[] problems = new String[n];
+        boolean[] stored = new boolean[n];
+        boolean[] grouped = new boolean[n];
+        int[] nextSame = new int[n];
+        Arrays.fill(nextSame, -1);
+        List<String> addresses = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            Invoice invoice = invoices.get(i);
+            problems[i] = addressProblem(invoice);
+            stored[i] = problems[i] == null && invoice.hasLocation();
+            if (problems[i] != null || stored[i]) {
                 continue;
             }
+            Integer last = lastByKey.put(canonicalizer.canonicalKey(invoice.getAddress()), i);
+            if (last != null) {
+                nextSame[last] = i;
+                grouped[i] = true;
+            } else {
+                addresses.add(invoice.getAddress());
+            }
+        }
+        if (geocodeCache != null) {
+            geocodeCache.prefetch(addresses);
+        }
 
-            if (address.equalsIgnoreCase("No address found")) {
-                Log.w(TAG, "Skipping invoice " + invoice.getInvoiceNumber() + " - address not found during OCR");
-                failures.add(new GeocodingFailure(invoice, "Address not detected during scan"));
+        RoutePoint[] located = new RoutePoint[n];
+        GeocodingFailure[] failed = new GeocodingFailure[n];
+        List<Integer> pending = new ArrayList<>();
+        int done = 0;
+        for (int i = 0; i < n; i++) {
+            Invoice invoice = invoices.get(i);
+            if (problems[i] != null) {
+                failed[i] = new GeocodingFailure(invoice, problems[i]);
+                done++;
                 continue;
             }
+            if (stored[i]) {
+                located[i] = new RoutePoint(invoice, invoice.getLatitude(), invoice.getLongitude(), invoice.getAddress());
+                publishStop(located[i]);
+                done++;
+                continue;
+            }
+            if (grouped[i]) {
+                continue;  // Settled with the first invoice at its address
+            }
+            GeocodeCacheEntry cached = geocodeCache != null ? geocodeCache.lookup(invoice.getAddress()) : null;
+            if (cached == null) {
+                pending.add(i);
+                continue;
+            }
+            if (cached.isFailure()) {
+                failed[i] = new GeocodingFailure(invoice, cached.getFailureReason());
+            } else {
+                located[i] = new RoutePoint(invoice, cached.getLatitude(), cached.getLongitude(), invoice.getAddress());
+            }
+            done += settleGroup(invoices, i, nextSame, located, failed);
+        }
+        reportProgress(Stage.GEOCODING, done, n);
 
-            try {
-                List<Address> addresses = geocoder.getFromLocationName(address, 1);
+        if (!pending.isEmpty()) {
+            lookupConcurrently(invoices, pending, nextSame, located, failed, done);
+        }
 
-                if (addresses != null && !addresses.isEmpty()) {
-                    Address location = addresses.get(0);
-                    double lat = location.getLatitude();
-                    double lng = location.getLongitude();
+        List<RoutePoint> points = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            if (located[i] != null) {
+                points.add(located[i]);
+            } else if (failed[i] != null) {
+                failures.add(failed[i]);
+            }
+        }
+        return mergeColocated(points);
+    }
 
-                    RoutePoint point = new RoutePoint(invoice, lat, lng, address);
-                    points.add(point);
+    /**
+     * Look up the pending invoices in parallel, settling each result as it completes
+     */
+    private void lookupConcurrently(List<Invoice> invoices, List<Integer> pending, int[] nextSame,
+                                    RoutePoint[] located, GeocodingFailure[] failed, int done) {
+        int n = invoices.size();
+        AddressLookup.Match[] matches = new AddressLookup.Match[n];
+        IOException[] errors = new IOException[n];
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(geocodeConcurrency, pending.size()));
+        CompletionService<Integer> completion = new ExecutorCompletionService<>(pool);
+        try {
+            for (int index : pending) {
+                String address = invoices.get(index).getAddress();
+                completion.submit(() -> {
+                    geocodeRateLimiter.acquire();
+                    try {
+                        matches[index] = addressLookup.lookup(address);
+                    } catch (IOException e) {
+                        errors[index] = e;
+                    }
+                    return index;
+                });
+            }
 
-                    Log.d(TAG, "Geocoded: " + invoice.getCustomerName() + " -> (" + lat + ", " + lng + ")");
+            for (int k = 0; k < pending.size(); k++) {
+                Future<Integer> result = completion.take();
+                int index;
+                try {
+                    index = result.get();
+                } catch (ExecutionException e) {
+                    // A lookup threw something unexpected; it stays a (non-cached) failure below
+                    Log.e(TAG, "Geocoding lookup failed", e.getCause());
+                    reportProgress(Stage.GEOCODING, ++done, n);
+                    continue;
+                }
+                Invoice invoice = invoices.get(index);
+                if (errors[index] != null) {
+                    Log.e(TAG, "Geocoding failed for: " + invoice.getAddress(), errors[index]);
+                    located[index] = lookupOffline(invoice, failed, index);
                 } else {
-                    Log.w(TAG, "No geocoding results for: " + address);
-                    failures.add(new GeocodingFailure(invoice, "Address not recognized: " + address));
+                    located[index] = acceptMatch(invoice, matches[index], failed, index);
+                }
+                done += settleGroup(invoices, index, nextSame, located, failed);
+                reportProgress(Stage.GEOCODING, done, n);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Route optimization cancelled");
+        } finally {
+            pool.shutdownNow();
+        }
+
+        for (int index : pending) {
+            if (located[index] == null && failed[index] == null) {
+                failed[index] = new GeocodingFailure(invoices.get(index), "Network error geocoding address");
+                settleGroup(invoices, index, nextSame, located, failed);
+            }
+        }
+    }
+
+    /**
+     * Give the other invoices at a looked-up address the same outcome, and publish the stop
+     * @return Number of invoices settled (the whole group)
+     */
+    private int settleGroup(List<Invoice> invoices, int first, int[] nextSame,
+                            RoutePoint[] located, GeocodingFailure[] failed) {
+        int settled = 1;
+        for (int i = nextSame[first]; i >= 0; i = nextSame[i]) {
+            if (located[first] != null) {
+                located[first].addInvoice(invoices.get(i));
+            } else {
+                failed[i] = new GeocodingFailure(invoices.get(i), failed[first].reason);
+            }
+            settled++;
+        }
+        if (located[first] != null) {
+            publishStop(located[first]);
+        }
+        return settled;
+    }
+
+    /**
+     * Merge stops that geocoded to the same spot (e.g. two spellings of one building)
+     * Each stop, in invoice order, takes over the remaining stops within COLOCATED_MILES of
+     * it, found nearest first in a SpatialGrid. Approximate stops share their area's centroid
+     * with every other address there, so they are left out.
+     */
+    private static List<RoutePoint> mergeColocated(List<RoutePoint> points) {
+        int n = points.size();
+        if (n < 2) {
+            return points;
+        }
+        double[] lats = new double[n];
+        double[] lngs = new double[n];
+        for (int i = 0; i < n; i++) {
+            lats[i] = points.get(i).latitude;
+            lngs[i] = points.get(i).longitude;
+        }
+
+        SpatialGrid grid = new SpatialGrid(lats, lngs, n);
+        for (int i = 0; i < n; i++) {
+            if (points.get(i).approximate) {
+                grid.remove(i);
+            }
+        }
+        boolean[] taken = new boolean[n];
+        List<RoutePoint> merged = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            RoutePoint point = points.get(i);
+            if (point.approximate) {
+                merged.add(point);
+                continue;
+            }
+            if (taken[i]) {
+                continue;
+            }
+            grid.remove(i);
+            int j;
+            while ((j = grid.nearest(lats[i], lngs[i])) >= 0
+                    && calculateDistance(lats[i], lngs[i], lats[j], lngs[j]) <= COLOCATED_MILES) {
+                grid.remove(j);
+                taken[j] = true;
+                point.merge(points.get(j));
+            }
+            merged.add(point);
+        }
+        if (merged.size() < n) {
+            Log.d(TAG, "Merged " + (n - merged.size()) + " co-located stops");
+        }
+        return merged;
+    }
+
+    /**
+     * Tell the listener where optimizeRoute is, stopping first if the job was cancelled
+     */
+    private void reportProgress(Stage stage, int done, int total) {
+        checkCancelled();
+        if (progressListener != null) {
+            progressListener.onProgress(stage, done, total);
+        }
+    }
+
+    private void publishStop(RoutePoint point) {
+        if (stopListener != null) {
+            stopListener.onStopLocated(point);
+        }
+    }
+
+    private static void checkCancelled() {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new CancellationException("Route optimization cancelled");
+        }
+    }
+
+    /**
+     * Why an invoice's address can't be geocoded at all, or null if it can be looked up
+     */
+    private static String addressProblem(Invoice invoice) {
+        String address = invoice.getAddress();
+        if (address == null || address.trim().isEmpty()) {
+            Log.w(TAG, "Skipping invoice " + invoice.getInvoiceNumber() + " - no address");
+            return "No address provided";
+        }
+        if (address.equalsIgnoreCase("No address found")) {
+            Log.w(TAG, "Skipping invoice " + invoice.getInvoiceNumber() + " - address not found during OCR");
+            return "Address not detected during scan";
+        }
+        return null;
+    }
+
+    /**
+     * Turn a lookup answer into a stop, remembering it (or the miss) in the geocode cache
+     * @return The stop, or null (with failed[index] set) if the address wasn't recognized
+     */
+    private RoutePoint acceptMatch(Invoice invoice, AddressLookup.Match match,
+                                   GeocodingFailure[] failed, int index) {
+        String address = invoice.getAddress();
+        if (match != null) {
+            Log.d(TAG, "Geocoded: " + invoice.getCustomerName() + " -> (" + match.latitude + ", " + match.longitude + ")");
+            if (geocodeCache != null) {
+                geocodeCache.putLocation(address, match.latitude, match.longitude, match.formattedAddress);
+            }
+            return new RoutePoint(invoice, match.latitude, match.longitude, address);
+        }
+        Log.w(TAG, "No geocoding results for: " + address);
+        String reason = "Address not recognized: " + address;
+        if (geocodeCache != null) {
+            geocodeCache.putFailure(address, reason);
+        }
+        failed[index] = new GeocodingFailure(invoice, reason);
+        return null;
+    }
+
+    /**
+     * Locate an address from the offline geocoder after the network lookup failed
+     * Offline answers (a street range or just the ZIP centroid) aren't cached, so the next
+     * build with a connection looks the address up properly.
+     * @return The stop, or null (with failed[index] set) if the offline index can't place it
+     */
+    private RoutePoint lookupOffline(Invoice invoice, GeocodingFailure[] failed, int index) {
+        String address = invoice.getAddress();
+        if (offlineGeocoder != null) {
+            try {
+                AddressLookup.Match match = offlineGeocoder.lookup(address);
+                if (match != null) {
+                    Log.d(TAG, "Geocoded offline: " + address + " -> " + match.formattedAddress);
+                    RoutePoint point = new RoutePoint(invoice, match.latitude, match.longitude, address);
+                    point.approximate = match.approximate;
+                    return point;
                 }
             } catch (IOException e) {
-                Log.e(TAG, "Geocoding failed for: " + address, e);
-                failures.add(new GeocodingFailure(invoice, "Network error geocoding address"));
+                Log.w(TAG, "Offline geocoder unavailable", e);
+            }
+        }
+        failed[index] = new GeocodingFailure(invoice, "Network error geocoding address");
+        return null;
+    }
+
+    /**
+     * Geocode one invoice address (e.g. a stop added to a live route)
+     * @param failures List to add the failure to, if the address can't be geocoded
+     * @return The stop, or null if geocoding failed
+     */
+    public RoutePoint geocodeStop(Invoice invoice, List<GeocodingFailure> failures) {
+        String problem = addressProblem(invoice);
+        if (problem != null) {
+            failures.add(new GeocodingFailure(invoice, problem));
+            return null;
+        }
+
+        String address = invoice.getAddress();
+        if (invoice.hasLocation()) {
+            return new RoutePoint(invoice, invoice.getLatitude(), invoice.getLongitude(), address);
+        }
+        GeocodeCacheEntry cached = geocodeCache != null ? geocodeCache.lookup(address) : null;
+        if (cached != null) {
+            if (cached.isFailure()) {
+                failures.add(new GeocodingFailure(invoice, cached.getFailureReason()));
+                return null;
             }
+            return new RoutePoint(invoice, cached.getLatitude(), cached.getLongitude(), address);
         }
 
-        return points;
+        GeocodingFailure[] failed = new GeocodingFailure[1];
+        try {
+            geocodeRateLimiter.acquire();
+            RoutePoint point = acceptMatch(invoice, addressLookup.lookup(address), failed, 0);
+            if (point != null) {
+                return point;
+            }
+            failures.add(failed[0]);
+        } catch (IOException e) {
+            Log.e(TAG, "Geocoding failed for: " + address, e);
+            RoutePoint point = lookupOffline(invoice, failed, 0);
+            if (point != null) {
+                return point;
+            }
+            failures.add(failed[0]);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failures.add(new GeocodingFailure(invoice, "Geocoding cancelled"));
+        }
+        return null;
     }
     
     /**
      * Nearest Neighbor algorithm for TSP
      * Greedy approach: always visit the closest unvisited point
+     * (looked up in a spatial grid, so each step only inspects nearby cells)
      */
     private List<RoutePoint> nearestNeighborTSP(List<RoutePoint> points, double startLat, double startLng) {
-        List<RoutePoint> unvisited = new ArrayList<>(points);
-        List<RoutePoint> route = new ArrayList<>();
+        int n = points.size();
+        double[] lats = new double[n];
+        double[] lngs = new double[n];
+        for (int i = 0; i < n; i++) {
+            lats[i] = points.get(i).latitude;
+            lngs[i] = points.get(i).longitude;
+        }
+
+        SpatialGrid grid = new SpatialGrid(lats, lngs, n);
+        List<RoutePoint> route = new ArrayList<>(n);
         
         double currentLat = startLat;
         double currentLng = startLng;
         int order = 1;
         
-        while (!unvisited.isEmpty()) {
-            // Find nearest unvisited point
-            RoutePoint nearest = null;
-            double minDistance = Double.MAX_VALUE;
+        int next;
+        while ((next = grid.nearest(currentLat, currentLng)) >= 0) {
+            grid.remove(next);
+            RoutePoint nearest = points.get(next);
+            nearest.orderIndex = order++;
+            route.add(nearest);
             
-            for (RoutePoint point : unvisited) {
-                double dist = calculateDistance(currentLat, currentLng, point.latitude, point.longitude);
-                if (dist < minDistance) {
-                    minDistance = dist;
-                    nearest = point;
-                }
-            }
-            
-            if (nearest != null) {
-                nearest.orderIndex = order++;
-                route.add(nearest);
-                unvisited.remove(nearest);
-                
-                currentLat = nearest.latitude;
-                currentLng = nearest.longitude;
-            }
+            currentLat = nearest.latitude;
+            currentLng = nearest.longitude;
         }
         
         return route;
     }
     
     /**
-     * Calculate total route distance including return to start
+     * Space-filling curve construction: visit points in Hilbert curve order
+     * One O(n log n) sort, starting at the point closest to the start location
      */
-    private double calculateTotalDistance(List<RoutePoint> route, double startLat, double startLng) {
-        if (route.isEmpty()) {
-            return 0;
+    private List<RoutePoint> spaceFillingCurveTSP(List<RoutePoint> points, double startLat, double startLng) {
+        int n = points.size();
+        double[] lats = new double[n];
+        double[] lngs = new double[n];
+        for (int i = 0; i < n; i++) {
+            lats[i] = points.get(i).latitude;
+            lngs[i] = points.get(i).longitude;
         }
-        
-        double total = 0;
-        
-        // Distance from start to first point
-        total += calculateDistance(startLat, startLng, route.get(0).latitude, route.get(0).longitude);
-        
-        // Distance between consecutive points
-        for (int i = 0; i < route.size() - 1; i++) {
-            RoutePoint from = route.get(i);
-            RoutePoint to = route.get(i + 1);
-            total += calculateDistance(from.latitude, from.longitude, to.latitude, to.longitude);
+
+        List<RoutePoint> route = new ArrayList<>(n);
+        int order = 1;
+        for (int index : HilbertCurve.route(startLat, startLng, lats, lngs, n)) {
+            RoutePoint point = points.get(index);
+            point.orderIndex = order++;
+            route.add(point);
         }
-        
-        // Optional: Distance from last point back to start
-        // Uncomment if you want round-trip distance
-        // RoutePoint last = route.get(route.size() - 1);
-        // total += calculateDistance(last.latitude, last.longitude, startLat, startLng);
-        
-        return total;
+        return route;
     }
-    
+
+    /**
+     * Run 2-opt / Or-opt over a constructed route
+     * @param points Points in matrix order (matrixIndex - 1 is the position in this list)
+     * @param route Constructed visiting order
+     * @return Improved visiting order with orderIndex renumbered
+     */
+    private List<RoutePoint> improveRoute(List<RoutePoint> points, List<RoutePoint> route,
+                                          DistanceMatrix matrix, int[] ranks, long budgetMillis) {
+        int[] tour = new int[route.size()];
+        for (int i = 0; i < tour.length; i++) {
+            tour[i] = route.get(i).matrixIndex;
+        }
+
+        LocalSearch search = new LocalSearch(matrix).setTimeBudgetMillis(budgetMillis).setRanks(ranks);
+        search.improve(tour, tour.length);
+        Log.d(TAG, "Local search applied " + search.getMovesApplied() + " moves");
+
+        return toRoutePoints(points, tour);
+    }
+
+    /**
+     * Provably shortest order for a small route (Held-Karp on the shared tables)
+     * @param points Points in matrix order (matrixIndex - 1 is the position in this list)
+     */
+    private List<RoutePoint> solveExact(List<RoutePoint> points, DistanceMatrix matrix, int[] ranks) {
+        int[] tour = new int[points.size()];
+        for (int i = 0; i < tour.length; i++) {
+            tour[i] = i + 1;
+        }
+        double length;
+        synchronized (EXACT_SOLVER) {
+            length = EXACT_SOLVER.solve(matrix, tour, tour.length, ranks);
+        }
+        Log.d(TAG, "Exact solver: " + tour.length + " stops, " + length + " mi");
+
+        return toRoutePoints(points, tour);
+    }
+
+    /**
+     * Map a tour of matrix indices back to route points and renumber them
+     * @param points Points in matrix order (matrixIndex - 1 is the position in this list)
+     */
+    private static List<RoutePoint> toRoutePoints(List<RoutePoint> points, int[] tour) {
+        List<RoutePoint> ordered = new ArrayList<>(tour.length);
+        for (int i = 0; i < tour.length; i++) {
+            RoutePoint point = points.get(tour[i] - 1);
+            point.orderIndex = i + 1;
+            ordered.add(point);
+        }
+        return ordered;
+    }
+
     /**
      * Calculate distance between two lat/lng points using Haversine formula
      * @return distance in miles
@@ -301,6 +1030,41 @@ public class RouteOptimizer {
         return EARTH_RADIUS * c;
     }
     
+    /**
+     * Distance of one leg, read from the route's matrix when both ends are in it
+     * Falls back to haversine for points added outside the matrix (e.g. completed placeholders)
+     */
+    static double legDistance(DistanceMatrix matrix, RoutePoint from, RoutePoint to) {
+        if (matrix != null && from.matrixIndex >= 0 && to.matrixIndex >= 0) {
+            return matrix.get(from.matrixIndex, to.matrixIndex);
+        }
+        return calculateDistance(from.latitude, from.longitude, to.latitude, to.longitude);
+    }
+
+    /**
+     * Distance from a start coordinate to a point, using the matrix origin row when it matches
+     */
+    static double distanceFromStart(DistanceMatrix matrix, double startLat, double startLng, RoutePoint to) {
+        if (matrix != null && to.matrixIndex >= 0 && matrix.isOrigin(startLat, startLng)) {
+            return matrix.get(0, to.matrixIndex);
+        }
+        return calculateDistance(startLat, startLng, to.latitude, to.longitude);
+    }
+
+    /**
+     * Total distance of the route's current order from a start coordinate (after drag/reorder)
+     */
+    public static double calculateRouteDistance(OptimizedRoute route, double startLat, double startLng) {
+        if (route.orderedPoints.isEmpty()) return 0;
+
+        double total = distanceFromStart(route.distanceMatrix, startLat, startLng, route.orderedPoints.get(0));
+        for (int i = 1; i < route.orderedPoints.size(); i++) {
+            total += legDistance(route.distanceMatrix,
+                route.orderedPoints.get(i - 1), route.orderedPoints.get(i));
+        }
+        return total;
+    }
+
     /**
      * Format distance for display
      */
@@ -338,6 +1102,35 @@ public class RouteOptimizer {
         return Math.max(1, (int) (hours * 60)); // At least 1 minute
     }
 
+    /**
+     * Driving minutes of the leg into a stop (its distanceFromPrevious must already be set)
+     * Uses the road graph's driving time when the route's matrix has one for the leg, then
+     * the learned speed for the stop's zone at the hour the leg starts (the previous stop's
+     * ETA must be current), and the flat average speed otherwise.
+     * @param from The previous stop, or null when the leg starts at the route start
+     */
+    static int legMinutes(OptimizedRoute route, RoutePoint from, RoutePoint to) {
+        DistanceMatrix matrix = route.distanceMatrix;
+        if (matrix != null && matrix.hasTravelTimes() && to.matrixIndex >= 0) {
+            int fromIndex = from != null ? from.matrixIndex
+                : matrix.isOrigin(route.startLatitude, route.startLongitude) ? 0 : -1;
+            double minutes = fromIndex >= 0 ? matrix.getMinutes(fromIndex, to.matrixIndex) : Double.NaN;
+            if (!Double.isNaN(minutes)) {
+                return Math.max(1, (int) Math.round(minutes));
+            }
+        }
+        if (route.speedProfile != null) {
+            long departure = from != null
+                ? from.etaMillis + from.stopTimeMinutes * 60000L
+                : route.startTimeMillis;
+            Calendar calendar = Calendar.getInstance();
+            calendar.setTimeInMillis(departure);
+            return route.speedProfile.travelMinutes(to.distanceFromPrevious, to.latitude, to.longitude,
+                calendar.get(Calendar.HOUR_OF_DAY));
+        }
+        return estimateTravelTimeMinutes(to.distanceFromPrevious);
+    }
+
     /**
      * Calculate ETAs for all stops based on start time
      * @param route The optimized route
@@ -349,25 +1142,32 @@ public class RouteOptimizer {
         if (route.orderedPoints.isEmpty()) return;
 
         route.startTimeMillis = startTimeMillis;
+        route.startLatitude = startLat;
+        route.startLongitude = startLng;
+        route.arrivalOffsets = new int[route.orderedPoints.size()];
         long currentTime = startTimeMillis;
-        double prevLat = startLat;
-        double prevLng = startLng;
+        int offsetMinutes = 0;
+        RoutePoint prev = null;
 
-        for (RoutePoint point : route.orderedPoints) {
-            // Calculate distance and travel time from previous point
-            point.distanceFromPrevious = calculateDistance(prevLat, prevLng, point.latitude, point.longitude);
-            point.travelTimeMinutes = estimateTravelTimeMinutes(point.distanceFromPrevious);
+        for (int i = 0; i < route.orderedPoints.size(); i++) {
+            RoutePoint point = route.orderedPoints.get(i);
+            // Look up distance and travel time from previous point
+            point.distanceFromPrevious = prev == null
+                ? distanceFromStart(route.distanceMatrix, startLat, startLng, point)
+                : legDistance(route.distanceMatrix, prev, point);
+            point.travelTimeMinutes = legMinutes(route, prev, point);
 
             // Add travel time to get ETA
             currentTime += point.travelTimeMinutes * 60 * 1000L;
             point.etaMillis = currentTime;
+            offsetMinutes += point.travelTimeMinutes;
+            route.arrivalOffsets[i] = offsetMinutes;
 
             // Add stop time for the departure to next stop
             currentTime += point.stopTimeMinutes * 60 * 1000L;
+            offsetMinutes += point.stopTimeMinutes;
 
-            // Update previous location
-            prevLat = point.latitude;
-            prevLng = point.longitude;
+            prev = point;
         }
 
         // Set end time (after last stop)
@@ -389,35 +1189,507 @@ public class RouteOptimizer {
     }
 
     /**
-     * Move a stop to the first position
-     * @param stops List of route points
-     * @param point The point to move to first
+     * Reorder a route to a tour found by a background solver and refresh ETAs and distance
+     * @param tour Matrix indices in visiting order
+     * @return false if the route no longer has exactly these stops (e.g. edited meanwhile)
+     */
+    public static boolean applyTour(OptimizedRoute route, int[] tour) {
+        DistanceMatrix matrix = route.distanceMatrix;
+        if (matrix == null || tour.length != route.orderedPoints.size()) return false;
+
+        RoutePoint[] byIndex = new RoutePoint[matrix.size()];
+        for (RoutePoint point : route.orderedPoints) {
+            if (point.matrixIndex < 0) return false;
+            byIndex[point.matrixIndex] = point;
+        }
+
+        List<RoutePoint> reordered = new ArrayList<>(tour.length);
+        for (int i = 0; i < tour.length; i++) {
+            RoutePoint point = byIndex[tour[i]];
+            if (point == null) return false;
+            point.orderIndex = i + 1;
+            reordered.add(point);
+        }
+
+        route.orderedPoints = reordered;
+        calculateETAs(route, route.startLatitude, route.startLongitude, route.startTimeMillis);
+        route.totalDistance = calculateRouteDistance(route, route.startLatitude, route.startLongitude);
+        updateGap(route);
+        return true;
+    }
+
+    /**
+     * Re-plan the remaining stops from a new start position (driver's live location)
+     * The current order is the warm start: the matrix origin row is recomputed in O(n) and a
+     * short local search re-examines only the first few stops and those near the new
+     * position, so the driver's order stays mostly the same and ETAs restart from now.
+     * Moves the matrix origin: stop any AnytimeRouteSolver on the matrix first (stopAndWait).
+     * @return true if the order of the stops changed
+     */
+    public static boolean replanFrom(OptimizedRoute route, double lat, double lng, long budgetMillis) {
+        return replanFrom(route, lat, lng, budgetMillis, null);
+    }
+
+    /**
+     * Re-plan from a position whose road routes were found off the UI thread (DistanceMatrix.routeTo)
+     */
+    public static boolean replanFrom(OptimizedRoute route, double lat, double lng, long budgetMillis,
+                                     DistanceMatrix.RoadRoute roadRoute) {
+        List<RoutePoint> points = route.orderedPoints;
+        DistanceMatrix matrix = route.distanceMatrix;
+        route.startLatitude = lat;
+        route.startLongitude = lng;
+        route.startTimeMillis = System.currentTimeMillis();
+        markEdited(route);  // The bound was for the old origin
+
+        boolean inMatrix = matrix != null;
+        for (int i = 0; inMatrix && i < points.size(); i++) {
+            inMatrix = points.get(i).matrixIndex >= 0;
+        }
+        if (!inMatrix) {
+            recalculateETAs(route, lat, lng);
+            route.totalDistance = calculateRouteDistance(route, lat, lng);
+            return false;
+        }
+
+        matrix.setOrigin(lat, lng, roadRoute);
+        int[] tour = toTour(route);
+        LocalSearch search = new LocalSearch(matrix)
+            .setTimeBudgetMillis(budgetMillis)
+            .setRanks(priorityRanks(points, matrix))
+            .setWarmStart(REPLAN_DIRTY_STOPS);
+        search.improve(tour, tour.length);
+        applyTour(route, tour);
+        return search.getMovesApplied() > 0;
+    }
+
+    /**
+     * Recompute gapPercent from the current distance and the route's lower bound
      */
-    public static void makeFirst(List<RoutePoint> stops, RoutePoint point) {
-        if (stops.remove(point)) {
-            stops.add(0, point);
-            point.priority = PRIORITY_FIRST;
-            // Re-number all stops
-            for (int i = 0; i < stops.size(); i++) {
-                stops.get(i).orderIndex = i + 1;
+    public static void updateGap(OptimizedRoute route) {
+        route.gapPercent = route.lowerBound > 0
+            ? Math.max(0, (route.totalDistance - route.lowerBound) / route.lowerBound * 100)
+            : -1;
+    }
+
+    /**
+     * The order or the set of stops was changed by hand: it is no longer known to be
+     * optimal, and the lower bound no longer applies
+     */
+    public static void markEdited(OptimizedRoute route) {
+        route.optimal = false;
+        route.lowerBound = 0;
+        route.gapPercent = -1;
+    }
+
+    /**
+     * Matrix indices of the route's current order (for handing to a solver)
+     */
+    public static int[] toTour(OptimizedRoute route) {
+        int[] tour = new int[route.orderedPoints.size()];
+        for (int i = 0; i < tour.length; i++) {
+            tour[i] = route.orderedPoints.get(i).matrixIndex;
+        }
+        return tour;
+    }
+
+    /**
+     * Change one stop's duration and shift only the ETAs after it
+     * No leg distances are recomputed - later arrivals just move by the difference (or are
+     * timed again, with a speed profile).
+     * @return The stops whose display changed (the edited stop and everything after it)
+     */
+    public static EtaChange updateStopTime(OptimizedRoute route, int index, int stopTimeMinutes) {
+        RoutePoint point = route.orderedPoints.get(index);
+        int delta = stopTimeMinutes - point.stopTimeMinutes;
+        point.stopTimeMinutes = stopTimeMinutes;
+
+        if (route.arrivalOffsets.length != route.orderedPoints.size()) {
+            // ETAs were never calculated for this order
+            recalculateETAs(route, route.startLatitude, route.startLongitude);
+        } else {
+            shiftETAs(route, index + 1, delta);
+        }
+        return new EtaChange(index, route.orderedPoints.size() - index);
+    }
+
+    /**
+     * Stop in the route within COLOCATED_MILES of a point (e.g. a new invoice for a customer
+     * already on the route), so the point can be merged into it instead of inserted
+     * Approximate positions match nothing (see mergeColocated). Stops in the route's matrix
+     * are checked with one radius query over its coordinates, which rules out all but the
+     * nearby ones without trig.
+     * @return Position in orderedPoints, or -1 if none is that close
+     */
+    public static int findColocated(OptimizedRoute route, RoutePoint point) {
+        if (point.approximate) {
+            return -1;
+        }
+        DistanceMatrix matrix = route.distanceMatrix;
+        double[] within = null;
+        if (matrix != null) {
+            within = new double[matrix.size()];
+            matrix.getCoordinates().distancesWithin(point.latitude, point.longitude, COLOCATED_MILES, within);
+        }
+        for (int i = 0; i < route.orderedPoints.size(); i++) {
+            RoutePoint stop = route.orderedPoints.get(i);
+            if (stop.approximate) {
+                continue;
+            }
+            if (within != null && stop.matrixIndex >= 0 && stop.matrixIndex < within.length) {
+                if (within[stop.matrixIndex] <= COLOCATED_MILES) {
+                    return i;
+                }
+            } else if (calculateDistance(stop.latitude, stop.longitude, point.latitude, point.longitude) <= COLOCATED_MILES) {
+                return i;
             }
         }
+        return -1;
+    }
+
+    /**
+     * Deliver a new stop's invoices at a stop already on the route (see findColocated)
+     * Only the ETAs after that stop move, by the added stop time.
+     */
+    public static EtaChange mergeStop(OptimizedRoute route, int index, RoutePoint point) {
+        RoutePoint stop = route.orderedPoints.get(index);
+        int stopTimeMinutes = stop.stopTimeMinutes + point.stopTimeMinutes;
+        stop.invoices.addAll(point.invoices);
+        return updateStopTime(route, index, stopTimeMinutes);
+    }
+
+    /**
+     * Remove a stop (e.g. marked completed) and bridge the gap with one new leg
+     * Only the stops after the removed one get new ETAs and order numbers.
+     * @return The stops whose display changed (positions after removal)
+     */
+    public static EtaChange removeStop(OptimizedRoute route, int index) {
+        List<RoutePoint> points = route.orderedPoints;
+        markEdited(route);
+        if (route.arrivalOffsets.length != points.size()) {
+            points.remove(index);
+            recalculateETAs(route, route.startLatitude, route.startLongitude);
+            return new EtaChange(index, points.size() - index);
+        }
+
+        RoutePoint removed = points.get(index);
+        int delta = -(removed.travelTimeMinutes + removed.stopTimeMinutes);
+        double distanceDelta = -removed.distanceFromPrevious;
+
+        if (index + 1 < points.size()) {
+            RoutePoint next = points.get(index + 1);
+            delta -= next.travelTimeMinutes;
+            distanceDelta -= next.distanceFromPrevious;
+
+            next.distanceFromPrevious = index == 0
+                ? distanceFromStart(route.distanceMatrix, route.startLatitude, route.startLongitude, next)
+                : legDistance(route.distanceMatrix, points.get(index - 1), next);
+            next.travelTimeMinutes = legMinutes(route, index == 0 ? null : points.get(index - 1), next);
+
+            delta += next.travelTimeMinutes;
+            distanceDelta += next.distanceFromPrevious;
+        }
+
+        points.remove(index);
+        int[] offsets = new int[points.size()];
+        System.arraycopy(route.arrivalOffsets, 0, offsets, 0, index);
+        System.arraycopy(route.arrivalOffsets, index + 1, offsets, index, points.size() - index);
+        route.arrivalOffsets = offsets;
+
+        shiftETAs(route, index, delta);
+        for (int i = index; i < points.size(); i++) {
+            points.get(i).orderIndex = i + 1;
+        }
+        route.totalDistance += distanceDelta;
+        route.totalStops = points.size();
+
+        return new EtaChange(index, points.size() - index);
+    }
+
+    /**
+     * Append a stop (e.g. un-completed) to the end of the route with a single new leg
+     * @return The appended stop's position
+     */
+    public static EtaChange appendStop(OptimizedRoute route, RoutePoint point) {
+        List<RoutePoint> points = route.orderedPoints;
+        markEdited(route);
+        int index = points.size();
+        int departureOffset = 0;
+        if (index > 0) {
+            RoutePoint last = points.get(index - 1);
+            point.distanceFromPrevious = legDistance(route.distanceMatrix, last, point);
+            departureOffset = route.arrivalOffsets.length == index
+                ? route.arrivalOffsets[index - 1] + last.stopTimeMinutes
+                : (int) ((route.endTimeMillis - route.startTimeMillis) / 60000);
+        } else {
+            point.distanceFromPrevious = distanceFromStart(
+                route.distanceMatrix, route.startLatitude, route.startLongitude, point);
+        }
+        point.travelTimeMinutes = legMinutes(route, index > 0 ? points.get(index - 1) : null, point);
+        point.orderIndex = index + 1;
+        points.add(point);
+
+        int[] offsets = new int[points.size()];
+        System.arraycopy(route.arrivalOffsets, 0, offsets, 0, Math.min(index, route.arrivalOffsets.length));
+        offsets[index] = departureOffset + point.travelTimeMinutes;
+        route.arrivalOffsets = offsets;
+
+        point.etaMillis = route.startTimeMillis + offsets[index] * 60000L;
+        route.endTimeMillis = point.etaMillis + point.stopTimeMinutes * 60000L;
+        route.totalDistance += point.distanceFromPrevious;
+        route.totalStops = points.size();
+
+        return new EtaChange(index, 1);
     }
 
     /**
-     * Move a stop to the last position
-     * @param stops List of route points
-     * @param point The point to move to last
+     * Insert a stop (e.g. phoned in by dispatch) where it adds the least distance
+     * One O(n) scan over the gaps of the current order, respecting FIRST / LAST pins; the
+     * new stop gets a row in the route's matrix. Only the stops from the insertion point on
+     * get new ETAs and order numbers.
+     * @return The stops whose display changed (the new stop and everything after it)
      */
-    public static void makeLast(List<RoutePoint> stops, RoutePoint point) {
-        if (stops.remove(point)) {
-            stops.add(point);
-            point.priority = PRIORITY_LAST;
-            // Re-number all stops
-            for (int i = 0; i < stops.size(); i++) {
-                stops.get(i).orderIndex = i + 1;
+    public static EtaChange insertStop(OptimizedRoute route, RoutePoint point) {
+        return insertStop(route, point, null);
+    }
+
+    /**
+     * Insert a stop whose road routes were found off the UI thread (DistanceMatrix.routeTo)
+     */
+    public static EtaChange insertStop(OptimizedRoute route, RoutePoint point, DistanceMatrix.RoadRoute roadRoute) {
+        List<RoutePoint> points = route.orderedPoints;
+        DistanceMatrix matrix = route.distanceMatrix;
+        if (matrix != null && point.matrixIndex < 0 && matrix.size() <= DistanceMatrix.MAX_STOPS) {
+            point.matrixIndex = matrix.addPoint(point.latitude, point.longitude, roadRoute);
+        }
+
+        // Cheapest feasible gap: before points[index] (index == n appends)
+        int n = points.size();
+        int rank = priorityRank(point);
+        int index = -1;
+        double bestDetour = Double.MAX_VALUE;
+        double toPoint = 0;
+        for (int i = 0; i <= n; i++) {
+            RoutePoint prev = i > 0 ? points.get(i - 1) : null;
+            RoutePoint next = i < n ? points.get(i) : null;
+            if (next != null && priorityRank(next) < rank) continue;
+            if (prev != null && priorityRank(prev) > rank) break;
+
+            double in = prev == null
+                ? distanceFromStart(matrix, route.startLatitude, route.startLongitude, point)
+                : legDistance(matrix, prev, point);
+            double detour = in;
+            if (next != null) {
+                detour += legDistance(matrix, point, next) - next.distanceFromPrevious;
+            }
+            if (detour < bestDetour) {
+                bestDetour = detour;
+                index = i;
+                toPoint = in;
+            }
+        }
+        if (index < 0) {
+            // Pins out of order (hand-dragged), no gap satisfies them
+            return appendStop(route, point);
+        }
+
+        markEdited(route);
+        if (route.arrivalOffsets.length != n) {
+            // ETAs were never calculated for this order
+            points.add(index, point);
+            for (int i = index; i < points.size(); i++) {
+                points.get(i).orderIndex = i + 1;
+            }
+            recalculateETAs(route, route.startLatitude, route.startLongitude);
+            route.totalDistance = calculateRouteDistance(route, route.startLatitude, route.startLongitude);
+            route.totalStops = points.size();
+            return new EtaChange(index, points.size() - index);
+        }
+
+        point.distanceFromPrevious = toPoint;
+        point.travelTimeMinutes = legMinutes(route, index > 0 ? points.get(index - 1) : null, point);
+        int delta = point.travelTimeMinutes + point.stopTimeMinutes;
+        if (index < n) {
+            RoutePoint next = points.get(index);
+            delta -= next.travelTimeMinutes;
+            next.distanceFromPrevious = legDistance(matrix, point, next);
+            next.travelTimeMinutes = legMinutes(route, point, next);
+            delta += next.travelTimeMinutes;
+        }
+
+        int departureOffset = index > 0
+            ? route.arrivalOffsets[index - 1] + points.get(index - 1).stopTimeMinutes
+            : 0;
+        points.add(index, point);
+        int[] offsets = new int[points.size()];
+        System.arraycopy(route.arrivalOffsets, 0, offsets, 0, index);
+        System.arraycopy(route.arrivalOffsets, index, offsets, index + 1, n - index);
+        offsets[index] = departureOffset + point.travelTimeMinutes;
+        route.arrivalOffsets = offsets;
+        point.etaMillis = route.startTimeMillis + offsets[index] * 60000L;
+
+        shiftETAs(route, index + 1, delta);
+        if (index == n) {
+            route.endTimeMillis = point.etaMillis + point.stopTimeMinutes * 60000L;
+        }
+        for (int i = index; i < points.size(); i++) {
+            points.get(i).orderIndex = i + 1;
+        }
+        route.totalDistance += bestDetour;
+        route.totalStops = points.size();
+
+        return new EtaChange(index, points.size() - index);
+    }
+
+    /**
+     * Shift arrival offsets and ETAs of stops from index onward by delta minutes
+     * With a speed profile, leg times depend on the hour they start, so the later legs are
+     * timed again (legMinutes) instead of all moving by the same delta.
+     */
+    private static void shiftETAs(OptimizedRoute route, int fromIndex, int deltaMinutes) {
+        if (route.speedProfile != null) {
+            retimeFrom(route, fromIndex);
+            return;
+        }
+        for (int i = fromIndex; i < route.orderedPoints.size(); i++) {
+            route.arrivalOffsets[i] += deltaMinutes;
+            route.orderedPoints.get(i).etaMillis = route.startTimeMillis + route.arrivalOffsets[i] * 60000L;
+        }
+        route.endTimeMillis += deltaMinutes * 60000L;
+    }
+
+    /**
+     * Recompute travel times, arrival offsets and ETAs from index onward (distances are kept)
+     */
+    private static void retimeFrom(OptimizedRoute route, int fromIndex) {
+        List<RoutePoint> points = route.orderedPoints;
+        int offset = 0;
+        RoutePoint prev = null;
+        if (fromIndex > 0) {
+            prev = points.get(fromIndex - 1);
+            offset = route.arrivalOffsets[fromIndex - 1] + prev.stopTimeMinutes;
+        }
+        for (int i = fromIndex; i < points.size(); i++) {
+            RoutePoint point = points.get(i);
+            point.travelTimeMinutes = legMinutes(route, prev, point);
+            offset += point.travelTimeMinutes;
+            route.arrivalOffsets[i] = offset;
+            point.etaMillis = route.startTimeMillis + offset * 60000L;
+            offset += point.stopTimeMinutes;
+            prev = point;
+        }
+        route.endTimeMillis = route.startTimeMillis + offset * 60000L;
+    }
+
+    /**
+     * Pin a stop to the start of the route and re-plan the rest around it
+     * Any other FIRST stop goes back to normal.
+     */
+    public static void makeFirst(OptimizedRoute route, RoutePoint point) {
+        pin(route, point, PRIORITY_FIRST);
+    }
+
+    /**
+     * Pin a stop to the end of the route and re-plan the rest around it
+     * Any other LAST stop goes back to normal.
+     */
+    public static void makeLast(OptimizedRoute route, RoutePoint point) {
+        pin(route, point, PRIORITY_LAST);
+    }
+
+    private static void pin(OptimizedRoute route, RoutePoint point, int priority) {
+        for (RoutePoint other : route.orderedPoints) {
+            if (other != point && other.priority == priority) {
+                other.priority = PRIORITY_NORMAL;
+            }
+        }
+        point.priority = priority;
+        repairPriorities(route, PRIORITY_REPAIR_BUDGET_MS);
+    }
+
+    /**
+     * Re-plan the route after priorities changed, starting from the current order
+     *
+     * Stops are first moved into priority order (FIRST, normal, LAST) keeping their relative
+     * order, which is already a good route apart from the pinned stops. Local search with
+     * the priorities as precedence constraints then fixes the legs around them (or the exact
+     * solver on small routes), instead of rebuilding the whole route. ETAs and the distance
+     * are recomputed from the route's start either way.
+     */
+    public static void repairPriorities(OptimizedRoute route, long budgetMillis) {
+        route.orderedPoints = sortByPriority(route.orderedPoints);
+        route.optimal = false;
+        DistanceMatrix matrix = route.distanceMatrix;
+
+        int[] tour = toTour(route);
+        boolean inMatrix = matrix != null;
+        for (int index : tour) {
+            if (index < 0) inMatrix = false;
+        }
+
+        if (inMatrix) {
+            int[] ranks = priorityRanks(route.orderedPoints, matrix);
+            if (tour.length <= HeldKarpSolver.MAX_STOPS && tour.length > 0) {
+                synchronized (EXACT_SOLVER) {
+                    EXACT_SOLVER.solve(matrix, tour, tour.length, ranks);
+                }
+                route.optimal = true;
+            } else {
+                new LocalSearch(matrix).setRanks(ranks).setTimeBudgetMillis(budgetMillis)
+                    .improve(tour, tour.length);
+            }
+            applyTour(route, tour);
+        } else {
+            // Priority order only: renumber and re-time it from the same start
+            for (int i = 0; i < route.orderedPoints.size(); i++) {
+                route.orderedPoints.get(i).orderIndex = i + 1;
+            }
+            calculateETAs(route, route.startLatitude, route.startLongitude, route.startTimeMillis);
+            route.totalDistance = calculateRouteDistance(route, route.startLatitude, route.startLongitude);
+        }
+    }
+
+    /**
+     * Precedence rank of a stop: FIRST before normal before LAST
+     */
+    static int priorityRank(RoutePoint point) {
+        switch (point.priority) {
+            case PRIORITY_FIRST: return 0;
+            case PRIORITY_LAST: return 2;
+            default: return 1;
+        }
+    }
+
+    /**
+     * Ranks by matrix index for the solvers, or null when no stop is pinned
+     */
+    static int[] priorityRanks(List<RoutePoint> points, DistanceMatrix matrix) {
+        int[] ranks = null;
+        for (RoutePoint point : points) {
+            if (point.priority == PRIORITY_NORMAL || point.matrixIndex < 0) continue;
+            if (ranks == null) {
+                ranks = new int[matrix.size()];
+                Arrays.fill(ranks, 1);
+            }
+            ranks[point.matrixIndex] = priorityRank(point);
+        }
+        return ranks;
+    }
+
+    /**
+     * Stable O(n) partition into FIRST, normal, LAST (stops are renumbered)
+     */
+    static List<RoutePoint> sortByPriority(List<RoutePoint> points) {
+        List<RoutePoint> sorted = new ArrayList<>(points.size());
+        for (int rank = 0; rank <= 2; rank++) {
+            for (RoutePoint point : points) {
+                if (priorityRank(point) == rank) {
+                    sorted.add(point);
+                    point.orderIndex = sorted.size();
+                }
             }
         }
+        return sorted;
     }
 
     /**
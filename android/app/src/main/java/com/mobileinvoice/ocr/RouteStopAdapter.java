@@ -93,6 +93,14 @@ public class RouteStopAdapter extends RecyclerView.Adapter<RecyclerView.ViewHold
      * Rebuild the heterogeneous items list with sections
      */
     private void rebuildItemsList() {
+        buildItems();
+        notifyDataSetChanged();
+    }
+
+    /**
+     * Lay out active stops, the completed header and (if expanded) completed stops
+     */
+    private void buildItems() {
         items.clear();
 
         for (RouteOptimizer.RoutePoint stop : activeStops) {
@@ -108,8 +116,117 @@ public class RouteStopAdapter extends RecyclerView.Adapter<RecyclerView.ViewHold
                 }
             }
         }
+    }
 
-        notifyDataSetChanged();
+    /**
+     * Rebind only the active rows whose ETA or stop time changed
+     * (active stops occupy the first rows, so route index == adapter position)
+     */
+    public void notifyEtaRangeChanged(RouteOptimizer.EtaChange change) {
+        if (change.count > 0) {
+            notifyItemRangeChanged(change.fromIndex, change.count);
+        }
+    }
+
+    /**
+     * Move a stop into the completed section, notifying only the rows that changed
+     */
+    public void moveToCompleted(RouteOptimizer.RoutePoint stop) {
+        int position = activeStops.indexOf(stop);
+        if (position < 0) return;
+
+        boolean hadHeader = !completedStops.isEmpty();
+        activeStops.remove(position);
+        completedStops.add(0, stop);
+        shiftExpandedPositions(position);
+        updateStopNumbers();
+        buildItems();
+
+        int headerPosition = activeStops.size();
+        notifyItemRemoved(position);
+        if (hadHeader) {
+            notifyItemChanged(headerPosition);
+        } else {
+            notifyItemInserted(headerPosition);
+        }
+        if (completedExpanded) {
+            notifyItemInserted(headerPosition + 1);
+        }
+        // Later stops were renumbered and got new ETAs
+        notifyItemRangeChanged(position, activeStops.size() - position);
+    }
+
+    /**
+     * Move a completed stop back to the end of the active section
+     */
+    public void moveToActive(RouteOptimizer.RoutePoint stop) {
+        moveToActive(stop, activeStops.size());
+    }
+
+    /**
+     * Move a completed stop back into the active section at its route position
+     */
+    public void moveToActive(RouteOptimizer.RoutePoint stop, int position) {
+        int completedIndex = completedStops.indexOf(stop);
+        if (completedIndex < 0) return;
+
+        int oldHeaderPosition = activeStops.size();
+        completedStops.remove(completedIndex);
+        activeStops.add(position, stop);
+        shiftExpandedPositionsForInsert(position);
+        updateStopNumbers();
+        buildItems();
+
+        if (completedExpanded) {
+            notifyItemRemoved(oldHeaderPosition + 1 + completedIndex);
+        }
+        notifyItemInserted(position);
+        if (completedStops.isEmpty()) {
+            notifyItemRemoved(oldHeaderPosition + 1);
+        } else {
+            notifyItemChanged(oldHeaderPosition + 1);
+        }
+        // Later stops were renumbered and got new ETAs
+        notifyItemRangeChanged(position + 1, activeStops.size() - position - 1);
+    }
+
+    /**
+     * Add a new stop to the active section at its route position
+     */
+    public void insertActive(RouteOptimizer.RoutePoint stop, int position) {
+        activeStops.add(position, stop);
+        shiftExpandedPositionsForInsert(position);
+        updateStopNumbers();
+        buildItems();
+
+        notifyItemInserted(position);
+        notifyItemRangeChanged(position + 1, activeStops.size() - position - 1);
+    }
+
+    /**
+     * Keep expanded rows pointing at the same stops after an active row is removed
+     */
+    private void shiftExpandedPositions(int removedPosition) {
+        Set<Integer> shifted = new HashSet<>();
+        for (int position : expandedPositions) {
+            if (position < removedPosition) {
+                shifted.add(position);
+            } else if (position > removedPosition && position <= activeStops.size()) {
+                shifted.add(position - 1);
+            }
+        }
+        expandedPositions = shifted;
+    }
+
+    /**
+     * Keep expanded rows pointing at the same stops after an active row is inserted
+     */
+    private void shiftExpandedPositionsForInsert(int insertedPosition) {
+        Set<Integer> shifted = new HashSet<>();
+        for (int position : expandedPositions) {
+            shifted.add(position >= insertedPosition ? position + 1 : position);
+        }
+        expandedPositions = shifted;
     }
 
     /**
@@ -120,6 +237,32 @@ public class RouteStopAdapter extends RecyclerView.Adapter<RecyclerView.ViewHold
         rebuildItemsList();
     }
 
+    /**
+     * Show the active stops in a new route order, keeping the completed section as is
+     */
+    public void setActiveOrder(List<RouteOptimizer.RoutePoint> stops) {
+        // Expanded rows follow their stops to the new positions
+        Set<Integer> remapped = new HashSet<>();
+        int shift = stops.size() - activeStops.size();
+        for (int position : expandedPositions) {
+            if (position < activeStops.size()) {
+                int moved = stops.indexOf(activeStops.get(position));
+                if (moved >= 0) {
+                    remapped.add(moved);
+                }
+            } else {
+                remapped.add(position + shift);
+            }
+        }
+        expandedPositions = remapped;
+
+        activeStops.clear();
+        activeStops.addAll(stops);
+        updateStopNumbers();
+        buildItems();
+        notifyItemRangeChanged(0, activeStops.size());
+    }
+
     /**
      * Get only active stops (for route calculation)
      */
@@ -361,11 +504,11 @@ public class RouteStopAdapter extends RecyclerView.Adapter<RecyclerView.ViewHold
             tvStopNumber.setText(String.valueOf(stop.orderIndex));
 
             // Customer info - Gold name, white address
-            tvCustomerName.setText(invoice.getCustomerName());
-            tvAddress.setText(invoice.getAddress());
+            tvCustomerName.setText(stop.getCustomerLabel());
+            tvAddress.setText(stop.getAddressLabel());
 
-            // Items info
-            String items = invoice.getItems();
+            // Items info (every invoice delivered at the stop)
+            String items = stop.getItems();
             if (items != null && !items.isEmpty()) {
                 tvStopInfo.setText("Items: " + items);
             } else {
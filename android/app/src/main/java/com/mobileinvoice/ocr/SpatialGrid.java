@@ -0,0 +1,199 @@
+package com.mobileinvoice.ocr;
+
+/**
+ * Uniform grid over stop coordinates for "nearest unvisited stop" queries with deletion
+ *
+ * Coordinates are projected to a flat plane (longitude scaled by cos of the mean latitude),
+ * which is accurate enough to rank stops within a delivery region. Each cell holds about
+ * two stops, a query searches rings of cells outward from the query cell, and removal is a
+ * swap within the cell, so building a whole route is close to O(n) instead of O(n^2).
+ * The grid is rebuilt coarser as stops are removed so late queries don't scan empty cells.
+ */
+public class SpatialGrid {
+    private static final int TARGET_PER_CELL = 2;
+
+    private final double[] xs;
+    private final double[] ys;
+    private final boolean[] removed;
+    private final double lngScale;
+    private int remaining;
+
+    // Grid layout (rebuilt on compaction)
+    private double minX;
+    private double minY;
+    private double cellSize;
+    private int cols;
+    private int rows;
+    private int[] cellStart;   // First slot of each cell in items
+    private int[] cellCount;   // Live items in each cell
+    private int[] items;       // Point indices grouped by cell
+    private int[] slotOf;      // Point index -> slot in items
+    private int[] cellOf;      // Point index -> cell
+
+    /**
+     * @param lats Latitudes of the points (index i is point i)
+     * @param lngs Longitudes of the points
+     * @param count Number of points to index
+     */
+    public SpatialGrid(double[] lats, double[] lngs, int count) {
+        xs = new double[count];
+        ys = new double[count];
+        removed = new boolean[count];
+        remaining = count;
+
+        double latSum = 0;
+        for (int i = 0; i < count; i++) {
+            latSum += lats[i];
+        }
+        lngScale = Math.cos(Math.toRadians(count > 0 ? latSum / count : 0));
+
+        for (int i = 0; i < count; i++) {
+            xs[i] = lngs[i] * lngScale;
+            ys[i] = lats[i];
+        }
+
+        items = new int[count];
+        slotOf = new int[count];
+        cellOf = new int[count];
+        rebuild();
+    }
+
+    /**
+     * Number of points not yet removed
+     */
+    public int remaining() {
+        return remaining;
+    }
+
+    /**
+     * Remove a point so later queries skip it
+     */
+    public void remove(int index) {
+        if (removed[index]) return;
+        removed[index] = true;
+        remaining--;
+
+        // Swap the last live item of the cell into the freed slot
+        int cell = cellOf[index];
+        int slot = slotOf[index];
+        int lastSlot = cellStart[cell] + cellCount[cell] - 1;
+        int moved = items[lastSlot];
+        items[slot] = moved;
+        slotOf[moved] = slot;
+        items[lastSlot] = index;
+        slotOf[index] = lastSlot;
+        cellCount[cell]--;
+
+        if (cols * rows > 16 && remaining * TARGET_PER_CELL * 4 < cols * rows) {
+            rebuild();
+        }
+    }
+
+    /**
+     * Find the nearest remaining point to a coordinate
+     * @return Point index, or -1 when every point has been removed
+     */
+    public int nearest(double lat, double lng) {
+        if (remaining == 0) return -1;
+
+        double qx = lng * lngScale;
+        double qy = lat;
+        int cx = clamp((int) Math.floor((qx - minX) / cellSize), cols);
+        int cy = clamp((int) Math.floor((qy - minY) / cellSize), rows);
+
+        int best = -1;
+        double bestDist = Double.MAX_VALUE;
+        int maxRing = Math.max(Math.max(cx, cols - 1 - cx), Math.max(cy, rows - 1 - cy));
+
+        for (int r = 0; r <= maxRing; r++) {
+            int x0 = cx - r, x1 = cx + r, y0 = cy - r, y1 = cy + r;
+            for (int y = Math.max(0, y0); y <= Math.min(rows - 1, y1); y++) {
+                boolean edgeRow = y == y0 || y == y1;
+                int step = edgeRow ? 1 : x1 - x0;
+                for (int x = x0; x <= x1; x += Math.max(1, step)) {
+                    if (x < 0 || x >= cols) continue;
+                    int cell = y * cols + x;
+                    int start = cellStart[cell];
+                    int end = start + cellCount[cell];
+                    for (int s = start; s < end; s++) {
+                        int p = items[s];
+                        double dx = xs[p] - qx;
+                        double dy = ys[p] - qy;
+                        double d = dx * dx + dy * dy;
+                        if (d < bestDist) {
+                            bestDist = d;
+                            best = p;
+                        }
+                    }
+                }
+            }
+
+            // Anything outside ring r is at least r cells away
+            double bound = r * cellSize;
+            if (best >= 0 && bestDist <= bound * bound) {
+                break;
+            }
+        }
+        return best;
+    }
+
+    private static int clamp(int value, int size) {
+        return value < 0 ? 0 : (value >= size ? size - 1 : value);
+    }
+
+    /**
+     * Lay the remaining points out on a grid sized for about TARGET_PER_CELL points per cell
+     */
+    private void rebuild() {
+        double maxX = -Double.MAX_VALUE;
+        double maxY = -Double.MAX_VALUE;
+        minX = Double.MAX_VALUE;
+        minY = Double.MAX_VALUE;
+        for (int i = 0; i < xs.length; i++) {
+            if (removed[i]) continue;
+            minX = Math.min(minX, xs[i]);
+            minY = Math.min(minY, ys[i]);
+            maxX = Math.max(maxX, xs[i]);
+            maxY = Math.max(maxY, ys[i]);
+        }
+        if (remaining == 0) {
+            minX = minY = maxX = maxY = 0;
+        }
+
+        double width = Math.max(maxX - minX, 1e-9);
+        double height = Math.max(maxY - minY, 1e-9);
+        int targetCells = Math.max(1, remaining / TARGET_PER_CELL);
+        cellSize = Math.max(Math.sqrt(width * height / targetCells), Math.max(width, height) / targetCells);
+        cols = Math.max(1, (int) Math.ceil(width / cellSize));
+        rows = Math.max(1, (int) Math.ceil(height / cellSize));
+
+        int cells = cols * rows;
+        cellStart = new int[cells + 1];
+        cellCount = new int[cells];
+
+        for (int i = 0; i < xs.length; i++) {
+            if (removed[i]) continue;
+            int cell = cellIndex(xs[i], ys[i]);
+            cellOf[i] = cell;
+            cellCount[cell]++;
+        }
+        for (int c = 0; c < cells; c++) {
+            cellStart[c + 1] = cellStart[c] + cellCount[c];
+        }
+
+        int[] fill = new int[cells];
+        for (int i = 0; i < xs.length; i++) {
+            if (removed[i]) continue;
+            int cell = cellOf[i];
+            int slot = cellStart[cell] + fill[cell]++;
+            items[slot] = i;
+            slotOf[i] = slot;
+        }
+    }
+
+    private int cellIndex(double x, double y) {
+        int cx = clamp((int) ((x - minX) / cellSize), cols);
+        int cy = clamp((int) ((y - minY) / cellSize), rows);
+        return cy * cols + cx;
+    }
+}
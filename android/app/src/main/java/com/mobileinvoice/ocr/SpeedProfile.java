@@ -0,0 +1,263 @@
+package com.mobileinvoice.ocr;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Observed driving speeds by zone and hour of day, learned from completed stops
+ *
+ * Every observed leg adds its straight-line miles and its driving minutes to the bucket of
+ * the zone it ends in (a ZONE_DEGREES grid cell) and the hour it started. A speed is the
+ * ratio of the sums, so long legs weigh more than short ones and one odd leg can't swing
+ * a bucket. Sparse buckets fall back: zone and hour, then the zone over all hours, then
+ * the hour over all zones, then everything, then the flat default.
+ *
+ * Speeds are straight-line miles per hour of driving, the same units the ETAs divide by,
+ * so the detour factor of the local streets is learned along with the traffic.
+ *
+ * The table also keeps a watermark - the last stop it has seen - so a calibration run only
+ * reads the stops completed since (see delivery.utils.SpeedCalibrator). Instances from
+ * load() are shared and must not be modified; read() returns a private copy to update.
+ */
+public class SpeedProfile {
+    public static final String FILE_NAME = "speed_profile.bin";
+    public static final double DEFAULT_SPEED_MPH = 25;  // Before anything has been learned
+    public static final double ZONE_DEGREES = 0.05;     // About 3.5 miles
+    public static final int MIN_LEGS = 5;               // Fewer legs than this fall back a level
+
+    private static final int MAGIC = 0x53504446;   // "SPDF"
+    private static final int VERSION = 1;
+    private static final int HOURS = 24;
+
+    private static SpeedProfile cached;
+    private static File cachedFile;
+    private static long cachedModified;
+
+    /**
+     * Miles, minutes and leg counts for each hour of the day
+     */
+    private static class Buckets {
+        final double[] miles = new double[HOURS];
+        final double[] minutes = new double[HOURS];
+        final int[] legs = new int[HOURS];
+        double totalMiles;
+        double totalMinutes;
+        int totalLegs;
+
+        void add(int hour, double legMiles, double legMinutes) {
+            miles[hour] += legMiles;
+            minutes[hour] += legMinutes;
+            legs[hour]++;
+            totalMiles += legMiles;
+            totalMinutes += legMinutes;
+            totalLegs++;
+        }
+    }
+
+    private final Map<Long, Buckets> zones = new HashMap<>();
+    private final Buckets all = new Buckets();
+
+    // Watermark: the last stop a calibration run has processed
+    private long watermarkMillis;
+    private long watermarkId;
+    private boolean hasLastStop;
+    private double lastLatitude;
+    private double lastLongitude;
+    private long lastDepartureMillis;
+
+    /**
+     * Record one observed leg
+     * @param lat Latitude of the leg's destination (its zone)
+     * @param lng Longitude of the leg's destination
+     * @param hour Hour of day the leg started (0-23)
+     */
+    public void addLeg(double lat, double lng, int hour, double miles, double minutes) {
+        zones.computeIfAbsent(zoneKey(lat, lng), key -> new Buckets()).add(hour, miles, minutes);
+        all.add(hour, miles, minutes);
+    }
+
+    /**
+     * Expected speed in straight-line miles per hour for a leg ending at a point
+     * @param hour Hour of day the leg starts (0-23)
+     */
+    public double speedMph(double lat, double lng, int hour) {
+        Buckets zone = zones.get(zoneKey(lat, lng));
+        if (zone != null && zone.legs[hour] >= MIN_LEGS) {
+            return zone.miles[hour] / zone.minutes[hour] * 60;
+        }
+        if (zone != null && zone.totalLegs >= MIN_LEGS) {
+            return zone.totalMiles / zone.totalMinutes * 60;
+        }
+        if (all.legs[hour] >= MIN_LEGS) {
+            return all.miles[hour] / all.minutes[hour] * 60;
+        }
+        if (all.totalLegs >= MIN_LEGS) {
+            return all.totalMiles / all.totalMinutes * 60;
+        }
+        return DEFAULT_SPEED_MPH;
+    }
+
+    /**
+     * Driving minutes for a leg (at least 1), at the learned speed
+     */
+    public int travelMinutes(double miles, double toLat, double toLng, int hour) {
+        return Math.max(1, (int) (miles / speedMph(toLat, toLng, hour) * 60));
+    }
+
+    /**
+     * Number of legs learned so far
+     */
+    public int getLegCount() {
+        return all.totalLegs;
+    }
+
+    private static long zoneKey(double lat, double lng) {
+        long row = (long) Math.floor(lat / ZONE_DEGREES);
+        long col = (long) Math.floor(lng / ZONE_DEGREES);
+        return (row << 32) ^ (col & 0xffffffffL);
+    }
+
+    // ========== WATERMARK ==========
+
+    public long getWatermarkMillis() {
+        return watermarkMillis;
+    }
+
+    public long getWatermarkId() {
+        return watermarkId;
+    }
+
+    /**
+     * Advance the watermark to a processed stop, which becomes the start of the next leg
+     * @param departureMillis When the driver left the stop
+     */
+    public void setWatermark(long arrivalMillis, long id, double lat, double lng, long departureMillis) {
+        watermarkMillis = arrivalMillis;
+        watermarkId = id;
+        hasLastStop = true;
+        lastLatitude = lat;
+        lastLongitude = lng;
+        lastDepartureMillis = departureMillis;
+    }
+
+    public boolean hasLastStop() {
+        return hasLastStop;
+    }
+
+    public double getLastLatitude() {
+        return lastLatitude;
+    }
+
+    public double getLastLongitude() {
+        return lastLongitude;
+    }
+
+    public long getLastDepartureMillis() {
+        return lastDepartureMillis;
+    }
+
+    // ========== STORAGE ==========
+
+    /**
+     * Shared table for a file, re-read only when the file changes
+     * @return The table, or null if nothing has been learned yet (no file)
+     */
+    public static synchronized SpeedProfile load(File file) throws IOException {
+        if (!file.exists()) {
+            cached = null;
+            return null;
+        }
+        if (cached == null || !file.equals(cachedFile) || cachedModified != file.lastModified()) {
+            cachedModified = file.lastModified();
+            cached = read(file);
+            cachedFile = file;
+        }
+        return cached;
+    }
+
+    /**
+     * Read a private copy of the table (an empty one if the file doesn't exist)
+     */
+    public static SpeedProfile read(File file) throws IOException {
+        SpeedProfile profile = new SpeedProfile();
+        if (!file.exists()) {
+            return profile;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a speed profile file (version " + VERSION + "): " + file);
+            }
+            profile.watermarkMillis = in.readLong();
+            profile.watermarkId = in.readLong();
+            profile.hasLastStop = in.readBoolean();
+            profile.lastLatitude = in.readDouble();
+            profile.lastLongitude = in.readDouble();
+            profile.lastDepartureMillis = in.readLong();
+
+            int zoneCount = in.readInt();
+            for (int z = 0; z < zoneCount; z++) {
+                long key = in.readLong();
+                Buckets zone = new Buckets();
+                for (int hour = 0; hour < HOURS; hour++) {
+                    double miles = in.readDouble();
+                    double minutes = in.readDouble();
+                    int legs = in.readInt();
+                    zone.miles[hour] = miles;
+                    zone.minutes[hour] = minutes;
+                    zone.legs[hour] = legs;
+                    zone.totalMiles += miles;
+                    zone.totalMinutes += minutes;
+                    zone.totalLegs += legs;
+                    profile.all.miles[hour] += miles;
+                    profile.all.minutes[hour] += minutes;
+                    profile.all.legs[hour] += legs;
+                    profile.all.totalMiles += miles;
+                    profile.all.totalMinutes += minutes;
+                    profile.all.totalLegs += legs;
+                }
+                profile.zones.put(key, zone);
+            }
+        }
+        return profile;
+    }
+
+    /**
+     * Write the table, replacing the file atomically (readers never see a partial table)
+     */
+    public void write(File file) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(watermarkMillis);
+            out.writeLong(watermarkId);
+            out.writeBoolean(hasLastStop);
+            out.writeDouble(lastLatitude);
+            out.writeDouble(lastLongitude);
+            out.writeLong(lastDepartureMillis);
+
+            out.writeInt(zones.size());
+            for (Map.Entry<Long, Buckets> entry : zones.entrySet()) {
+                out.writeLong(entry.getKey());
+                Buckets zone = entry.getValue();
+                for (int hour = 0; hour < HOURS; hour++) {
+                    out.writeDouble(zone.miles[hour]);
+                    out.writeDouble(zone.minutes[hour]);
+                    out.writeInt(zone.legs[hour]);
+                }
+            }
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Could not replace " + file);
+        }
+    }
+}
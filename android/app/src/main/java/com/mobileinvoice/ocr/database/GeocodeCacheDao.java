@@ -0,0 +1,26 @@
+package com.mobileinvoice.ocr.database;
+
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
+import androidx.room.Query;
+
+import java.util.List;
+
+@Dao
+public interface GeocodeCacheDao {
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void put(GeocodeCacheEntry entry);
+
+    @Query("SELECT * FROM geocode_cache WHERE addressKey = :addressKey")
+    GeocodeCacheEntry get(String addressKey);
+
+    @Query("SELECT * FROM geocode_cache WHERE addressKey IN (:addressKeys)")
+    List<GeocodeCacheEntry> getAll(List<String> addressKeys);
+
+    @Query("DELETE FROM geocode_cache WHERE addressKey = :addressKey")
+    void delete(String addressKey);
+
+    @Query("DELETE FROM geocode_cache WHERE expiresAt <= :now")
+    int deleteExpired(long now);
+}
@@ -0,0 +1,51 @@
+package com.mobileinvoice.ocr.database;
+
+import androidx.annotation.NonNull;
+import androidx.room.Entity;
+import androidx.room.PrimaryKey;
+
+/**
+ * One remembered geocoder answer, keyed by normalized address
+ * A failed lookup is cached too (no coordinates, failureReason set), with a shorter expiry,
+ * so an address the geocoder doesn't know isn't looked up again on every route build.
+ */
+@Entity(tableName = "geocode_cache")
+public class GeocodeCacheEntry {
+    @PrimaryKey
+    @NonNull
+    private String addressKey = "";
+
+    private Double latitude;
+    private Double longitude;
+    private String formattedAddress; // The geocoder's address line for the match
+    private String failureReason;    // Set when the geocoder found nothing
+    private long resolvedAt;
+    private long expiresAt;
+
+    // Getters
+    @NonNull
+    public String getAddressKey() { return addressKey; }
+    public Double getLatitude() { return latitude; }
+    public Double getLongitude() { return longitude; }
+    public String getFormattedAddress() { return formattedAddress; }
+    public String getFailureReason() { return failureReason; }
+    public long getResolvedAt() { return resolvedAt; }
+    public long getExpiresAt() { return expiresAt; }
+
+    // Setters
+    public void setAddressKey(@NonNull String addressKey) { this.addressKey = addressKey; }
+    public void setLatitude(Double latitude) { this.latitude = latitude; }
+    public void setLongitude(Double longitude) { this.longitude = longitude; }
+    public void setFormattedAddress(String formattedAddress) { this.formattedAddress = formattedAddress; }
+    public void setFailureReason(String failureReason) { this.failureReason = failureReason; }
+    public void setResolvedAt(long resolvedAt) { this.resolvedAt = resolvedAt; }
+    public void setExpiresAt(long expiresAt) { this.expiresAt = expiresAt; }
+
+    public boolean isFailure() {
+        return latitude == null || longitude == null;
+    }
+
+    public boolean isExpired(long now) {
+        return expiresAt <= now;
+    }
+}
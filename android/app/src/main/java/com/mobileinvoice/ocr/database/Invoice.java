@@ -25,6 +25,9 @@ public class Invoice {
     private long timestamp;
     private String status; // Values: "PENDING", "IN_TRANSIT", "DELIVERED", "CANCELLED"
     private int stopTimeMinutes = 30; // Default 30 minutes for appliance delivery
+    private Double latitude; // Geocoded when the address is saved (null = not yet)
+    private Double longitude;
+    private String geocodedAddress; // Address the coordinates were found for
 
     public Invoice() {
         this.timestamp = System.currentTimeMillis();
@@ -49,6 +52,9 @@ public class Invoice {
     public long getTimestamp() { return timestamp; }
     public String getStatus() { return status; }
     public int getStopTimeMinutes() { return stopTimeMinutes; }
+    public Double getLatitude() { return latitude; }
+    public Double getLongitude() { return longitude; }
+    public String getGeocodedAddress() { return geocodedAddress; }
 
     // Setters
     public void setId(int id) { this.id = id; }
@@ -67,6 +73,16 @@ public class Invoice {
     public void setTimestamp(long timestamp) { this.timestamp = timestamp; }
     public void setStatus(String status) { this.status = status; }
     public void setStopTimeMinutes(int stopTimeMinutes) { this.stopTimeMinutes = stopTimeMinutes; }
+    public void setLatitude(Double latitude) { this.latitude = latitude; }
+    public void setLongitude(Double longitude) { this.longitude = longitude; }
+    public void setGeocodedAddress(String geocodedAddress) { this.geocodedAddress = geocodedAddress; }
+
+    /**
+     * Whether the stored coordinates belong to the current address (it hasn't been edited since)
+     */
+    public boolean hasLocation() {
+        return latitude != null && longitude != null && address != null && address.equals(geocodedAddress);
+    }
 
     // Utility methods for status checking
     public boolean isCompleted() {
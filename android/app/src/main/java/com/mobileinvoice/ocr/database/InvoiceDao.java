@@ -5,6 +5,7 @@ import androidx.room.Dao;
 import androidx.room.Delete;
 import androidx.room.Insert;
 import androidx.room.Query;
+import androidx.room.Transaction;
 import androidx.room.Update;
 
 import java.util.List;
@@ -17,6 +18,22 @@ public interface InvoiceDao {
     @Update
     void update(Invoice invoice);
 
+    /**
+     * Save an edited invoice, keeping the coordinates stored for it
+     * The caller's copy may predate IngestGeocoder storing them; a plain update would write
+     * them back as null.
+     */
+    @Transaction
+    default void updateKeepingLocation(Invoice invoice) {
+        Invoice stored = getInvoiceByIdSync(invoice.getId());
+        if (stored != null) {
+            invoice.setLatitude(stored.getLatitude());
+            invoice.setLongitude(stored.getLongitude());
+            invoice.setGeocodedAddress(stored.getGeocodedAddress());
+        }
+        update(invoice);
+    }
+
     @Delete
     void delete(Invoice invoice);
 
@@ -37,4 +54,20 @@ public interface InvoiceDao {
 
     @Query("SELECT COUNT(*) FROM invoices")
     LiveData<Integer> getInvoiceCount();
+
+    // Single-column writes, so they can't clobber coordinates stored since the invoice was read
+    @Query("UPDATE invoices SET status = :status WHERE id = :id")
+    void setStatus(int id, String status);
+
+    @Query("UPDATE invoices SET stopTimeMinutes = :stopTimeMinutes WHERE id = :id")
+    void setStopTimeMinutes(int id, int stopTimeMinutes);
+
+    // Only lands if the address is still the one that was geocoded (not edited meanwhile)
+    @Query("UPDATE invoices SET latitude = :latitude, longitude = :longitude, geocodedAddress = :address " +
+           "WHERE id = :id AND address = :address")
+    int setLocation(int id, double latitude, double longitude, String address);
+
+    @Query("SELECT id FROM invoices WHERE address IS NOT NULL " +
+           "AND (latitude IS NULL OR geocodedAddress IS NULL OR geocodedAddress != address)")
+    List<Integer> getIdsWithoutLocationSync();
 }
@@ -9,12 +9,14 @@ import androidx.room.RoomDatabase;
 import androidx.room.migration.Migration;
 import androidx.sqlite.db.SupportSQLiteDatabase;
 
-@Database(entities = {Invoice.class}, version = 5, exportSchema = false)
+@Database(entities = {Invoice.class, GeocodeCacheEntry.class}, version = 7, exportSchema = false)
 public abstract class InvoiceDatabase extends RoomDatabase {
     private static InvoiceDatabase instance;
 
     public abstract InvoiceDao invoiceDao();
 
+    public abstract GeocodeCacheDao geocodeCacheDao();
+
     // Migration from version 2 to 3: Add status column
     private static final Migration MIGRATION_2_3 = new Migration(2, 3) {
         @Override
@@ -72,6 +74,32 @@ public abstract class InvoiceDatabase extends RoomDatabase {
         }
     };
 
+    // Migration from version 5 to 6: Add geocode_cache table (remembered geocoder answers)
+    private static final Migration MIGRATION_5_6 = new Migration(5, 6) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("CREATE TABLE IF NOT EXISTS geocode_cache (" +
+                    "addressKey TEXT NOT NULL, " +
+                    "latitude REAL, " +
+                    "longitude REAL, " +
+                    "formattedAddress TEXT, " +
+                    "failureReason TEXT, " +
+                    "resolvedAt INTEGER NOT NULL, " +
+                    "expiresAt INTEGER NOT NULL, " +
+                    "PRIMARY KEY(addressKey))");
+        }
+    };
+
+    // Migration from version 6 to 7: Add coordinates geocoded when the address is saved
+    private static final Migration MIGRATION_6_7 = new Migration(6, 7) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE invoices ADD COLUMN latitude REAL");
+            database.execSQL("ALTER TABLE invoices ADD COLUMN longitude REAL");
+            database.execSQL("ALTER TABLE invoices ADD COLUMN geocodedAddress TEXT");
+        }
+    };
+
     public static synchronized InvoiceDatabase getInstance(Context context) {
         if (instance == null) {
             instance = Room.databaseBuilder(
@@ -79,7 +107,7 @@ public abstract class InvoiceDatabase extends RoomDatabase {
                     InvoiceDatabase.class,
                     "invoice_database"
             )
-                    .addMigrations(MIGRATION_2_3, MIGRATION_3_4, MIGRATION_4_5)
+                    .addMigrations(MIGRATION_2_3, MIGRATION_3_4, MIGRATION_4_5, MIGRATION_5_6, MIGRATION_6_7)
                     .fallbackToDestructiveMigration()
                     .build();
         }
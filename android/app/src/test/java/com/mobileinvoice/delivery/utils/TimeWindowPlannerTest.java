@@ -0,0 +1,170 @@
+package com.mobileinvoice.delivery.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.mobileinvoice.delivery.data.entities.Delivery;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * TimeWindowPlanner routes checked by driving them with RouteOptimizer.lateMinutes
+ */
+public class TimeWindowPlannerTest {
+    private static final double START_LAT = 40.1;
+    private static final double START_LNG = -73.9;
+
+    @Test
+    public void findsAFeasibleRouteWhenOneExists() {
+        Random random = new Random(21);
+        Date start = at(8, 0);
+        for (int trial = 0; trial < 100; trial++) {
+            List<Delivery> deliveries = randomDeliveries(random, 2 + random.nextInt(25));
+            // Windows around the arrivals of a random route, so at least that route is on time
+            List<Delivery> reference = new ArrayList<>(deliveries);
+            Collections.shuffle(reference, random);
+            Date[] arrivals = new Date[reference.size()];
+            RouteOptimizer.lateMinutes(reference, START_LAT, START_LNG, start, arrivals);
+            for (int i = 0; i < reference.size(); i++) {
+                int minute = minuteOfDay(arrivals[i]);
+                reference.get(i).setTimeWindowStart(hhmm(Math.max(0, minute - 30)));
+                reference.get(i).setTimeWindowEnd(hhmm(minute + 60));
+            }
+
+            TimeWindowPlanner planner = new TimeWindowPlanner(deliveries, START_LAT, START_LNG);
+            List<Delivery> planned = planner.plan(start);
+
+            assertSameDeliveries(deliveries, planned);
+            assertEquals(0, planner.getLateCount());
+            assertEquals(0, RouteOptimizer.lateMinutes(planned, START_LAT, START_LNG, start, null), 0.01);
+        }
+    }
+
+    @Test
+    public void estimatedArrivalsAndLateCountMatchDrivingTheRoute() {
+        Random random = new Random(22);
+        Date start = at(9, 0);
+        for (int trial = 0; trial < 100; trial++) {
+            List<Delivery> deliveries = randomDeliveries(random, 1 + random.nextInt(30));
+            // Tight random windows: some routes can't be on time everywhere
+            for (Delivery delivery : deliveries) {
+                if (random.nextInt(4) == 0) continue;
+                int opens = 9 * 60 + random.nextInt(180);
+                delivery.setTimeWindowStart(hhmm(opens));
+                delivery.setTimeWindowEnd(hhmm(opens + 15 + random.nextInt(60)));
+            }
+
+            TimeWindowPlanner planner = new TimeWindowPlanner(deliveries, START_LAT, START_LNG);
+            List<Delivery> planned = planner.plan(start);
+            assertSameDeliveries(deliveries, planned);
+
+            Date[] arrivals = new Date[planned.size()];
+            RouteOptimizer.lateMinutes(planned, START_LAT, START_LNG, start, arrivals);
+            int late = 0;
+            for (int i = 0; i < planned.size(); i++) {
+                Delivery delivery = planned.get(i);
+                // The two simulations use slightly different earth radii: seconds apart per day
+                assertTrue(Math.abs(arrivals[i].getTime() - delivery.getEstimatedArrival().getTime()) < 5000);
+                int closes = TimeWindowPlanner.parseMinuteOfDay(delivery.getTimeWindowEnd());
+                if (closes >= 0 && delivery.getEstimatedArrival().after(at(closes / 60, closes % 60))) {
+                    late++;
+                }
+            }
+            assertEquals(late, planner.getLateCount());
+        }
+    }
+
+    @Test
+    public void orderLeavesDeliveriesUntouched() {
+        List<Delivery> deliveries = randomDeliveries(new Random(23), 10);
+        List<Delivery> ordered = new TimeWindowPlanner(deliveries, START_LAT, START_LNG).order(at(8, 0));
+        assertSameDeliveries(deliveries, ordered);
+        for (Delivery delivery : deliveries) {
+            assertNull(delivery.getEstimatedArrival());
+        }
+    }
+
+    @Test
+    public void tooManyDeliveriesFallBackToWindowOrder() {
+        Random random = new Random(24);
+        List<Delivery> deliveries = randomDeliveries(random, TimeWindowPlanner.MAX_STOPS + 1);
+        for (Delivery delivery : deliveries) {
+            delivery.setTimeWindowStart(hhmm(8 * 60 + random.nextInt(600)));
+        }
+
+        List<Delivery> planned = RouteOptimizer.planTimeWindow(deliveries, START_LAT, START_LNG, at(8, 0));
+
+        assertSameDeliveries(deliveries, planned);
+        for (int i = 1; i < planned.size(); i++) {
+            assertTrue(planned.get(i - 1).getTimeWindowStart().compareTo(planned.get(i).getTimeWindowStart()) <= 0);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void plannerRejectsMoreThanMaxStops() {
+        new TimeWindowPlanner(randomDeliveries(new Random(25), TimeWindowPlanner.MAX_STOPS + 1), START_LAT, START_LNG);
+    }
+
+    @Test
+    public void parsesTimesOfDay() {
+        assertEquals(540, TimeWindowPlanner.parseMinuteOfDay("09:00"));
+        assertEquals(1020, TimeWindowPlanner.parseMinuteOfDay(" 5:00 pm "));
+        assertEquals(30, TimeWindowPlanner.parseMinuteOfDay("12:30 AM"));
+        assertEquals(750, TimeWindowPlanner.parseMinuteOfDay("12:30PM"));
+        assertEquals(840, TimeWindowPlanner.parseMinuteOfDay("14"));
+        assertEquals(-1, TimeWindowPlanner.parseMinuteOfDay(null));
+        assertEquals(-1, TimeWindowPlanner.parseMinuteOfDay(""));
+        assertEquals(-1, TimeWindowPlanner.parseMinuteOfDay("noon"));
+        assertEquals(-1, TimeWindowPlanner.parseMinuteOfDay("10:75"));
+        assertEquals(1440, TimeWindowPlanner.parseMinuteOfDay("24:00"));
+        assertEquals(-1, TimeWindowPlanner.parseMinuteOfDay("24:59"));
+        assertEquals(-1, TimeWindowPlanner.parseMinuteOfDay("25:00"));
+    }
+
+    private static List<Delivery> randomDeliveries(Random random, int count) {
+        List<Delivery> deliveries = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Delivery delivery = new Delivery();
+            delivery.setId(i + 1);
+            delivery.setLatitude(40 + random.nextDouble() * 0.2);
+            delivery.setLongitude(-74 + random.nextDouble() * 0.2);
+            deliveries.add(delivery);
+        }
+        return deliveries;
+    }
+
+    private static void assertSameDeliveries(List<Delivery> expected, List<Delivery> actual) {
+        assertEquals(expected.size(), actual.size());
+        IdentityHashMap<Delivery, Boolean> seen = new IdentityHashMap<>();
+        for (Delivery delivery : actual) {
+            assertNull(seen.put(delivery, true));
+        }
+        for (Delivery delivery : expected) {
+            assertTrue(seen.containsKey(delivery));
+        }
+    }
+
+    private static Date at(int hours, int minutes) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.set(2024, Calendar.MARCH, 4, hours, minutes, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        return calendar.getTime();
+    }
+
+    private static int minuteOfDay(Date time) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTime(time);
+        return calendar.get(Calendar.HOUR_OF_DAY) * 60 + calendar.get(Calendar.MINUTE);
+    }
+
+    private static String hhmm(int minuteOfDay) {
+        return String.format("%02d:%02d", minuteOfDay / 60, minuteOfDay % 60);
+    }
+}
@@ -0,0 +1,105 @@
+package com.mobileinvoice.ocr;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+/**
+ * AnytimeRouteSolver against brute force, and stopping it from another thread
+ */
+public class AnytimeRouteSolverTest {
+    private static final double EPSILON = 1e-9;
+
+    @Test
+    public void improvesTowardOptimalAndReportsOnlyBetterRoutes() {
+        Random random = new Random(4);
+        for (int trial = 0; trial < 50; trial++) {
+            int stops = 3 + random.nextInt(6);
+            DistanceMatrix matrix = LocalSearchTest.randomMatrix(random, stops);
+            int[] initial = LocalSearchTest.shuffledTour(random, stops);
+            double start = matrix.pathLength(initial, stops);
+            double[] lastReported = {start};
+
+            AnytimeRouteSolver solver = new AnytimeRouteSolver(matrix, trial).setMaxIterations(20000);
+            int[] best = solver.solve(initial, (tour, length) -> {
+                assertEquals(matrix.pathLength(tour, tour.length), length, EPSILON);
+                assertTrue(length < lastReported[0]);
+                lastReported[0] = length;
+            });
+
+            LocalSearchTest.assertPermutation(best, stops);
+            assertEquals(matrix.pathLength(best, stops), solver.getBestLength(), EPSILON);
+            assertTrue(solver.getBestLength() <= start + EPSILON);
+            assertTrue(solver.getBestLength() >= LocalSearchTest.bruteForce(matrix, stops, null) - EPSILON);
+        }
+    }
+
+    @Test
+    public void keepsRanksInOrder() {
+        Random random = new Random(5);
+        for (int trial = 0; trial < 50; trial++) {
+            int stops = 4 + random.nextInt(5);
+            DistanceMatrix matrix = LocalSearchTest.randomMatrix(random, stops);
+            int[] ranks = new int[stops + 1];
+            for (int i = 1; i <= stops; i++) {
+                ranks[i] = random.nextInt(3);
+            }
+            int[] initial = new int[stops];
+            for (int i = 0, k = 0; k < 3; k++) {
+                for (int stop = 1; stop <= stops; stop++) {
+                    if (ranks[stop] == k) initial[i++] = stop;
+                }
+            }
+
+            int[] best = new AnytimeRouteSolver(matrix, trial).setRanks(ranks).setMaxIterations(20000)
+                .solve(initial, null);
+
+            LocalSearchTest.assertPermutation(best, stops);
+            for (int i = 1; i < stops; i++) {
+                assertTrue(ranks[best[i - 1]] <= ranks[best[i]]);
+            }
+            assertTrue(matrix.pathLength(best, stops) >= LocalSearchTest.bruteForce(matrix, stops, ranks) - EPSILON);
+        }
+    }
+
+    @Test
+    public void stopAndWaitReturnsOnceTheSearchHasEnded() throws InterruptedException {
+        Random random = new Random(6);
+        int stops = 300;
+        DistanceMatrix matrix = LocalSearchTest.randomMatrix(random, stops);
+        int[] initial = LocalSearchTest.shuffledTour(random, stops);
+        AnytimeRouteSolver solver = new AnytimeRouteSolver(matrix, 1).setTimeBudgetMillis(60000);
+        CountDownLatch improved = new CountDownLatch(1);
+        int[][] result = new int[1][];
+        Thread thread = new Thread(() -> result[0] = solver.solve(initial, (tour, length) -> improved.countDown()));
+        thread.start();
+        assertTrue(improved.await(10, TimeUnit.SECONDS));
+
+        solver.stopAndWait();
+
+        thread.join(1000);
+        assertFalse(thread.isAlive());
+        LocalSearchTest.assertPermutation(result[0], stops);
+        assertTrue(solver.getBestLength() < matrix.pathLength(initial, stops));
+    }
+
+    @Test
+    public void solveAfterStopReturnsTheInitialRoute() {
+        DistanceMatrix matrix = LocalSearchTest.randomMatrix(new Random(7), 6);
+        int[] initial = {3, 1, 6, 2, 5, 4};
+        AnytimeRouteSolver solver = new AnytimeRouteSolver(matrix, 1);
+        solver.stopAndWait();
+
+        int[] best = solver.solve(initial, (tour, length) -> { throw new AssertionError("no search expected"); });
+
+        assertArrayEquals(new int[] {3, 1, 6, 2, 5, 4}, best);
+        assertNotSame(initial, best);
+    }
+}
@@ -0,0 +1,102 @@
+package com.mobileinvoice.ocr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Incremental ETA updates (removeStop, updateStopTime) against a full recompute
+ */
+public class EtaUpdateTest {
+
+    @Test
+    public void removeStopMatchesFullRecompute() {
+        Random random = new Random(11);
+        for (boolean withMatrix : new boolean[] {true, false}) {
+            RouteOptimizer.OptimizedRoute route = TestRoutes.route(random, 40, withMatrix);
+            while (!route.orderedPoints.isEmpty()) {
+                int index = random.nextInt(route.orderedPoints.size());
+                RouteOptimizer.EtaChange change = RouteOptimizer.removeStop(route, index);
+                assertEquals(index, change.fromIndex);
+                assertEquals(route.orderedPoints.size() - index, change.count);
+                TestRoutes.assertMatchesFullRecompute(route);
+            }
+        }
+    }
+
+    @Test
+    public void updateStopTimeMatchesFullRecompute() {
+        Random random = new Random(12);
+        RouteOptimizer.OptimizedRoute route = TestRoutes.route(random, 30, true);
+        for (int edit = 0; edit < 100; edit++) {
+            int index = random.nextInt(route.orderedPoints.size());
+            RouteOptimizer.EtaChange change = RouteOptimizer.updateStopTime(route, index, 1 + random.nextInt(60));
+            assertEquals(index, change.fromIndex);
+            TestRoutes.assertMatchesFullRecompute(route);
+        }
+    }
+
+    @Test
+    public void pinningKeepsTheRouteStartAndMatchesFullRecompute() {
+        Random random = new Random(13);
+        for (boolean withMatrix : new boolean[] {true, false}) {
+            RouteOptimizer.OptimizedRoute route = TestRoutes.route(random, 25, withMatrix);
+            for (int edit = 0; edit < 10; edit++) {
+                RouteOptimizer.RoutePoint stop = route.orderedPoints.get(random.nextInt(route.orderedPoints.size()));
+                if (edit % 2 == 0) {
+                    RouteOptimizer.makeFirst(route, stop);
+                    assertSame(stop, route.orderedPoints.get(0));
+                } else {
+                    RouteOptimizer.makeLast(route, stop);
+                    assertSame(stop, route.orderedPoints.get(route.orderedPoints.size() - 1));
+                }
+                assertEquals(TestRoutes.START_LAT, route.startLatitude, 0);
+                assertEquals(TestRoutes.START_LNG, route.startLongitude, 0);
+                assertEquals(TestRoutes.START_MILLIS, route.startTimeMillis);
+                TestRoutes.assertMatchesFullRecompute(route);
+            }
+        }
+    }
+
+    @Test
+    public void editsWithASpeedProfileMatchFullRecompute() {
+        // Departures that cross an hour boundary change the time of every later leg
+        Random random = new Random(12);
+        RouteOptimizer.OptimizedRoute route = TestRoutes.route(random, 30, true);
+        route.speedProfile = alternatingSpeedProfile();
+        RouteOptimizer.recalculateETAs(route, route.startLatitude, route.startLongitude);
+
+        RouteOptimizer.updateStopTime(route, 3, 95);
+        TestRoutes.assertMatchesFullRecompute(route);
+        for (int edit = 0; edit < 60; edit++) {
+            int index = random.nextInt(route.orderedPoints.size());
+            switch (edit % 3) {
+                case 0:
+                    RouteOptimizer.updateStopTime(route, index, 1 + random.nextInt(60));
+                    break;
+                case 1:
+                    RouteOptimizer.removeStop(route, index);
+                    break;
+                default:
+                    RouteOptimizer.insertStop(route, TestRoutes.stop(random, 100 + edit));
+                    break;
+            }
+            TestRoutes.assertMatchesFullRecompute(route);
+        }
+    }
+
+    /**
+     * 10 mph in even hours, 30 mph in odd ones, everywhere
+     */
+    private static SpeedProfile alternatingSpeedProfile() {
+        SpeedProfile profile = new SpeedProfile();
+        for (int hour = 0; hour < 24; hour++) {
+            for (int leg = 0; leg < SpeedProfile.MIN_LEGS; leg++) {
+                profile.addLeg(0, 0, hour, 1, hour % 2 == 0 ? 6 : 2);
+            }
+        }
+        return profile;
+    }
+}
@@ -0,0 +1,230 @@
+package com.mobileinvoice.ocr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.mobileinvoice.ocr.database.Invoice;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+/**
+ * RouteOptimizer.geocodeAddresses against a fake AddressLookup
+ */
+public class GeocodeAddressesTest {
+
+    /**
+     * Answers from a table, counting calls and the most calls in flight at once
+     */
+    private static class FakeLookup implements AddressLookup {
+        final Map<String, Match> matches = new HashMap<>();
+        final Map<String, Integer> delays = new HashMap<>();
+        final List<String> unreachable = new ArrayList<>();
+        final Map<String, AtomicInteger> calls = new ConcurrentHashMap<>();
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+
+        @Override
+        public Match lookup(String address) throws IOException {
+            calls.computeIfAbsent(address, key -> new AtomicInteger()).incrementAndGet();
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try {
+                Integer delay = delays.get(address);
+                if (delay != null) {
+                    Thread.sleep(delay);
+                }
+                if (unreachable.contains(address)) {
+                    throw new IOException("No connection");
+                }
+                return matches.get(address);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        }
+
+        int callCount() {
+            int total = 0;
+            for (AtomicInteger count : calls.values()) {
+                total += count.get();
+            }
+            return total;
+        }
+    }
+
+    @Test
+    public void keepsInvoiceOrderWhateverOrderLookupsFinishIn() {
+        FakeLookup lookup = new FakeLookup();
+        List<Invoice> invoices = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            String address = (100 + i) + " Oak Ave";
+            invoices.add(invoice(i, address));
+            lookup.matches.put(address, new AddressLookup.Match(40 + i * 0.01, -74, address));
+            lookup.delays.put(address, (12 - i) * 5);   // Later invoices answer first
+        }
+        RouteOptimizer optimizer = optimizer(lookup);
+        optimizer.setGeocodeConcurrency(3);
+
+        List<RouteOptimizer.GeocodingFailure> failures = new ArrayList<>();
+        List<RouteOptimizer.RoutePoint> points = optimizer.geocodeAddresses(invoices, failures);
+
+        assertTrue(failures.isEmpty());
+        assertEquals(12, points.size());
+        for (int i = 0; i < 12; i++) {
+            assertSame(invoices.get(i), points.get(i).invoice);
+            assertEquals(40 + i * 0.01, points.get(i).latitude, 1e-12);
+        }
+        assertTrue(lookup.maxInFlight.get() <= 3);
+    }
+
+    @Test
+    public void looksUpEachAddressOnceAndSharesTheStop() {
+        FakeLookup lookup = new FakeLookup();
+        lookup.matches.put("12 Main Street", new AddressLookup.Match(40.1, -74.1, "12 Main St"));
+        lookup.matches.put("9 Elm Rd", new AddressLookup.Match(40.2, -74.2, "9 Elm Rd"));
+        List<Invoice> invoices = Arrays.asList(
+            invoice(1, "12 Main Street"),
+            invoice(2, "9 Elm Rd"),
+            invoice(3, "12 MAIN ST."),
+            invoice(4, "12 Main Street"));
+
+        List<RouteOptimizer.GeocodingFailure> failures = new ArrayList<>();
+        List<RouteOptimizer.RoutePoint> points = optimizer(lookup).geocodeAddresses(invoices, failures);
+
+        assertEquals(2, lookup.callCount());
+        assertEquals(1, lookup.calls.get("12 Main Street").get());
+        assertEquals(2, points.size());
+        RouteOptimizer.RoutePoint main = points.get(0);
+        assertEquals(Arrays.asList(invoices.get(0), invoices.get(2), invoices.get(3)), main.invoices);
+        assertEquals(3 * 10, main.stopTimeMinutes);
+        assertSame(invoices.get(1), points.get(1).invoice);
+        assertTrue(failures.isEmpty());
+    }
+
+    @Test
+    public void reportsFailuresInInvoiceOrder() {
+        FakeLookup lookup = new FakeLookup();
+        lookup.matches.put("1 Good Ln", new AddressLookup.Match(40.1, -74.1, "1 Good Ln"));
+        lookup.unreachable.add("2 Offline Ct");
+        List<Invoice> invoices = Arrays.asList(
+            invoice(1, ""),
+            invoice(2, "1 Good Ln"),
+            invoice(3, "404 Nowhere Blvd"),
+            invoice(4, "2 Offline Ct"),
+            invoice(5, "No address found"),
+            invoice(6, "404 NOWHERE BOULEVARD"));
+
+        List<RouteOptimizer.GeocodingFailure> failures = new ArrayList<>();
+        List<RouteOptimizer.RoutePoint> points = optimizer(lookup).geocodeAddresses(invoices, failures);
+
+        assertEquals(1, points.size());
+        assertSame(invoices.get(1), points.get(0).invoice);
+        assertEquals(5, failures.size());
+        assertSame(invoices.get(0), failures.get(0).invoice);
+        assertEquals("No address provided", failures.get(0).reason);
+        assertSame(invoices.get(2), failures.get(1).invoice);
+        assertTrue(failures.get(1).reason.startsWith("Address not recognized"));
+        assertSame(invoices.get(3), failures.get(2).invoice);
+        assertEquals("Network error geocoding address", failures.get(2).reason);
+        assertSame(invoices.get(4), failures.get(3).invoice);
+        assertEquals("Address not detected during scan", failures.get(3).reason);
+        // Same address as invoice 3: one lookup, same outcome
+        assertSame(invoices.get(5), failures.get(4).invoice);
+        assertEquals(failures.get(1).reason, failures.get(4).reason);
+        assertEquals(1, lookup.calls.get("404 Nowhere Blvd").get());
+        assertFalse(lookup.calls.containsKey(""));
+    }
+
+    @Test
+    public void fallsBackToTheOfflineGeocoderAndNeverMergesApproximateStops() {
+        FakeLookup lookup = new FakeLookup();
+        lookup.unreachable.add("5 Pine Rd, 07001");
+        lookup.unreachable.add("8 Cedar Rd, 07001");
+        lookup.unreachable.add("3 Birch Rd");
+        FakeLookup offline = new FakeLookup();
+        // Both only placed at the ZIP centroid
+        offline.matches.put("5 Pine Rd, 07001", new AddressLookup.Match(40.5, -74.5, "07001", true));
+        offline.matches.put("8 Cedar Rd, 07001", new AddressLookup.Match(40.5, -74.5, "07001", true));
+        RouteOptimizer optimizer = optimizer(lookup);
+        optimizer.setOfflineGeocoder(offline);
+        List<Invoice> invoices = Arrays.asList(
+            invoice(1, "5 Pine Rd, 07001"),
+            invoice(2, "8 Cedar Rd, 07001"),
+            invoice(3, "3 Birch Rd"));
+
+        List<RouteOptimizer.GeocodingFailure> failures = new ArrayList<>();
+        List<RouteOptimizer.RoutePoint> points = optimizer.geocodeAddresses(invoices, failures);
+
+        assertEquals(2, points.size());
+        assertTrue(points.get(0).approximate);
+        assertTrue(points.get(1).approximate);
+        assertEquals(1, points.get(0).invoices.size());
+        assertEquals(1, points.get(1).invoices.size());
+        assertEquals(1, failures.size());
+        assertSame(invoices.get(2), failures.get(0).invoice);
+        assertEquals("Network error geocoding address", failures.get(0).reason);
+    }
+
+    @Test
+    public void mergesExactStopsAtTheSameSpot() {
+        FakeLookup lookup = new FakeLookup();
+        // Two spellings the canonicalizer can't join, 10 ft apart
+        lookup.matches.put("Unit 4, 77 Bay St", new AddressLookup.Match(40.30000, -74.3, null));
+        lookup.matches.put("77 Bay Street Apt 4", new AddressLookup.Match(40.30003, -74.3, null));
+        lookup.matches.put("1 Far Away Dr", new AddressLookup.Match(40.4, -74.4, null));
+        List<Invoice> invoices = Arrays.asList(
+            invoice(1, "Unit 4, 77 Bay St"),
+            invoice(2, "1 Far Away Dr"),
+            invoice(3, "77 Bay Street Apt 4"));
+
+        List<RouteOptimizer.GeocodingFailure> failures = new ArrayList<>();
+        List<RouteOptimizer.RoutePoint> points = optimizer(lookup).geocodeAddresses(invoices, failures);
+
+        assertEquals(3, lookup.callCount());
+        assertEquals(2, points.size());
+        assertEquals(Arrays.asList(invoices.get(0), invoices.get(2)), points.get(0).invoices);
+        assertSame(invoices.get(1), points.get(1).invoice);
+    }
+
+    @Test
+    public void storedLocationsSkipTheLookup() {
+        FakeLookup lookup = new FakeLookup();
+        Invoice invoice = invoice(1, "6 Stored Way");
+        invoice.setLatitude(40.6);
+        invoice.setLongitude(-74.6);
+        invoice.setGeocodedAddress("6 Stored Way");
+
+        List<RouteOptimizer.RoutePoint> points =
+            optimizer(lookup).geocodeAddresses(Arrays.asList(invoice), new ArrayList<>());
+
+        assertEquals(0, lookup.callCount());
+        assertEquals(1, points.size());
+        assertEquals(40.6, points.get(0).latitude, 0);
+    }
+
+    private static RouteOptimizer optimizer(AddressLookup lookup) {
+        RouteOptimizer optimizer = new RouteOptimizer(null);
+        optimizer.setAddressLookup(lookup);
+        optimizer.setGeocodeRateLimiter(new RateLimiter(1000, 100));
+        return optimizer;
+    }
+
+    private static Invoice invoice(int id, String address) {
+        Invoice invoice = new Invoice();
+        invoice.setId(id);
+        invoice.setInvoiceNumber("INV-" + id);
+        invoice.setCustomerName("Customer " + id);
+        invoice.setAddress(address);
+        invoice.setStopTimeMinutes(10);
+        return invoice;
+    }
+}
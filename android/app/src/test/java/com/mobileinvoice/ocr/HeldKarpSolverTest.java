@@ -0,0 +1,84 @@
+package com.mobileinvoice.ocr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * HeldKarpSolver against brute force, with one solver reused across route sizes
+ */
+public class HeldKarpSolverTest {
+    private static final double EPSILON = 1e-9;
+
+    @Test
+    public void matchesBruteForceWhileTablesGrowAndShrink() {
+        Random random = new Random(41);
+        HeldKarpSolver solver = new HeldKarpSolver();
+        for (int trial = 0; trial < 200; trial++) {
+            int stops = 1 + random.nextInt(8);
+            DistanceMatrix matrix = LocalSearchTest.randomMatrix(random, stops);
+            int[] tour = LocalSearchTest.shuffledTour(random, stops);
+
+            double length = solver.solve(matrix, tour, stops);
+
+            LocalSearchTest.assertPermutation(tour, stops);
+            assertEquals(matrix.pathLength(tour, stops), length, EPSILON);
+            assertEquals(LocalSearchTest.bruteForce(matrix, stops, null), length, EPSILON);
+        }
+        assertEquals(8, solver.getCapacity());
+    }
+
+    @Test
+    public void matchesBruteForceWithRanks() {
+        Random random = new Random(42);
+        HeldKarpSolver solver = new HeldKarpSolver(4);
+        for (int trial = 0; trial < 200; trial++) {
+            int stops = 2 + random.nextInt(7);
+            DistanceMatrix matrix = LocalSearchTest.randomMatrix(random, stops);
+            int[] ranks = new int[stops + 1];
+            for (int i = 1; i <= stops; i++) {
+                ranks[i] = random.nextInt(3);
+            }
+            int[] tour = LocalSearchTest.shuffledTour(random, stops);
+
+            double length = solver.solve(matrix, tour, stops, ranks);
+
+            LocalSearchTest.assertPermutation(tour, stops);
+            for (int i = 1; i < stops; i++) {
+                assertTrue(ranks[tour[i - 1]] <= ranks[tour[i]]);
+            }
+            assertEquals(matrix.pathLength(tour, stops), length, EPSILON);
+            assertEquals(LocalSearchTest.bruteForce(matrix, stops, ranks), length, EPSILON);
+        }
+    }
+
+    @Test
+    public void solvesSixteenStops() {
+        Random random = new Random(43);
+        int stops = HeldKarpSolver.MAX_STOPS;
+        DistanceMatrix matrix = LocalSearchTest.randomMatrix(random, stops);
+        int[] tour = LocalSearchTest.shuffledTour(random, stops);
+        int[] improved = tour.clone();
+        double local = new LocalSearch(matrix).improve(improved, stops);
+
+        double length = new HeldKarpSolver().solve(matrix, tour, stops);
+
+        LocalSearchTest.assertPermutation(tour, stops);
+        assertEquals(matrix.pathLength(tour, stops), length, EPSILON);
+        assertTrue(length <= local + EPSILON);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMoreThanMaxStops() {
+        int stops = HeldKarpSolver.MAX_STOPS + 1;
+        DistanceMatrix matrix = LocalSearchTest.randomMatrix(new Random(44), stops);
+        new HeldKarpSolver().solve(matrix, LocalSearchTest.shuffledTour(new Random(45), stops), stops);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsCapacityAboveMaxStops() {
+        new HeldKarpSolver(HeldKarpSolver.MAX_STOPS + 1);
+    }
+}
@@ -0,0 +1,113 @@
+package com.mobileinvoice.ocr;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * HilbertCurve keys, orders and routes
+ */
+public class HilbertCurveTest {
+
+    @Test
+    public void keysWalkTheGridOneNeighborAtATime() {
+        // The first 4^k cells of the curve fill the 2^k x 2^k square at the origin
+        int side = 64;
+        int[] xs = new int[side * side];
+        int[] ys = new int[side * side];
+        Arrays.fill(xs, -1);
+        for (int x = 0; x < side; x++) {
+            for (int y = 0; y < side; y++) {
+                long key = HilbertCurve.key(x, y);
+                assertTrue(key < side * side);
+                assertEquals(-1, xs[(int) key]);
+                xs[(int) key] = x;
+                ys[(int) key] = y;
+            }
+        }
+        for (int d = 1; d < side * side; d++) {
+            assertEquals(1, Math.abs(xs[d] - xs[d - 1]) + Math.abs(ys[d] - ys[d - 1]));
+        }
+    }
+
+    @Test
+    public void orderAndRouteVisitEveryPointOnce() {
+        Random random = new Random(31);
+        for (int count : new int[] {0, 1, 2, 3, 50, 5000}) {
+            double[] lats = new double[count];
+            double[] lngs = new double[count];
+            for (int i = 0; i < count; i++) {
+                lats[i] = 40 + random.nextDouble() * 0.5;
+                lngs[i] = -74 + random.nextDouble() * 0.5;
+            }
+            assertPermutation(HilbertCurve.order(lats, lngs, count));
+            assertPermutation(HilbertCurve.route(40.2, -73.8, lats, lngs, count));
+        }
+    }
+
+    @Test
+    public void identicalPointsKeepTheirIndexOrder() {
+        double[] lats = {40.5, 40.5, 40.5};
+        double[] lngs = {-74, -74, -74};
+        assertArrayEquals(new int[] {0, 1, 2}, HilbertCurve.order(lats, lngs, 3));
+    }
+
+    @Test
+    public void routeStartsNearestTheStartAndTakesTheShorterDirection() {
+        Random random = new Random(32);
+        for (int trial = 0; trial < 100; trial++) {
+            int count = 2 + random.nextInt(200);
+            double[] lats = new double[count];
+            double[] lngs = new double[count];
+            for (int i = 0; i < count; i++) {
+                lats[i] = 40 + random.nextDouble() * 0.3;
+                lngs[i] = -74 + random.nextDouble() * 0.3;
+            }
+            double startLat = 40 + random.nextDouble() * 0.3;
+            double startLng = -74 + random.nextDouble() * 0.3;
+
+            int[] route = HilbertCurve.route(startLat, startLng, lats, lngs, count);
+
+            double lngScale = Math.cos(Math.toRadians(startLat));
+            double firstDist = squared(lats, lngs, lngScale, route[0], startLat, startLng);
+            for (int i = 0; i < count; i++) {
+                assertTrue(firstDist <= squared(lats, lngs, lngScale, i, startLat, startLng));
+            }
+
+            // Same first stop, the cycle walked the other way
+            int[] reversed = new int[count];
+            reversed[0] = route[0];
+            for (int k = 1; k < count; k++) {
+                reversed[k] = route[count - k];
+            }
+            assertTrue(length(lats, lngs, route) <= length(lats, lngs, reversed) + 1e-9);
+        }
+    }
+
+    private static void assertPermutation(int[] order) {
+        int[] sorted = order.clone();
+        Arrays.sort(sorted);
+        for (int i = 0; i < sorted.length; i++) {
+            assertEquals(i, sorted[i]);
+        }
+    }
+
+    private static double squared(double[] lats, double[] lngs, double lngScale, int i, double lat, double lng) {
+        double dx = (lngs[i] - lng) * lngScale;
+        double dy = lats[i] - lat;
+        return dx * dx + dy * dy;
+    }
+
+    private static double length(double[] lats, double[] lngs, int[] route) {
+        double total = 0;
+        for (int k = 1; k < route.length; k++) {
+            total += RouteOptimizer.calculateDistance(
+                lats[route[k - 1]], lngs[route[k - 1]], lats[route[k]], lngs[route[k]]);
+        }
+        return total;
+    }
+}
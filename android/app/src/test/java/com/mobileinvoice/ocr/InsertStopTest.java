@@ -0,0 +1,98 @@
+package com.mobileinvoice.ocr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * RouteOptimizer.insertStop against a full ETA recompute and every other gap
+ */
+public class InsertStopTest {
+    private static final double EPSILON = 1e-9;
+
+    @Test
+    public void insertsAtTheCheapestGapAndMatchesFullRecompute() {
+        Random random = new Random(51);
+        for (boolean withMatrix : new boolean[] {true, false}) {
+            RouteOptimizer.OptimizedRoute route = TestRoutes.route(random, 10, withMatrix);
+            for (int id = 100; id < 140; id++) {
+                RouteOptimizer.RoutePoint point = TestRoutes.stop(random, id);
+
+                RouteOptimizer.EtaChange change = RouteOptimizer.insertStop(route, point);
+
+                int index = route.orderedPoints.indexOf(point);
+                assertEquals(index, change.fromIndex);
+                assertEquals(route.orderedPoints.size() - index, change.count);
+                if (withMatrix) {
+                    assertTrue(point.matrixIndex > 0);
+                }
+                assertCheapestGap(route, point);
+                TestRoutes.assertMatchesFullRecompute(route);
+            }
+        }
+    }
+
+    @Test
+    public void keepsPinnedStopsFirstAndLast() {
+        Random random = new Random(52);
+        RouteOptimizer.OptimizedRoute route = TestRoutes.route(random, 8, true);
+        route.orderedPoints.get(0).priority = RouteOptimizer.PRIORITY_FIRST;
+        route.orderedPoints.get(1).priority = RouteOptimizer.PRIORITY_FIRST;
+        route.orderedPoints.get(7).priority = RouteOptimizer.PRIORITY_LAST;
+        int[] priorities = {
+            RouteOptimizer.PRIORITY_NORMAL, RouteOptimizer.PRIORITY_FIRST, RouteOptimizer.PRIORITY_LAST
+        };
+        for (int id = 100; id < 130; id++) {
+            RouteOptimizer.RoutePoint point = TestRoutes.stop(random, id);
+            point.priority = priorities[random.nextInt(priorities.length)];
+
+            RouteOptimizer.insertStop(route, point);
+
+            List<RouteOptimizer.RoutePoint> points = route.orderedPoints;
+            for (int i = 1; i < points.size(); i++) {
+                assertTrue(RouteOptimizer.priorityRank(points.get(i - 1))
+                    <= RouteOptimizer.priorityRank(points.get(i)));
+            }
+            assertCheapestGap(route, point);
+            TestRoutes.assertMatchesFullRecompute(route);
+        }
+    }
+
+    @Test
+    public void routeWithoutETAsGetsThemCalculated() {
+        Random random = new Random(53);
+        RouteOptimizer.OptimizedRoute route = TestRoutes.route(random, 5, true);
+        route.arrivalOffsets = new int[0];
+
+        RouteOptimizer.insertStop(route, TestRoutes.stop(random, 100));
+
+        assertEquals(6, route.arrivalOffsets.length);
+        TestRoutes.assertMatchesFullRecompute(route);
+    }
+
+    /**
+     * No other gap that keeps the pins in order gives a shorter route
+     */
+    private static void assertCheapestGap(RouteOptimizer.OptimizedRoute route, RouteOptimizer.RoutePoint point) {
+        List<RouteOptimizer.RoutePoint> others = new ArrayList<>(route.orderedPoints);
+        others.remove(point);
+        RouteOptimizer.OptimizedRoute trial = new RouteOptimizer.OptimizedRoute();
+        trial.distanceMatrix = route.distanceMatrix;
+        for (int i = 0; i <= others.size(); i++) {
+            List<RouteOptimizer.RoutePoint> order = new ArrayList<>(others);
+            order.add(i, point);
+            boolean ranked = true;
+            for (int k = 1; k < order.size(); k++) {
+                ranked &= RouteOptimizer.priorityRank(order.get(k - 1)) <= RouteOptimizer.priorityRank(order.get(k));
+            }
+            if (!ranked) continue;
+            trial.orderedPoints = order;
+            double length = RouteOptimizer.calculateRouteDistance(trial, route.startLatitude, route.startLongitude);
+            assertTrue("gap " + i, route.totalDistance <= length + EPSILON);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.mobileinvoice.ocr;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * LocalSearch against brute force on routes small enough to enumerate
+ */
+public class LocalSearchTest {
+    private static final double EPSILON = 1e-9;
+
+    @Test
+    public void neverWorseThanStartAndNeverBetterThanOptimal() {
+        Random random = new Random(1);
+        double worstGap = 0;
+        for (int trial = 0; trial < 200; trial++) {
+            int stops = 3 + random.nextInt(6);
+            DistanceMatrix matrix = randomMatrix(random, stops);
+            int[] tour = shuffledTour(random, stops);
+            double start = matrix.pathLength(tour, stops);
+
+            double length = new LocalSearch(matrix).setTimeBudgetMillis(1000).improve(tour, stops);
+
+            assertPermutation(tour, stops);
+            assertEquals(matrix.pathLength(tour, stops), length, EPSILON);
+            assertTrue(length <= start + EPSILON);
+            double optimal = bruteForce(matrix, stops, null);
+            assertTrue(length >= optimal - EPSILON);
+            worstGap = Math.max(worstGap, length / optimal - 1);
+        }
+        // 2-opt + Or-opt local optima on up to 8 stops are close to the optimum
+        assertTrue("worst gap " + worstGap, worstGap < 0.15);
+    }
+
+    @Test
+    public void keepsRanksInOrder() {
+        Random random = new Random(2);
+        for (int trial = 0; trial < 100; trial++) {
+            int stops = 4 + random.nextInt(5);
+            DistanceMatrix matrix = randomMatrix(random, stops);
+            int[] ranks = new int[stops + 1];
+            for (int i = 1; i <= stops; i++) {
+                ranks[i] = random.nextInt(3);
+            }
+            // Start from a tour that already respects the ranks
+            int[] tour = shuffledTour(random, stops);
+            Integer[] boxed = new Integer[stops];
+            for (int i = 0; i < stops; i++) {
+                boxed[i] = tour[i];
+            }
+            Arrays.sort(boxed, (a, b) -> Integer.compare(ranks[a], ranks[b]));
+            for (int i = 0; i < stops; i++) {
+                tour[i] = boxed[i];
+            }
+
+            double length = new LocalSearch(matrix).setRanks(ranks).setTimeBudgetMillis(1000).improve(tour, stops);
+
+            assertPermutation(tour, stops);
+            for (int i = 1; i < stops; i++) {
+                assertTrue(ranks[tour[i - 1]] <= ranks[tour[i]]);
+            }
+            assertTrue(length >= bruteForce(matrix, stops, ranks) - EPSILON);
+        }
+    }
+
+    @Test
+    public void shortRoutesAreLeftAlone() {
+        DistanceMatrix matrix = randomMatrix(new Random(3), 2);
+        int[] tour = {2, 1};
+        double length = new LocalSearch(matrix).improve(tour, 2);
+        assertArrayEquals(new int[] {2, 1}, tour);
+        assertEquals(matrix.pathLength(tour, 2), length, EPSILON);
+    }
+
+    static DistanceMatrix randomMatrix(Random random, int stops) {
+        double[] lats = new double[stops];
+        double[] lngs = new double[stops];
+        for (int i = 0; i < stops; i++) {
+            lats[i] = 40 + random.nextDouble() * 0.2;
+            lngs[i] = -74 + random.nextDouble() * 0.2;
+        }
+        return DistanceMatrix.fromCoordinates(40.1, -73.9, lats, lngs, stops);
+    }
+
+    static int[] shuffledTour(Random random, int stops) {
+        int[] tour = new int[stops];
+        for (int i = 0; i < stops; i++) {
+            tour[i] = i + 1;
+        }
+        for (int i = stops - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int tmp = tour[i];
+            tour[i] = tour[j];
+            tour[j] = tmp;
+        }
+        return tour;
+    }
+
+    static void assertPermutation(int[] tour, int stops) {
+        int[] sorted = Arrays.copyOf(tour, stops);
+        Arrays.sort(sorted);
+        for (int i = 0; i < stops; i++) {
+            assertEquals(i + 1, sorted[i]);
+        }
+    }
+
+    /**
+     * Shortest open route from the origin over every order of the stops
+     * @param ranks Precedence ranks by matrix index, or null
+     */
+    static double bruteForce(DistanceMatrix matrix, int stops, int[] ranks) {
+        int[] tour = new int[stops];
+        for (int i = 0; i < stops; i++) {
+            tour[i] = i + 1;
+        }
+        return permute(matrix, tour, 0, ranks);
+    }
+
+    private static double permute(DistanceMatrix matrix, int[] tour, int k, int[] ranks) {
+        if (k == tour.length) {
+            if (ranks != null) {
+                for (int i = 1; i < tour.length; i++) {
+                    if (ranks[tour[i - 1]] > ranks[tour[i]]) return Double.MAX_VALUE;
+                }
+            }
+            return matrix.pathLength(tour, tour.length);
+        }
+        double best = Double.MAX_VALUE;
+        for (int i = k; i < tour.length; i++) {
+            int tmp = tour[k];
+            tour[k] = tour[i];
+            tour[i] = tmp;
+            best = Math.min(best, permute(matrix, tour, k + 1, ranks));
+            tour[i] = tour[k];
+            tour[k] = tmp;
+        }
+        return best;
+    }
+}
@@ -0,0 +1,79 @@
+package com.mobileinvoice.ocr;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+/**
+ * RateLimiter burst and spacing
+ */
+public class RateLimiterTest {
+
+    @Test
+    public void burstIsImmediateThenCallsAreSpacedByTheRate() throws InterruptedException {
+        RateLimiter limiter = new RateLimiter(20, 3);
+        long start = System.nanoTime();
+        for (int i = 0; i < 3; i++) {
+            limiter.acquire();
+        }
+        assertTrue(millisSince(start) < 45);
+
+        long previous = System.nanoTime();
+        for (int i = 0; i < 5; i++) {
+            limiter.acquire();
+            long now = System.nanoTime();
+            // 50 ms per token; sleeps may overshoot but never end early
+            assertTrue(millisSince(previous) >= 45);
+            previous = now;
+        }
+        assertTrue(millisSince(start) >= 5 * 50 - 5);
+    }
+
+    @Test
+    public void threadsShareTheRate() throws InterruptedException {
+        RateLimiter limiter = new RateLimiter(50, 1);
+        limiter.acquire();
+        long start = System.nanoTime();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    for (int i = 0; i < 5; i++) {
+                        limiter.acquire();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        // 20 tokens at 20 ms each, however the threads interleave
+        assertTrue(millisSince(start) >= 20 * 20 - 5);
+    }
+
+    @Test
+    public void idleTimeRefillsOnlyUpToTheBurst() throws InterruptedException {
+        RateLimiter limiter = new RateLimiter(100, 2);
+        Thread.sleep(100);   // Would be 10 tokens without the cap
+        long start = System.nanoTime();
+        for (int i = 0; i < 4; i++) {
+            limiter.acquire();
+        }
+        assertTrue(millisSince(start) >= 2 * 10 - 2);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsZeroRate() {
+        new RateLimiter(0, 1);
+    }
+
+    private static long millisSince(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1_000_000;
+    }
+}
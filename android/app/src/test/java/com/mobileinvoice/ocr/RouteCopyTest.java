@@ -0,0 +1,55 @@
+package com.mobileinvoice.ocr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import com.mobileinvoice.ocr.database.Invoice;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * OptimizedRoute.copy gives a second owner a route it can edit on its own
+ */
+public class RouteCopyTest {
+
+    @Test
+    public void editsToACopyLeaveTheOriginalAlone() {
+        Random random = new Random(61);
+        RouteOptimizer.OptimizedRoute route = TestRoutes.route(random, 12, true);
+        Invoice own = new Invoice();
+        own.setId(route.orderedPoints.get(2).invoice.getId());
+        Map<Integer, Invoice> invoicesById = new HashMap<>();
+        invoicesById.put(own.getId(), own);
+
+        RouteOptimizer.OptimizedRoute copy = route.copy(invoicesById);
+        TestRoutes.assertMatchesFullRecompute(copy);
+        assertSame(own, copy.orderedPoints.get(2).invoice);
+        assertSame(own, copy.orderedPoints.get(2).invoices.get(0));
+        assertSame(route.orderedPoints.get(3).invoice, copy.orderedPoints.get(3).invoice);
+
+        long[] etas = new long[12];
+        for (int i = 0; i < 12; i++) {
+            etas[i] = route.orderedPoints.get(i).etaMillis;
+        }
+        int matrixSize = route.distanceMatrix.size();
+        double originLeg = route.distanceMatrix.get(0, 1);
+
+        RouteOptimizer.removeStop(copy, 0);
+        RouteOptimizer.updateStopTime(copy, 4, 90);
+        RouteOptimizer.insertStop(copy, TestRoutes.stop(random, 100));
+        RouteOptimizer.replanFrom(copy, 40.15, -73.95, RouteOptimizer.REPLAN_BUDGET_MS);
+        TestRoutes.assertMatchesFullRecompute(copy);
+
+        assertNotSame(route.distanceMatrix, copy.distanceMatrix);
+        assertEquals(matrixSize, route.distanceMatrix.size());
+        assertEquals(originLeg, route.distanceMatrix.get(0, 1), 0);
+        assertEquals(12, route.orderedPoints.size());
+        for (int i = 0; i < 12; i++) {
+            assertEquals(etas[i], route.orderedPoints.get(i).etaMillis);
+        }
+        TestRoutes.assertMatchesFullRecompute(route);
+    }
+}
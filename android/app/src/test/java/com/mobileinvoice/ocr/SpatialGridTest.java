@@ -0,0 +1,80 @@
+package com.mobileinvoice.ocr;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * SpatialGrid nearest-point queries against a linear scan in the same projection
+ */
+public class SpatialGridTest {
+
+    @Test
+    public void nearestMatchesLinearScanWhilePointsAreRemoved() {
+        Random random = new Random(7);
+        for (int count : new int[] {1, 2, 17, 200, 2000}) {
+            double[] lats = new double[count];
+            double[] lngs = new double[count];
+            for (int i = 0; i < count; i++) {
+                // Clustered, like deliveries around a few towns
+                double town = random.nextInt(3) * 0.3;
+                lats[i] = 40 + town + random.nextGaussian() * 0.02;
+                lngs[i] = -74 + town + random.nextGaussian() * 0.02;
+            }
+            SpatialGrid grid = new SpatialGrid(lats, lngs, count);
+            boolean[] removed = new boolean[count];
+            double lngScale = Math.cos(Math.toRadians(mean(lats)));
+
+            for (int step = 0; step < count; step++) {
+                double lat = 39.9 + random.nextDouble() * 0.9;
+                double lng = -74.1 + random.nextDouble() * 0.9;
+                int found = grid.nearest(lat, lng);
+                int expected = linearNearest(lats, lngs, removed, lngScale, lat, lng);
+                // Ties may pick either point; the distance must match
+                assertEquals(squared(lats, lngs, lngScale, expected, lat, lng),
+                    squared(lats, lngs, lngScale, found, lat, lng), 1e-12);
+
+                grid.remove(found);
+                removed[found] = true;
+                assertEquals(count - step - 1, grid.remaining());
+            }
+            assertEquals(-1, grid.nearest(40, -74));
+        }
+    }
+
+    @Test
+    public void removingTwiceIsHarmless() {
+        SpatialGrid grid = new SpatialGrid(new double[] {40, 41}, new double[] {-74, -75}, 2);
+        grid.remove(0);
+        grid.remove(0);
+        assertEquals(1, grid.remaining());
+        assertEquals(1, grid.nearest(40, -74));
+    }
+
+    private static int linearNearest(double[] lats, double[] lngs, boolean[] removed,
+                                     double lngScale, double lat, double lng) {
+        int best = -1;
+        for (int i = 0; i < lats.length; i++) {
+            if (removed[i]) continue;
+            if (best < 0 || squared(lats, lngs, lngScale, i, lat, lng) < squared(lats, lngs, lngScale, best, lat, lng)) {
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    private static double squared(double[] lats, double[] lngs, double lngScale, int i, double lat, double lng) {
+        double dx = (lngs[i] - lng) * lngScale;
+        double dy = lats[i] - lat;
+        return dx * dx + dy * dy;
+    }
+
+    private static double mean(double[] values) {
+        double sum = 0;
+        for (double value : values) {
+            sum += value;
+        }
+        return sum / values.length;
+    }
+}
@@ -0,0 +1,87 @@
+package com.mobileinvoice.ocr;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import com.mobileinvoice.ocr.database.Invoice;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Random routes for the route editing tests, and a check against a full ETA recompute
+ */
+final class TestRoutes {
+    static final double START_LAT = 40.1;
+    static final double START_LNG = -73.9;
+    static final long START_MILLIS = 1_700_000_000_000L;
+
+    private TestRoutes() {
+    }
+
+    static RouteOptimizer.RoutePoint stop(Random random, int id) {
+        Invoice invoice = new Invoice();
+        invoice.setId(id);
+        invoice.setCustomerName("Customer " + id);
+        invoice.setAddress(id + " Main St");
+        invoice.setStopTimeMinutes(5 + random.nextInt(30));
+        return new RouteOptimizer.RoutePoint(invoice,
+            40 + random.nextDouble() * 0.2, -74 + random.nextDouble() * 0.2, invoice.getAddress());
+    }
+
+    /**
+     * Route over count random stops in generation order, with ETAs from START_MILLIS
+     * @param withMatrix Give the route a DistanceMatrix (else legs are plain haversine)
+     */
+    static RouteOptimizer.OptimizedRoute route(Random random, int count, boolean withMatrix) {
+        List<RouteOptimizer.RoutePoint> points = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            points.add(stop(random, i + 1));
+        }
+        RouteOptimizer.OptimizedRoute route = new RouteOptimizer.OptimizedRoute();
+        if (withMatrix) {
+            route.distanceMatrix = DistanceMatrix.build(START_LAT, START_LNG, points);
+        }
+        route.orderedPoints = new ArrayList<>(points);
+        for (int i = 0; i < count; i++) {
+            points.get(i).orderIndex = i + 1;
+        }
+        RouteOptimizer.calculateETAs(route, START_LAT, START_LNG, START_MILLIS);
+        route.totalDistance = RouteOptimizer.calculateRouteDistance(route, START_LAT, START_LNG);
+        route.totalStops = count;
+        return route;
+    }
+
+    /**
+     * The incremental state of a route must equal recomputing every leg and ETA from scratch
+     */
+    static void assertMatchesFullRecompute(RouteOptimizer.OptimizedRoute route) {
+        int n = route.orderedPoints.size();
+        long[] etas = new long[n];
+        double[] distances = new double[n];
+        int[] travel = new int[n];
+        for (int i = 0; i < n; i++) {
+            RouteOptimizer.RoutePoint point = route.orderedPoints.get(i);
+            assertEquals(i + 1, point.orderIndex);
+            etas[i] = point.etaMillis;
+            distances[i] = point.distanceFromPrevious;
+            travel[i] = point.travelTimeMinutes;
+        }
+        int[] offsets = route.arrivalOffsets.clone();
+        long end = route.endTimeMillis;
+        double total = route.totalDistance;
+
+        RouteOptimizer.calculateETAs(route, route.startLatitude, route.startLongitude, route.startTimeMillis);
+        for (int i = 0; i < n; i++) {
+            RouteOptimizer.RoutePoint point = route.orderedPoints.get(i);
+            assertEquals("distance to stop " + i, point.distanceFromPrevious, distances[i], 1e-9);
+            assertEquals("travel to stop " + i, point.travelTimeMinutes, travel[i]);
+            assertEquals("ETA of stop " + i, point.etaMillis, etas[i]);
+        }
+        assertArrayEquals(route.arrivalOffsets, offsets);
+        assertEquals(route.endTimeMillis, end);
+        assertEquals(RouteOptimizer.calculateRouteDistance(route, route.startLatitude, route.startLongitude),
+            total, 1e-9);
+        assertEquals(n, route.totalStops);
+    }
+}
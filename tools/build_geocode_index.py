@@ -0,0 +1,148 @@
+#!/usr/bin/env python3
+"""
+Build the offline geocode index (geocode_index.bin) used when the Geocoder is unreachable
+
+Reads ZIP code centroids and, optionally, street address ranges for the service region and
+writes the sorted binary layout OfflineGeocoder.java memory-maps.
+
+  zips.csv:    zip,lat,lng
+  streets.csv: zip,street,from_number,to_number,from_lat,from_lng,to_lat,to_lng
+               (one row per block range; from/to are the house numbers at each end)
+
+Usage:
+  python3 build_geocode_index.py zips.csv geocode_index.bin [--streets streets.csv]
+
+Copy the output into the app's files directory as geocode_index.bin.
+"""
+
+import argparse
+import array
+import csv
+import sys
+
+MAGIC = 0x58444947   # "GIDX"
+VERSION = 1
+
+# Same table as AddressCanonicalizer.java: street names are stored as its keys
+ABBREVIATIONS = {
+    'alley': 'aly', 'apartment': '#', 'apt': '#', 'av': 'ave', 'avenue': 'ave',
+    'boulevard': 'blvd', 'circle': 'cir', 'court': 'ct', 'drive': 'dr', 'east': 'e',
+    'expressway': 'expy', 'freeway': 'fwy', 'highway': 'hwy', 'lane': 'ln', 'north': 'n',
+    'northeast': 'ne', 'northwest': 'nw', 'parkway': 'pkwy', 'place': 'pl', 'road': 'rd',
+    'south': 's', 'southeast': 'se', 'southwest': 'sw', 'square': 'sq', 'ste': '#',
+    'str': 'st', 'street': 'st', 'suite': '#', 'terrace': 'ter', 'trail': 'trl',
+    'unit': '#', 'west': 'w',
+}
+
+
+def canonical_key(text):
+    """AddressCanonicalizer.canonicalKey in Python"""
+    key = []
+    after_unit = False
+    word = []
+
+    def unit():
+        nonlocal after_unit
+        if not after_unit:
+            key.append(' #' if key else '#')
+            after_unit = True
+
+    def end_word():
+        nonlocal after_unit
+        if not word:
+            return
+        w = ''.join(word)
+        word.clear()
+        short = ABBREVIATIONS.get(w, w)
+        if short == '#':
+            unit()
+            return
+        if key and not after_unit:
+            key.append(' ')
+        key.append(short)
+        after_unit = False
+
+    for c in text.lower():
+        if c.isalnum():
+            word.append(c)
+        else:
+            end_word()
+            if c == '#':
+                unit()
+    end_word()
+    return ''.join(key)
+
+
+def read_zips(path):
+    zips = {}
+    with open(path, newline='') as f:
+        for row in csv.DictReader(f):
+            zips[int(row['zip'].strip()[:5])] = (e6(row['lat']), e6(row['lng']))
+    return sorted((z, lat, lng) for z, (lat, lng) in zips.items())
+
+
+def read_streets(path):
+    ranges = []
+    with open(path, newline='') as f:
+        for row in csv.DictReader(f):
+            name = canonical_key(row['street']).encode('utf-8')
+            if not name:
+                continue
+            ranges.append((int(row['zip'].strip()[:5]), name,
+                           int(row['from_number']), int(row['to_number']),
+                           e6(row['from_lat']), e6(row['from_lng']),
+                           e6(row['to_lat']), e6(row['to_lng'])))
+    # Java compares names as unsigned bytes, which is how Python orders bytes
+    ranges.sort(key=lambda r: (r[0], r[1], min(r[2], r[3])))
+    return ranges
+
+
+def e6(value):
+    return round(float(value) * 1e6)
+
+
+def write_index(path, zips, ranges):
+    names = bytearray()
+    offsets = {}
+    columns = [array.array('i') for _ in range(9)]
+    for zip_code, name, from_number, to_number, from_lat, from_lng, to_lat, to_lng in ranges:
+        if name not in offsets:
+            offsets[name] = len(names)
+            names += name
+        values = (zip_code, offsets[name], len(name), from_number, to_number,
+                  from_lat, from_lng, to_lat, to_lng)
+        for column, value in zip(columns, values):
+            column.append(value)
+
+    header = array.array('i', [MAGIC, VERSION, len(zips), len(ranges), len(names)])
+    parts = [header,
+             array.array('i', (z[0] for z in zips)),
+             array.array('i', (z[1] for z in zips)),
+             array.array('i', (z[2] for z in zips))] + columns
+
+    with open(path, 'wb') as f:
+        for part in parts:
+            if sys.byteorder != 'little':
+                part.byteswap()
+            part.tofile(f)
+        f.write(names)
+    return len(names)
+
+
+def main():
+    parser = argparse.ArgumentParser(description='Build geocode_index.bin (ZIP centroids + street ranges)')
+    parser.add_argument('zips', help='zips.csv: zip,lat,lng')
+    parser.add_argument('output', help='Output file (geocode_index.bin)')
+    parser.add_argument('--streets', help='streets.csv: zip,street,from_number,to_number,'
+                                          'from_lat,from_lng,to_lat,to_lng')
+    args = parser.parse_args()
+
+    zips = read_zips(args.zips)
+    ranges = read_streets(args.streets) if args.streets else []
+    name_bytes = write_index(args.output, zips, ranges)
+    print(f"Wrote {args.output}: {len(zips)} ZIP codes, {len(ranges)} street ranges "
+          f"({name_bytes} bytes of street names)", file=sys.stderr)
+
+
+if __name__ == '__main__':
+    main()
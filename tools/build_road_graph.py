@@ -0,0 +1,201 @@
+#!/usr/bin/env python3
+"""
+Build the offline road graph (road_graph.bin) used for route planning
+
+Reads the service region's road network as two CSV files and writes a contraction
+hierarchy in the binary layout RoadGraph.java memory-maps.
+
+  nodes.csv: id,lat,lng
+  edges.csv: from,to,seconds,meters[,oneway]   (oneway=1 for one-way streets)
+
+Usage:
+  python3 build_road_graph.py nodes.csv edges.csv road_graph.bin
+
+Copy the output into the app's files directory as road_graph.bin.
+"""
+
+import argparse
+import array
+import csv
+import heapq
+import sys
+
+MAGIC = 0x48434752   # "RGCH"
+VERSION = 1
+WITNESS_SETTLE_LIMIT = 500   # Witness searches give up after this many nodes (adds a shortcut)
+INF = float('inf')
+
+
+def read_graph(nodes_path, edges_path):
+    """Load nodes and edges; parallel edges keep the fastest"""
+    ids = {}
+    lats = []
+    lngs = []
+    with open(nodes_path, newline='') as f:
+        for row in csv.DictReader(f):
+            ids[row['id']] = len(lats)
+            lats.append(float(row['lat']))
+            lngs.append(float(row['lng']))
+
+    out = [dict() for _ in lats]
+    inn = [dict() for _ in lats]
+    with open(edges_path, newline='') as f:
+        for row in csv.DictReader(f):
+            u = ids[row['from']]
+            v = ids[row['to']]
+            if u == v:
+                continue
+            tenths = max(1, round(float(row['seconds']) * 10))
+            meters = round(float(row['meters']))
+            add_edge(out, inn, u, v, tenths, meters)
+            if row.get('oneway', '0').strip() not in ('1', 'true', 'yes'):
+                add_edge(out, inn, v, u, tenths, meters)
+    return lats, lngs, out, inn
+
+
+def add_edge(out, inn, u, v, tenths, meters):
+    current = out[u].get(v)
+    if current is None or tenths < current[0]:
+        out[u][v] = (tenths, meters)
+        inn[v][u] = (tenths, meters)
+
+
+def witness_distances(out, contracted, source, avoid, limit):
+    """Dijkstra from source over uncontracted nodes except avoid, up to limit"""
+    dist = {source: 0}
+    heap = [(0, source)]
+    settled = 0
+    while heap:
+        d, x = heapq.heappop(heap)
+        if d > dist[x]:
+            continue
+        if d > limit:
+            break
+        settled += 1
+        if settled > WITNESS_SETTLE_LIMIT:
+            break
+        for y, (w, _) in out[x].items():
+            if y == avoid or contracted[y]:
+                continue
+            nd = d + w
+            if nd < dist.get(y, INF):
+                dist[y] = nd
+                heapq.heappush(heap, (nd, y))
+    return dist
+
+
+def shortcuts(out, inn, contracted, v):
+    """Shortcuts needed to contract v: u -> v -> x with no shorter path around v"""
+    ins = [(u, w, m) for u, (w, m) in inn[v].items() if not contracted[u]]
+    outs = [(x, w, m) for x, (w, m) in out[v].items() if not contracted[x]]
+    result = []
+    if not outs:
+        return result, len(ins) + len(outs)
+    max_out = max(w for _, w, _ in outs)
+    for u, wu, mu in ins:
+        dist = witness_distances(out, contracted, u, v, wu + max_out)
+        for x, wx, mx in outs:
+            if x != u and dist.get(x, INF) > wu + wx:
+                result.append((u, x, wu + wx, mu + mx))
+    return result, len(ins) + len(outs)
+
+
+def contract(out, inn):
+    """Contract every node (edge difference + contracted neighbors, lazy updates)"""
+    n = len(out)
+    contracted = [False] * n
+    deleted_neighbors = [0] * n
+    rank = [0] * n
+
+    def priority(v):
+        added, removed = shortcuts(out, inn, contracted, v)
+        return len(added) - removed + deleted_neighbors[v]
+
+    heap = [(priority(v), v) for v in range(n)]
+    heapq.heapify(heap)
+    order = 0
+    while heap:
+        _, v = heapq.heappop(heap)
+        if contracted[v]:
+            continue
+        current = priority(v)
+        if heap and current > heap[0][0]:
+            heapq.heappush(heap, (current, v))
+            continue
+
+        added, _ = shortcuts(out, inn, contracted, v)
+        for u, x, tenths, meters in added:
+            add_edge(out, inn, u, x, tenths, meters)
+        contracted[v] = True
+        rank[v] = order
+        order += 1
+        for neighbor in list(out[v]) + list(inn[v]):
+            deleted_neighbors[neighbor] += 1
+        if order % 10000 == 0:
+            print(f"  contracted {order}/{n}", file=sys.stderr)
+    return rank
+
+
+def csr(lists):
+    """Flatten per-node edge lists into first/target/tenths/meters arrays"""
+    first = array.array('i', [0])
+    target = array.array('i')
+    tenths = array.array('i')
+    meters = array.array('i')
+    for edges in lists:
+        for v, w, m in edges:
+            target.append(v)
+            tenths.append(w)
+            meters.append(m)
+        first.append(len(target))
+    return first, target, tenths, meters
+
+
+def write_graph(path, lats, lngs, out, rank):
+    n = len(out)
+    up = [[] for _ in range(n)]
+    down = [[] for _ in range(n)]
+    for u in range(n):
+        for v, (w, m) in out[u].items():
+            if rank[v] > rank[u]:
+                up[u].append((v, w, m))     # Forward search climbs u -> v
+            else:
+                down[v].append((u, w, m))   # Backward search from v climbs to u
+
+    up_first, up_target, up_tenths, up_meters = csr(up)
+    down_first, down_target, down_tenths, down_meters = csr(down)
+
+    header = array.array('i', [MAGIC, VERSION, n, len(up_target), len(down_target)])
+    lat_e6 = array.array('i', (round(lat * 1e6) for lat in lats))
+    lng_e6 = array.array('i', (round(lng * 1e6) for lng in lngs))
+    parts = [header, lat_e6, lng_e6,
+             up_first, up_target, up_tenths, up_meters,
+             down_first, down_target, down_tenths, down_meters]
+
+    with open(path, 'wb') as f:
+        for part in parts:
+            if sys.byteorder != 'little':
+                part.byteswap()
+            part.tofile(f)
+    return len(up_target), len(down_target)
+
+
+def main():
+    parser = argparse.ArgumentParser(description='Build road_graph.bin (contraction hierarchy)')
+    parser.add_argument('nodes', help='nodes.csv: id,lat,lng')
+    parser.add_argument('edges', help='edges.csv: from,to,seconds,meters[,oneway]')
+    parser.add_argument('output', help='Output file (road_graph.bin)')
+    args = parser.parse_args()
+
+    lats, lngs, out, inn = read_graph(args.nodes, args.edges)
+    original = sum(len(edges) for edges in out)
+    print(f"Read {len(lats)} nodes, {original} directed edges", file=sys.stderr)
+
+    rank = contract(out, inn)
+    up, down = write_graph(args.output, lats, lngs, out, rank)
+    print(f"Wrote {args.output}: {up} upward + {down} downward edges "
+          f"({up + down - original} shortcuts)", file=sys.stderr)
+
+
+if __name__ == '__main__':
+    main()